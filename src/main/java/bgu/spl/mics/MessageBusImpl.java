@@ -17,6 +17,25 @@ public class MessageBusImpl implements MessageBus {
     private final Map<Class<? extends Broadcast>, List<MicroService>> broadcastSubscribers = new ConcurrentHashMap<>();
     private final Map<Event<?>, Future<?>> eventFutures = new ConcurrentHashMap<>();
     private final Map<MicroService, BlockingQueue<Message>> microServiceQueues = new ConcurrentHashMap<>();
+    // Events waiting for their tick and the pending ones of each sender, both guarded by delayedEvents
+    private final TimingWheel<DelayedEvent> delayedEvents = new TimingWheel<>(0);
+    private final Map<MicroService, Set<TimingWheel.Entry<DelayedEvent>>> delayedBySender = new HashMap<>();
+
+    // An event scheduled with sendEventAt
+    private static class DelayedEvent {
+        private final Event<?> event;
+        private final MicroService sender;
+        private final String target; // the subscriber to send it to, null for round-robin
+        private final Runnable onSend;
+        private TimingWheel.Entry<DelayedEvent> entry; // set once it is scheduled
+
+        private DelayedEvent(Event<?> event, MicroService sender, String target, Runnable onSend) {
+            this.event = event;
+            this.sender = sender;
+            this.target = target;
+            this.onSend = onSend;
+        }
+    }
 
     private static class SingletonHolderMessageBusImpl { // Implementation as shown in class
         private static final MessageBusImpl INSTANCE = new MessageBusImpl();
@@ -66,22 +85,32 @@ public class MessageBusImpl implements MessageBus {
 
     @Override
     public void sendBroadcast(Broadcast b) {
+        // A new tick first delivers the events that are due, so they are queued before the tick
+        if (b instanceof TimedBroadcast) {
+            sendDelayedEvents(((TimedBroadcast) b).getTime());
+        }
         // Retrieve the list of subscribers for this broadcast type
         List<MicroService> subscribers = broadcastSubscribers.get(b.getClass());
+        // Check if there are any subscribers
+        if (subscribers == null) {
+            System.out.println("No subscribers found for broadcast: " + b.getClass().getSimpleName());
+            return;
+        }
         synchronized (subscribers) {
-            // Check if there are any subscribers
-            if (subscribers == null || subscribers.isEmpty()) {
+            if (subscribers.isEmpty()) {
                 System.out.println("No subscribers found for broadcast: " + b.getClass().getSimpleName());
             } else {
                 for (MicroService m : subscribers) {
+                    BlockingQueue<Message> queue = microServiceQueues.get(m);
                     // Check if the microservice is registered
-                    if (!microServiceQueues.containsKey(m)) {
+                    if (queue == null) {
                         System.out.println(
                                 "Error: MicroService " + m.getName() + " is not registered in microServiceQueues.");
+                        continue;
                     }
                     try {
                         // Add the broadcast to the microservice's queue
-                        microServiceQueues.get(m).put(b);
+                        queue.put(b);
                     } catch (InterruptedException e) {
                         // Handle InterruptedException
                         Thread.currentThread().interrupt();
@@ -91,6 +120,83 @@ public class MessageBusImpl implements MessageBus {
         }
     }
 
+    /**
+     * Sends an event once the clock reaches a tick, that is right before the
+     * {@link TimedBroadcast} of that tick is queued. An event for a tick that
+     * was already broadcast is sent right away. An event counts as pending for
+     * its sender until it is sent and {@code onSend} has run. The pending
+     * events of a sender are dropped when it unregisters.
+     *
+     * @param e      The event to send.
+     * @param tick   The tick to send it at.
+     * @param sender The micro-service that sends it.
+     * @param onSend Runs right after the event is sent, on the thread that
+     *               sends it (may be null).
+     */
+    public void sendEventAt(Event<?> e, int tick, MicroService sender, Runnable onSend) {
+        sendEventAt(e, tick, sender, null, onSend);
+    }
+
+    /**
+     * Like {@link #sendEventAt(Event, int, MicroService, Runnable)}, but the
+     * event goes to the named subscriber (see {@link #sendEventTo(Event, String)}).
+     *
+     * @param target The name of the subscriber, null for round-robin.
+     */
+    public void sendEventAt(Event<?> e, int tick, MicroService sender, String target, Runnable onSend) {
+        DelayedEvent delayed = new DelayedEvent(e, sender, target, onSend);
+        synchronized (delayedEvents) {
+            if (tick > delayedEvents.getNow()) {
+                delayed.entry = delayedEvents.schedule(delayed, tick);
+                delayedBySender.computeIfAbsent(sender, m -> Collections.newSetFromMap(new IdentityHashMap<>()))
+                        .add(delayed.entry);
+                return;
+            }
+        }
+        send(delayed);
+    }
+
+    // Returns how many events of a sender wait for their tick or are being sent
+    public int getNumberOfDelayedEvents(MicroService sender) {
+        synchronized (delayedEvents) {
+            Set<TimingWheel.Entry<DelayedEvent>> pending = delayedBySender.get(sender);
+            return pending == null ? 0 : pending.size();
+        }
+    }
+
+    // Sends the delayed events that are due at a tick, in tick order
+    private void sendDelayedEvents(int tick) {
+        List<DelayedEvent> due;
+        synchronized (delayedEvents) {
+            if (tick < delayedEvents.getNow()) { // the clock started over, a new run
+                delayedEvents.clear(tick);
+                delayedBySender.clear();
+            }
+            due = delayedEvents.advanceTo(tick);
+        }
+        for (DelayedEvent delayed : due) {
+            send(delayed);
+            // only now the sender may see that nothing is pending
+            synchronized (delayedEvents) {
+                Set<TimingWheel.Entry<DelayedEvent>> pending = delayedBySender.get(delayed.sender);
+                if (pending != null && pending.remove(delayed.entry) && pending.isEmpty()) {
+                    delayedBySender.remove(delayed.sender);
+                }
+            }
+        }
+    }
+
+    private void send(DelayedEvent delayed) {
+        if (delayed.target != null) {
+            sendEventTo(delayed.event, delayed.target);
+        } else {
+            sendEvent(delayed.event);
+        }
+        if (delayed.onSend != null) {
+            delayed.onSend.run();
+        }
+    }
+
     /**
      * Sends an event to a subscribed microservice (if there is a subscriber).
      * If there are subscribers, the event is sent according to the round-robin
@@ -129,6 +235,43 @@ public class MessageBusImpl implements MessageBus {
         return future;
     }
 
+    /**
+     * Sends an event to the subscriber with the given name instead of the next
+     * one in the round-robin, for events that only that subscriber can handle.
+     *
+     * @param e    The event to send.
+     * @param name The name of the subscriber.
+     * @return The Future of the event, or null if no subscriber of its type
+     *         has that name.
+     */
+    public <T> Future<T> sendEventTo(Event<T> e, String name) {
+        Queue<MicroService> subscribers = eventSubscribers.get(e.getClass());
+        if (subscribers == null) {
+            return null;
+        }
+        MicroService selectedService = null;
+        synchronized (subscribers) {
+            for (MicroService subscriber : subscribers) {
+                if (subscriber.getName().equals(name)) {
+                    selectedService = subscriber;
+                    break;
+                }
+            }
+        }
+        BlockingQueue<Message> queue = selectedService == null ? null : microServiceQueues.get(selectedService);
+        if (queue == null) {
+            return null; // the subscriber is gone
+        }
+        Future<T> future = new Future<>();
+        eventFutures.putIfAbsent(e, future);
+        try {
+            queue.put(e);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt(); // Restore the interrupt status
+        }
+        return future;
+    }
+
     @Override
     public Message awaitMessage(MicroService m) throws InterruptedException {
         if (!microServiceQueues.containsKey(m)) {
@@ -155,6 +298,14 @@ public class MessageBusImpl implements MessageBus {
     public void unregister(MicroService m) {
         if (microServiceQueues.containsKey(m)) {
             microServiceQueues.remove(m);
+            synchronized (delayedEvents) { // the events it has not sent yet are dropped
+                Set<TimingWheel.Entry<DelayedEvent>> pending = delayedBySender.remove(m);
+                if (pending != null) {
+                    for (TimingWheel.Entry<DelayedEvent> entry : pending) {
+                        delayedEvents.cancel(entry);
+                    }
+                }
+            }
             for (Queue<MicroService> subscribers : eventSubscribers.values()) {
                 synchronized (subscribers) {
                     subscribers.remove(m);
@@ -108,6 +108,36 @@ public abstract class MicroService implements Runnable {
         return messageBus.sendEvent(e);
     }
 
+    /**
+     * Sends the event {@code e} once the clock reaches {@code tick}, see
+     * {@link MessageBusImpl#sendEventAt(Event, int, MicroService, Runnable)}.
+     * <p>
+     * 
+     * @param e      The event to send
+     * @param tick   The tick to send it at
+     * @param onSend Runs right after the event is sent, possibly on another
+     *               thread (may be null)
+     */
+    protected final void sendEventAt(Event<?> e, int tick, Runnable onSend) {
+        MessageBusImpl.getInstance().sendEventAt(e, tick, this, onSend);
+    }
+
+    /**
+     * Like {@link #sendEventAt(Event, int, Runnable)}, but the event goes to the
+     * subscriber named {@code target} instead of the next one in the round-robin.
+     */
+    protected final void sendEventAt(Event<?> e, int tick, String target, Runnable onSend) {
+        MessageBusImpl.getInstance().sendEventAt(e, tick, this, target, onSend);
+    }
+
+    /**
+     * @return how many events this service scheduled with {@code sendEventAt}
+     *         were not sent yet.
+     */
+    protected final int getNumberOfDelayedEvents() {
+        return MessageBusImpl.getInstance().getNumberOfDelayedEvents(this);
+    }
+
     /**
      * A Micro-Service calls this method in order to send the broadcast message
      * {@code b} using the message-bus
@@ -0,0 +1,13 @@
+package bgu.spl.mics;
+
+/**
+ * A {@link Broadcast} that advances the clock of the {@link MessageBusImpl}.
+ * Before the broadcast is queued, the bus delivers the events that were
+ * scheduled for its tick or earlier (see
+ * {@link MessageBusImpl#sendEventAt(Event, int, MicroService, Runnable)}).
+ */
+public interface TimedBroadcast extends Broadcast {
+
+    // The tick the broadcast announces
+    int getTime();
+}
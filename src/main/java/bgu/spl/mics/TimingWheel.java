@@ -0,0 +1,186 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel that holds items until a given tick.
+ * <p>
+ * There are 4 wheels of 64 slots. An item due in
+ * less than 64 ticks goes to a slot of the first wheel, one due in less than
+ * 64^2 ticks to a slot of the second wheel, and so on; an item due even later
+ * waits in an overflow list. Every 64 ticks a slot of the next wheel is
+ * cascaded down into the wheels below it, so scheduling and expiring an item
+ * are O(1) no matter how many items are waiting.
+ * A cancelled item stays in its slot and is dropped when the slot expires.
+ * Not thread safe, {@link MessageBusImpl} locks it.
+ *
+ * @param <T> The type of the items.
+ */
+// TimingWheel class
+public class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long HORIZON = 1L << (SLOT_BITS * LEVELS); // ticks covered by the wheels
+
+    private final List<List<Entry<T>>> slots = new ArrayList<>(); // LEVELS * SLOTS, allocated lazily
+    private List<Entry<T>> overflow = new ArrayList<>();
+    private long now;
+    private int size = 0;
+
+    /**
+     * A scheduled item, used to cancel it.
+     *
+     * @param <T> The type of the item.
+     */
+    public static final class Entry<T> {
+        private final T item;
+        private final long due;
+        private boolean cancelled = false;
+
+        private Entry(T item, long due) {
+            this.item = item;
+            this.due = due;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public long getDue() {
+            return due;
+        }
+    }
+
+    /**
+     * @param now The current tick; items are scheduled after it.
+     */
+    public TimingWheel(long now) {
+        this.now = now;
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(null);
+        }
+    }
+
+    /**
+     * Schedules an item.
+     *
+     * @pre {@code due > getNow()}
+     * @param item The item.
+     * @param due  The tick it is due at.
+     * @return The entry of the item.
+     */
+    public Entry<T> schedule(T item, long due) {
+        if (due <= now) {
+            throw new IllegalArgumentException("tick " + due + " is not after the current tick " + now);
+        }
+        Entry<T> entry = new Entry<>(item, due);
+        place(entry);
+        size++;
+        return entry;
+    }
+
+    // Removes a scheduled item, returns false if it already expired or was cancelled
+    public boolean cancel(Entry<T> entry) {
+        if (entry.cancelled || entry.due <= now) {
+            return false;
+        }
+        entry.cancelled = true;
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves the clock forward and returns the items that became due, in tick
+     * order.
+     *
+     * @param tick The new current tick, ignored if it is not after the current
+     *             one.
+     * @return The due items.
+     */
+    public List<T> advanceTo(long tick) {
+        List<T> expired = new ArrayList<>();
+        while (now < tick) {
+            if (size == 0) {
+                now = tick; // nothing is waiting, no slot has to be visited
+                break;
+            }
+            now++;
+            cascade();
+            List<Entry<T>> slot = slots.set((int) (now & SLOT_MASK), null);
+            if (slot != null) {
+                for (Entry<T> entry : slot) {
+                    if (!entry.cancelled) {
+                        expired.add(entry.item);
+                        size--;
+                    }
+                }
+            }
+        }
+        return expired;
+    }
+
+    // Drops every item and sets the clock, possibly back
+    public void clear(long now) {
+        for (int i = 0; i < slots.size(); i++) {
+            slots.set(i, null);
+        }
+        overflow = new ArrayList<>();
+        size = 0;
+        this.now = now;
+    }
+
+    public long getNow() {
+        return now;
+    }
+
+    // The number of items that are scheduled and not cancelled
+    public int size() {
+        return size;
+    }
+
+    // On a wheel boundary, moves the entries of the next slot of the higher wheels down
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if (((now >> (SLOT_BITS * (level - 1))) & SLOT_MASK) != 0) {
+                return; // the wheel below has not wrapped around
+            }
+            List<Entry<T>> slot = slots.set(level * SLOTS + (int) ((now >> (SLOT_BITS * level)) & SLOT_MASK), null);
+            if (slot != null) {
+                for (Entry<T> entry : slot) {
+                    if (!entry.cancelled) {
+                        place(entry);
+                    }
+                }
+            }
+        }
+        if ((now & (HORIZON - 1)) == 0 && !overflow.isEmpty()) {
+            List<Entry<T>> waiting = overflow;
+            overflow = new ArrayList<>();
+            for (Entry<T> entry : waiting) {
+                if (!entry.cancelled) {
+                    place(entry);
+                }
+            }
+        }
+    }
+
+    private void place(Entry<T> entry) {
+        long delta = entry.due - now;
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (SLOT_BITS * (level + 1))) {
+                int index = level * SLOTS + (int) ((entry.due >> (SLOT_BITS * level)) & SLOT_MASK);
+                List<Entry<T>> slot = slots.get(index);
+                if (slot == null) {
+                    slot = new ArrayList<>();
+                    slots.set(index, slot);
+                }
+                slot.add(entry);
+                return;
+            }
+        }
+        overflow.add(entry);
+    }
+}
@@ -5,13 +5,23 @@ import bgu.spl.mics.application.services.*;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 /**
  * The main entry point for the GurionRock Pro Max Ultra Over 9000 simulation.
@@ -42,115 +52,227 @@ public class GurionRockRunner {
         File configFile = new File(configPath);
         String configDirectory = configFile.getParent(); // Extract the directory containing the config file
 
-        try (FileReader reader = new FileReader(configPath)) {
+        try (Reader reader = InputFiles.openReader(configPath)) {
             // Parse the configurationfile into a JsonObject
-            Gson gson = new Gson();
+            Gson gson = SensorTypeAdapters.createGson();
             JsonObject config = gson.fromJson(reader, JsonObject.class);
 
-            // Initialize the Cameras
-            List<CameraService> cameraServices = new ArrayList<>();
+            // Resolve the data file paths relative to the config directory
             JsonObject camerasConfig = config.getAsJsonObject("Cameras");
-
-            // Get the path to the camera data file and adjust it to be relative to the
-            // config directory
-            String cameraDataPath = camerasConfig.get("camera_datas_path").getAsString();
-            cameraDataPath = Paths.get(configDirectory, cameraDataPath).toString();
-
-            // Get camera configurations
-            JsonArray cameraConfigs = camerasConfig.getAsJsonArray("CamerasConfigurations");
-
-            // Parse camera data from the JSON file
-            try (FileReader cameraDataReader = new FileReader(cameraDataPath)) {
-                JsonObject cameraData = gson.fromJson(cameraDataReader, JsonObject.class);
-
-                // Create CameraService for each camera configuration
-                for (com.google.gson.JsonElement cameraConfig : cameraConfigs) {
-                    JsonObject cameraJson = cameraConfig.getAsJsonObject();
-                    int id = cameraJson.get("id").getAsInt();
-                    int frequency = cameraJson.get("frequency").getAsInt();
-                    String cameraKey = cameraJson.get("camera_key").getAsString();
-                    // Retrieve stamped detected objects for this camera
-                    JsonArray stampedObjectsJson = cameraData.getAsJsonArray(cameraKey);
-                    List<StampedDetectedObject> detectedObjectsList = new ArrayList<>();
-
-                    for (com.google.gson.JsonElement stampedObjectJson : stampedObjectsJson) {
-                        JsonObject stampedObject = stampedObjectJson.getAsJsonObject();
-                        int time = stampedObject.get("time").getAsInt();
-                        JsonArray detectedObjectsJson = stampedObject.getAsJsonArray("detectedObjects");
-
-                        List<DetectedObject> detectedObjects = new ArrayList<>();
-                        for (com.google.gson.JsonElement detectedObjectJson : detectedObjectsJson) {
-                            JsonObject detectedObject = detectedObjectJson.getAsJsonObject();
-                            String idStr = detectedObject.get("id").getAsString();
-                            String description = detectedObject.get("description").getAsString();
-                            detectedObjects.add(new DetectedObject(idStr, description));
+            String cameraDataPath = Paths.get(configDirectory,
+                    camerasConfig.get("camera_datas_path").getAsString()).toString();
+            JsonObject lidarConfig = config.getAsJsonObject("LiDarWorkers");
+            String lidarDataPath = lidarConfig.has("lidars_data_path") // optional if every worker has its own
+                    ? Paths.get(configDirectory, lidarConfig.get("lidars_data_path").getAsString()).toString()
+                    : null;
+            // Workers that own their data get the objects they have the cloud points of
+            LiDarRouter lidarRouter = new LiDarRouter();
+            String poseFilePath = Paths.get(configDirectory, config.get("poseJsonFile").getAsString()).toString();
+
+            // In live replay mode the data files are tailed while the recorder writes them
+            List<CameraService> cameraServices = new ArrayList<>();
+            List<LiDarService> lidarServices = new ArrayList<>();
+            PoseService poseService;
+            LiveReplay liveReplay = null;
+            if (config.has("LiveReplay")) {
+                liveReplay = createLiveReplay(config.getAsJsonObject("LiveReplay"));
+                poseService = buildLiveServices(gson, config, configDirectory, cameraDataPath, lidarDataPath,
+                        poseFilePath, liveReplay, cameraServices, lidarServices, lidarRouter);
+            } else {
+                // Parse the camera data, the LiDAR data and the poses concurrently, the
+                // services are created once every loader has finished
+                ExecutorService startupPool = Executors
+                        .newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+                try {
+                    CompletableFuture<Map<String, List<StampedDetectedObject>>> cameraDataFuture = CompletableFuture
+                            .supplyAsync(() -> timed("camera data", cameraDataPath,
+                                    () -> parseCameraFile(gson, cameraDataPath)), startupPool);
+                    // A LiDAR worker with its own "lidars_data_path" gets a private data base, the other
+                    // workers share the singleton instance of LiDarDataBase, or with "partition_data" each
+                    // get their own part of the shared file
+                    JsonArray lidarConfigs = lidarConfig.getAsJsonArray("LidarConfigurations");
+                    boolean partitionData = isPartitioned(lidarConfig);
+                    int numSharing = countSharingWorkers(lidarConfigs);
+                    List<CompletableFuture<LiDarDataBase>> lidarDataFutures = new ArrayList<>();
+                    List<Boolean> ownsData = new ArrayList<>();
+                    CompletableFuture<LiDarDataBase> sharedLidarDataFuture = null;
+                    CompletableFuture<List<LiDarDataBase>> lidarPartitionsFuture = null;
+                    int nextPart = 0;
+                    for (com.google.gson.JsonElement lidarJson : lidarConfigs) {
+                        JsonObject lidarWorkerJson = lidarJson.getAsJsonObject();
+                        if (lidarWorkerJson.has("lidars_data_path")) {
+                            String workerDataPath = Paths.get(configDirectory,
+                                    lidarWorkerJson.get("lidars_data_path").getAsString()).toString();
+                            lidarDataFutures.add(CompletableFuture.supplyAsync(() -> timed("LiDAR data",
+                                    workerDataPath, () -> LiDarDataBase.load(workerDataPath)), startupPool));
+                            ownsData.add(true);
+                        } else {
+                            if (lidarDataPath == null) {
+                                throw new IllegalArgumentException("LiDAR worker " + lidarWorkerJson.get("id")
+                                        + " has no lidars_data_path");
+                            }
+                            if (partitionData) {
+                                if (lidarPartitionsFuture == null) {
+                                    lidarPartitionsFuture = CompletableFuture.supplyAsync(() -> timed("LiDAR data",
+                                            lidarDataPath, () -> LiDarDataBase.load(lidarDataPath)
+                                                    .partition(numSharing)), startupPool);
+                                }
+                                int part = nextPart++;
+                                lidarDataFutures.add(lidarPartitionsFuture.thenApply(parts -> parts.get(part)));
+                                ownsData.add(true);
+                            } else {
+                                if (sharedLidarDataFuture == null) {
+                                    sharedLidarDataFuture = CompletableFuture.supplyAsync(() -> timed("LiDAR data",
+                                            lidarDataPath, () -> LiDarDataBase.getInstance(lidarDataPath)),
+                                            startupPool);
+                                }
+                                lidarDataFutures.add(sharedLidarDataFuture);
+                                ownsData.add(false);
+                            }
                         }
-                        detectedObjectsList.add(new StampedDetectedObject(time, detectedObjects));
                     }
-                    // Compute maxTime as the maximum time in the detectedObjectsList
-                    int maxTime = detectedObjectsList.stream().mapToInt(StampedDetectedObject::getTime).max().orElse(0); // Default
-                                                                                                                         // to
-                                                                                                                         // 0
-                                                                                                                         // if
-                                                                                                                         // the
-                                                                                                                         // list
-                                                                                                                         // is
-                                                                                                                         // empty
-
-                    // Create Camera object with the computed maxTime
-                    // Create Camera object and corresponding CameraService
-                    Camera camera = new Camera(id, frequency, detectedObjectsList, maxTime);
-                    cameraServices.add(new CameraService(camera));
-                }
-            }
-
-            // Initialize LiDARs
-            List<LiDarService> lidarServices = new ArrayList<>();
-            JsonObject lidarConfig = config.getAsJsonObject("LiDarWorkers");
-
-            // Get the path to the LiDAR data file and adjust it to be relative to the
-            // config directory
-            String lidarDataPath = lidarConfig.get("lidars_data_path").getAsString();
-            lidarDataPath = Paths.get(configDirectory, lidarDataPath).toString();
+                    CompletableFuture<List<Pose>> poseFuture = CompletableFuture.supplyAsync(
+                            () -> timed("pose data", poseFilePath, () -> parsePoseFile(gson, poseFilePath)),
+                            startupPool);
+
+                    // Convert the stamped detected objects of each camera on its own task
+                    JsonArray cameraConfigs = camerasConfig.getAsJsonArray("CamerasConfigurations");
+                    List<CompletableFuture<Camera>> cameraFutures = new ArrayList<>();
+                    for (com.google.gson.JsonElement cameraConfig : cameraConfigs) {
+                        JsonObject cameraJson = cameraConfig.getAsJsonObject();
+                        cameraFutures.add(cameraDataFuture.thenApplyAsync(
+                                cameraData -> buildCamera(cameraJson, cameraData), startupPool));
+                    }
 
-            // Initialize the singleton instance of LiDarDataBase
-            LiDarDataBase.getInstance(lidarDataPath);
+                    // Create CameraService for each camera configuration
+                    for (CompletableFuture<Camera> cameraFuture : cameraFutures) {
+                        cameraServices.add(new CameraService(cameraFuture.join()));
+                    }
 
-            // Get LiDAR configurations
-            JsonArray lidarConfigs = lidarConfig.getAsJsonArray("LidarConfigurations");
+                    // Create LiDarService for each LiDAR configuration
+                    for (int i = 0; i < lidarConfigs.size(); i++) {
+                        com.google.gson.JsonElement lidarJson = lidarConfigs.get(i);
+                        int id = lidarJson.getAsJsonObject().get("id").getAsInt();
+                        String name = "LiDarService" + id;
+                        int frequency = lidarJson.getAsJsonObject().get("frequency").getAsInt();
+                        int duration = config.get("Duration").getAsInt();
+                        LiDarDataBase lidarData = lidarDataFutures.get(i).join();
+                        if (ownsData.get(i)) {
+                            lidarRouter.addOwner(name, lidarData);
+                        } else {
+                            lidarRouter.addSharing(name);
+                        }
+                        LiDarWorkerTracker lidarWorker = new LiDarWorkerTracker(id, frequency, lidarData, duration);
+                        addDeclaredFaults(lidarJson.getAsJsonObject(), lidarWorker.getFaultSchedule());
+                        if (config.has("ParallelTrackingThreshold")) { // optional, frames are tracked serially
+                            lidarWorker.setParallelTrackingThreshold(
+                                    config.get("ParallelTrackingThreshold").getAsInt());
+                        }
+                        lidarServices.add(new LiDarService(name, lidarWorker));
+                    }
 
-            // Create LiDarService for each LiDAR configuration
-            for (com.google.gson.JsonElement lidarJson : lidarConfigs) {
-                int id = lidarJson.getAsJsonObject().get("id").getAsInt();
-                String name = "LiDarService" + id;
-                int frequency = lidarJson.getAsJsonObject().get("frequency").getAsInt();
-                int duration = config.get("Duration").getAsInt();
-                LiDarWorkerTracker lidarWorker = new LiDarWorkerTracker(id, frequency, lidarDataPath, duration);
-                lidarServices.add(new LiDarService(name, lidarWorker));
+                    // Create GPSIMU and initialize PoseService
+                    List<Pose> poseList = poseFuture.join();
+                    // Compute maxTime as the maximum time in the poseList
+                    int maxTime = poseList.stream().mapToInt(Pose::getTime).max().orElse(0); // Default to 0 if empty
+                    poseService = new PoseService(new GPSIMU(poseList, maxTime));
+                } finally {
+                    startupPool.shutdown();
+                }
             }
 
-            // Initialize PoseService
-            String poseFilePath = config.get("poseJsonFile").getAsString();
-            poseFilePath = Paths.get(configDirectory, poseFilePath).toString(); // Adjust path
-            PoseService poseService;
-
-            // Parse pose data from the JSON file
-            try (FileReader poseReader = new FileReader(poseFilePath)) {
-                java.lang.reflect.Type poseListType = new com.google.gson.reflect.TypeToken<List<Pose>>() {
-                }.getType();
-                List<Pose> poseList = gson.fromJson(poseReader, poseListType);
-                // Compute maxTime as the maximum time in the poseList
-                int maxTime = poseList.stream().mapToInt(Pose::getTime).max().orElse(0); // Default to 0 if the list is
-                                                                                         // empty
-
-                // Create GPSIMU and initialize PoseService
-                GPSIMU gpsimu = new GPSIMU(poseList, maxTime);
-                poseService = new PoseService(gpsimu);
+            // With several workers, a worker that owns its data only gets the objects it has
+            if (lidarRouter.hasOwners() && lidarRouter.getNumberOfWorkers() > 1) {
+                for (CameraService cameraService : cameraServices) {
+                    cameraService.setLiDarRouter(lidarRouter);
+                }
             }
 
             // Initialize FusionSlamService
             FusionSlam fusionSlam = FusionSlam.getInstance();
-            FusionSlamService fusionSlamService = new FusionSlamService(fusionSlam, configDirectory);
+            if (config.has("ParallelFusionThreshold")) { // optional, batches are fused serially by default
+                fusionSlam.setParallelFusionThreshold(config.get("ParallelFusionThreshold").getAsInt());
+            }
+            if (config.has("LandmarkGridCellSize")) { // optional, cell side of the landmark spatial index
+                fusionSlam.setLandmarkGridCellSize(config.get("LandmarkGridCellSize").getAsDouble());
+            }
+            if (config.has("AssociationGateDistance")) { // optional, by default objects match landmarks by id
+                fusionSlam.setAssociationGate(config.get("AssociationGateDistance").getAsDouble());
+            }
+            fusionSlam.setPoseInterpolation( // optional, only exact poses are used by default
+                    config.has("PoseInterpolation") && config.get("PoseInterpolation").getAsBoolean());
+            if (config.has("OccupancyGrid")) { // optional, no occupancy grid is kept by default
+                JsonObject occupancyJson = config.getAsJsonObject("OccupancyGrid");
+                fusionSlam.setOccupancyGrid(
+                        occupancyJson.has("resolution") ? occupancyJson.get("resolution").getAsDouble()
+                                : FusionSlam.DEFAULT_OCCUPANCY_RESOLUTION,
+                        occupancyJson.has("tile_size") ? occupancyJson.get("tile_size").getAsInt()
+                                : OccupancyGrid.DEFAULT_TILE_SIZE);
+                if (occupancyJson.has("output_file")) {
+                    fusionSlam.setOccupancyOutputFile(
+                            Paths.get(configDirectory, occupancyJson.get("output_file").getAsString()).toString());
+                }
+                if (occupancyJson.has("updates_file")) { // the changed tiles, appended as the map is built
+                    fusionSlam.setOccupancyUpdatesFile(
+                            Paths.get(configDirectory, occupancyJson.get("updates_file").getAsString()).toString(),
+                            occupancyJson.has("update_interval_ticks")
+                                    ? occupancyJson.get("update_interval_ticks").getAsInt()
+                                    : 1);
+                }
+            }
+            fusionSlam.setCompactOutput( // optional, the output file is pretty printed by default
+                    config.has("CompactOutput") && config.get("CompactOutput").getAsBoolean());
+            int maxPoseWaitTicks = config.has("MaxPoseWaitTicks") ? config.get("MaxPoseWaitTicks").getAsInt() : -1;
+            // Optional periodic checkpoints and write-ahead log, a resumed run continues where they end
+            JsonObject checkpointJson = config.has("Checkpoint") ? config.getAsJsonObject("Checkpoint") : null;
+            JsonObject logJson = config.has("WriteAheadLog") ? config.getAsJsonObject("WriteAheadLog") : null;
+            String checkpointDirectory = checkpointJson == null ? null
+                    : Paths.get(configDirectory, checkpointJson.has("directory")
+                            ? checkpointJson.get("directory").getAsString() : "checkpoints").toString();
+            String logDirectory = logJson == null ? null
+                    : Paths.get(configDirectory, logJson.has("directory")
+                            ? logJson.get("directory").getAsString() : "wal").toString();
+            int lastTick = 0;
+            if ((checkpointJson != null && checkpointJson.has("resume") && checkpointJson.get("resume").getAsBoolean())
+                    || (logJson != null && logJson.has("resume") && logJson.get("resume").getAsBoolean())) {
+                lastTick = resume(fusionSlam, checkpointDirectory, logDirectory);
+            }
+            if (config.has("FusionShards")) { // optional, the fusion thread fuses every batch by default
+                JsonObject shardsJson = config.getAsJsonObject("FusionShards");
+                fusionSlam.setFusionShards( // after the resume, the restored landmarks go to their shards
+                        shardsJson.has("count") ? shardsJson.get("count").getAsInt()
+                                : Runtime.getRuntime().availableProcessors(),
+                        shardsJson.has("tile_size") ? shardsJson.get("tile_size").getAsDouble() : 10.0);
+            }
+            int firstTick = lastTick + 1;
+            if (logJson != null) {
+                fusionSlam.setWriteAheadLog(new FusionWriteAheadLog(logDirectory, lastTick,
+                        logJson.has("flush_interval_ms") ? logJson.get("flush_interval_ms").getAsLong() : 5,
+                        logJson.has("batch_bytes") ? logJson.get("batch_bytes").getAsInt() : 1 << 16,
+                        logJson.has("fsync") && logJson.get("fsync").getAsBoolean()));
+            }
+            MapCheckpointer checkpointer = null;
+            if (checkpointJson != null) {
+                checkpointer = new MapCheckpointer(fusionSlam, checkpointDirectory,
+                        checkpointJson.has("interval_ticks") ? checkpointJson.get("interval_ticks").getAsInt() : 10,
+                        checkpointJson.has("compact_every") ? checkpointJson.get("compact_every").getAsInt() : 10);
+            }
+            ReorderBuffer reorderBuffer = null;
+            if (config.has("ReorderBuffer")) { // optional, events are fused in arrival order by default
+                JsonObject reorderJson = config.getAsJsonObject("ReorderBuffer");
+                Map<String, Integer> cameraFrequencies = new HashMap<>();
+                for (CameraService cameraService : cameraServices) {
+                    cameraFrequencies.put(cameraService.getName(), cameraService.getFrequency());
+                }
+                Map<String, Integer> lidarFrequencies = new HashMap<>();
+                for (LiDarService lidarService : lidarServices) {
+                    lidarFrequencies.put(lidarService.getName(), lidarService.getFrequency());
+                }
+                reorderBuffer = new ReorderBuffer(cameraFrequencies, lidarFrequencies,
+                        reorderJson.has("slack_ticks") ? reorderJson.get("slack_ticks").getAsInt() : 1);
+            }
+            FusionSlamService fusionSlamService = new FusionSlamService(fusionSlam, configDirectory,
+                    maxPoseWaitTicks, checkpointer, reorderBuffer);
 
             // Count active cameras and sensors
             int numActiveCameras = cameraServices.size();
@@ -168,7 +290,7 @@ public class GurionRockRunner {
             // Initialize simulation parameters
             int tickTime = config.get("TickTime").getAsInt();
             int duration = config.get("Duration").getAsInt();
-            TimeService timeService = new TimeService(tickTime, duration);
+            TimeService timeService = new TimeService(tickTime, duration, liveReplay, firstTick);
 
             // Create threads for all services
             List<Thread> threads = new ArrayList<>();
@@ -192,6 +314,11 @@ public class GurionRockRunner {
                 }
             }
 
+            // Start tailing the live sensor files, the clock waits for their records
+            if (liveReplay != null) {
+                liveReplay.start();
+            }
+
             // Allow other services to initialize before starting TimeService
             Thread.sleep(100);
             timeServiceThread.start();
@@ -205,6 +332,269 @@ public class GurionRockRunner {
             // Handle exceptions for file reading and thread interruptions
             e.printStackTrace();
             Thread.currentThread().interrupt();
+        } catch (CompletionException e) {
+            // A loader failed on the startup pool
+            e.getCause().printStackTrace();
+        }
+    }
+
+    /**
+     * Creates a camera from its configuration and the parsed camera data file.
+     *
+     * @param cameraJson The configuration of a single camera.
+     * @param cameraData The parsed camera data file, keyed by camera key.
+     * @return The camera with its stamped detected objects.
+     */
+    private static Camera buildCamera(JsonObject cameraJson, Map<String, List<StampedDetectedObject>> cameraData) {
+        int id = cameraJson.get("id").getAsInt();
+        int frequency = cameraJson.get("frequency").getAsInt();
+        String cameraKey = cameraJson.get("camera_key").getAsString();
+        // Retrieve stamped detected objects for this camera
+        List<StampedDetectedObject> detectedObjectsList = cameraData.get(cameraKey) != null
+                ? new ArrayList<>(cameraData.get(cameraKey))
+                : new ArrayList<>();
+        // Compute maxTime as the maximum time in the detectedObjectsList
+        int maxTime = detectedObjectsList.stream().mapToInt(StampedDetectedObject::getTime).max().orElse(0); // Default
+                                                                                                             // to 0 if
+                                                                                                             // empty
+
+        // Create Camera object with the computed maxTime
+        Camera camera = new Camera(id, frequency, detectedObjectsList, maxTime);
+        addDeclaredFaults(cameraJson, camera.getFaultSchedule());
+        return camera;
+    }
+
+    // Whether the workers without their own "lidars_data_path" each get a part of the shared file
+    private static boolean isPartitioned(JsonObject lidarConfig) {
+        return lidarConfig.has("partition_data") && lidarConfig.get("partition_data").getAsBoolean();
+    }
+
+    // The number of LiDAR workers that read the shared "lidars_data_path"
+    private static int countSharingWorkers(JsonArray lidarConfigs) {
+        int count = 0;
+        for (com.google.gson.JsonElement lidarJson : lidarConfigs) {
+            if (!lidarJson.getAsJsonObject().has("lidars_data_path")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Creates the live replay from its configuration, for example:
+     * {@code "LiveReplay": {"idle_timeout_ms": 2000, "poll_interval_ms": 20, "max_lead_ticks": 50,
+     * "max_line_bytes": 1048576}}
+     *
+     * @param liveJson The "LiveReplay" configuration object.
+     * @return The live replay, without streams.
+     */
+    private static LiveReplay createLiveReplay(JsonObject liveJson) {
+        long idleTimeout = liveJson.has("idle_timeout_ms") ? liveJson.get("idle_timeout_ms").getAsLong() : 2000;
+        long pollInterval = liveJson.has("poll_interval_ms") ? liveJson.get("poll_interval_ms").getAsLong() : 20;
+        int maxLead = liveJson.has("max_lead_ticks") ? liveJson.get("max_lead_ticks").getAsInt() : 50;
+        int maxLineBytes = liveJson.has("max_line_bytes") ? liveJson.get("max_line_bytes").getAsInt() : 1 << 20;
+        return new LiveReplay(idleTimeout, Math.max(1, pollInterval), Math.max(0, maxLead), maxLineBytes);
+    }
+
+    /**
+     * Restores the map and the statistics of the latest checkpoint, then replays
+     * the write-ahead log written after it.
+     *
+     * @param fusionSlam          The map to restore.
+     * @param checkpointDirectory The checkpoint directory (may be null).
+     * @param logDirectory        The write-ahead log directory (may be null).
+     * @return The last tick of the restored state, 0 if there is none.
+     * @throws IOException If a checkpoint or a log segment cannot be read.
+     */
+    private static int resume(FusionSlam fusionSlam, String checkpointDirectory, String logDirectory)
+            throws IOException {
+        int lastTick = 0;
+        MapCheckpoint checkpoint = checkpointDirectory == null ? null
+                : MapCheckpointer.loadLatest(checkpointDirectory);
+        if (checkpoint != null) {
+            fusionSlam.restore(checkpoint);
+            StatisticalFolder.getInstance().restore(checkpoint.getSystemRuntime(),
+                    checkpoint.getNumDetectedObjects(), checkpoint.getNumTrackedObjects(),
+                    checkpoint.getNumLandmarks());
+            lastTick = checkpoint.getTick();
+            System.out.println("Resumed " + checkpoint.getLandmarks().size()
+                    + " landmarks from the checkpoint of tick " + lastTick);
+        }
+        if (logDirectory != null) {
+            lastTick = FusionWriteAheadLog.replay(logDirectory, lastTick, fusionSlam);
+            System.out.println("Replayed the write-ahead log up to tick " + lastTick);
+        }
+        fusionSlam.setTick(lastTick);
+        return lastTick;
+    }
+
+    /**
+     * Creates the sensor services of a live replay. The data files are
+     * newline-delimited JSON, one record per line, in time order:
+     * <ul>
+     * <li>camera data: {@code {"camera_key": "camera1", "time": 2, "detectedObjects": [...]}}</li>
+     * <li>LiDAR data: one StampedCloudPoints record per line</li>
+     * <li>poses: one Pose per line</li>
+     * </ul>
+     * Each file gets its own stream; a sensor finishes when its stream closes.
+     *
+     * @return The PoseService; the camera and LiDAR services are added to the
+     *         given lists.
+     */
+    private static PoseService buildLiveServices(Gson gson, JsonObject config, String configDirectory,
+            String cameraDataPath, String lidarDataPath, String poseFilePath, LiveReplay liveReplay,
+            List<CameraService> cameraServices, List<LiDarService> lidarServices, LiDarRouter lidarRouter) {
+        // Cameras share one file, records are dispatched by camera key
+        Map<String, Camera> camerasByKey = new HashMap<>();
+        for (com.google.gson.JsonElement cameraConfig : config.getAsJsonObject("Cameras")
+                .getAsJsonArray("CamerasConfigurations")) {
+            JsonObject cameraJson = cameraConfig.getAsJsonObject();
+            Camera camera = new Camera(cameraJson.get("id").getAsInt(), cameraJson.get("frequency").getAsInt());
+            addDeclaredFaults(cameraJson, camera.getFaultSchedule());
+            camerasByKey.put(cameraJson.get("camera_key").getAsString(), camera);
+            cameraServices.add(new CameraService(camera));
+        }
+        liveReplay.addStream("cameras", cameraDataPath, line -> {
+            StampedDetectedObject frame = gson.fromJson(line, StampedDetectedObject.class);
+            if (frame.getCameraKey() == null) {
+                throw new JsonParseException("a camera record has no camera_key");
+            }
+            Camera camera = camerasByKey.get(frame.getCameraKey());
+            if (camera != null) {
+                camera.appendFrame(frame);
+            }
+            return frame.getTime();
+        }, () -> {
+            for (Camera camera : camerasByKey.values()) {
+                camera.finishFrames();
+            }
+        });
+
+        // A worker with its own "lidars_data_path" tails its own file, the shared file is tailed once
+        // and its records go to the shared data base or, with "partition_data", to the part of their object
+        int duration = config.get("Duration").getAsInt();
+        JsonObject lidarWorkersJson = config.getAsJsonObject("LiDarWorkers");
+        JsonArray lidarConfigs = lidarWorkersJson.getAsJsonArray("LidarConfigurations");
+        boolean partitionData = isPartitioned(lidarWorkersJson);
+        List<LiDarDataBase> sharedLiveData = new ArrayList<>();
+        int numSharing = countSharingWorkers(lidarConfigs);
+        if (numSharing > 0) {
+            if (lidarDataPath == null) {
+                throw new IllegalArgumentException("a LiDAR worker has no lidars_data_path");
+            }
+            for (int i = 0; i < (partitionData ? numSharing : 1); i++) {
+                sharedLiveData.add(LiDarDataBase.live());
+            }
+            addLidarStream(gson, liveReplay, "lidars", lidarDataPath, sharedLiveData);
+        }
+        int nextPart = 0;
+        for (com.google.gson.JsonElement lidarConfig : lidarConfigs) {
+            JsonObject lidarJson = lidarConfig.getAsJsonObject();
+            int id = lidarJson.get("id").getAsInt();
+            String name = "LiDarService" + id;
+            LiDarDataBase liveData;
+            if (lidarJson.has("lidars_data_path")) {
+                liveData = LiDarDataBase.live();
+                addLidarStream(gson, liveReplay, "lidar" + id,
+                        Paths.get(configDirectory, lidarJson.get("lidars_data_path").getAsString()).toString(),
+                        Collections.singletonList(liveData));
+                lidarRouter.addOwner(name, liveData);
+            } else if (partitionData) {
+                liveData = sharedLiveData.get(nextPart++);
+                lidarRouter.addOwner(name, liveData);
+            } else {
+                liveData = sharedLiveData.get(0);
+                lidarRouter.addSharing(name);
+            }
+            LiDarWorkerTracker lidarWorker = new LiDarWorkerTracker(id, lidarJson.get("frequency").getAsInt(),
+                    liveData, duration);
+            addDeclaredFaults(lidarJson, lidarWorker.getFaultSchedule());
+            if (config.has("ParallelTrackingThreshold")) { // optional, frames are tracked serially by default
+                lidarWorker.setParallelTrackingThreshold(config.get("ParallelTrackingThreshold").getAsInt());
+            }
+            lidarServices.add(new LiDarService(name, lidarWorker));
+        }
+
+        GPSIMU gpsimu = new GPSIMU();
+        liveReplay.addStream("poses", poseFilePath, line -> {
+            Pose pose = gson.fromJson(line, Pose.class);
+            gpsimu.appendPose(pose);
+            return pose.getTime();
+        }, gpsimu::finishPoses);
+        return new PoseService(gpsimu);
+    }
+
+    // Tails a LiDAR file into its live data bases, each record goes to the part of its object
+    private static void addLidarStream(Gson gson, LiveReplay liveReplay, String name, String filePath,
+            List<LiDarDataBase> liveData) {
+        liveReplay.addStream(name, filePath, line -> {
+            StampedCloudPoints record = gson.fromJson(line, StampedCloudPoints.class);
+            LiDarDataBase.appendToPartition(liveData, record);
+            return record.getTime();
+        }, () -> {
+            for (LiDarDataBase part : liveData) {
+                part.markComplete();
+            }
+        });
+    }
+
+    private static Map<String, List<StampedDetectedObject>> parseCameraFile(Gson gson, String filePath) {
+        try (Reader reader = InputFiles.openReader(filePath)) {
+            java.lang.reflect.Type cameraDataType = new com.google.gson.reflect.TypeToken<
+                    Map<String, List<StampedDetectedObject>>>() {
+            }.getType();
+            Map<String, List<StampedDetectedObject>> cameraData = gson.fromJson(reader, cameraDataType);
+            return cameraData != null ? cameraData : new HashMap<>();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<Pose> parsePoseFile(Gson gson, String filePath) {
+        try (Reader poseReader = InputFiles.openReader(filePath)) {
+            java.lang.reflect.Type poseListType = new com.google.gson.reflect.TypeToken<List<Pose>>() {
+            }.getType();
+            List<Pose> poseList = gson.fromJson(poseReader, poseListType);
+            return poseList != null ? poseList : new ArrayList<>();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Runs a loader and reports how long it took.
+     *
+     * @param name     The name of the loaded data (for the report).
+     * @param filePath The loaded file (for the report).
+     * @param loader   The loader to run.
+     * @return The result of the loader.
+     */
+    private static <T> T timed(String name, String filePath, Supplier<T> loader) {
+        long start = System.nanoTime();
+        T result = loader.get();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Parsed " + name + " from " + filePath + " in " + elapsedMillis + " ms");
+        return result;
+    }
+
+    /**
+     * Adds the faults declared in a sensor configuration to its fault schedule.
+     * Faults are declared as an optional "faults" array, for example:
+     * {@code "faults": [{"time": 12, "description": "Camera disconnected"}]}
+     *
+     * @param sensorJson The configuration of a single camera or LiDAR worker.
+     * @param schedule   The fault schedule of that sensor.
+     */
+    private static void addDeclaredFaults(JsonObject sensorJson, FaultSchedule schedule) {
+        JsonArray faults = sensorJson.getAsJsonArray("faults");
+        if (faults == null) {
+            return;
+        }
+        for (com.google.gson.JsonElement faultJson : faults) {
+            JsonObject fault = faultJson.getAsJsonObject();
+            int time = fault.get("time").getAsInt();
+            String description = fault.has("description") ? fault.get("description").getAsString() : null;
+            schedule.addFault(time, description);
         }
     }
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
 package bgu.spl.mics.application.messages;
 
-import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.TimedBroadcast;
 
 /**
  * A broadcast that represents the current time tick of the simulation.
@@ -8,7 +8,7 @@ import bgu.spl.mics.Broadcast;
 
 // TickBroadcast class
 
-public class TickBroadcast implements Broadcast {
+public class TickBroadcast implements TimedBroadcast {
     private final int time; // The current time
     private final int finalTick; // The final tick of the simulation
 
@@ -21,6 +21,7 @@ public class TickBroadcast implements Broadcast {
         return finalTick;
     }
 
+    @Override
     public int getTime() {
         return time;
     }
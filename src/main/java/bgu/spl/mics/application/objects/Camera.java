@@ -1,8 +1,8 @@
 package bgu.spl.mics.application.objects;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -21,8 +21,11 @@ public class Camera {
     private int frequency;
     private STATUS status;
     private List<StampedDetectedObject> detectedObjectsList;
-    private int maxTime;
+    private TickIndex<StampedDetectedObject> framesByTick; // detectedObjectsList indexed by time
+    private volatile int maxTime; // set when a live camera's stream closes
+    private int lastFrameTime; // live only: time of the last appended frame
     private String errMString;
+    private FaultSchedule faultSchedule; // ticks at which the camera fails
 
     // Constructor to initialize the Camera object.
 
@@ -35,6 +38,13 @@ public class Camera {
                 : Collections.emptyList();
         this.maxTime = maxTime;
         this.errMString = null;
+        this.framesByTick = new TickIndex<>(this.detectedObjectsList, StampedDetectedObject::getTime);
+        this.faultSchedule = FaultSchedule.fromDetectedObjects(this.detectedObjectsList);
+    }
+
+    // Constructor for a live camera, frames are appended while the camera runs
+    public Camera(int id, int frequency) {
+        this(id, frequency, new ArrayList<>(), Integer.MAX_VALUE);
     }
 
     public Camera(int id, int frequency, String filePath, String cameraKey) {
@@ -52,6 +62,7 @@ public class Camera {
         } else {
             this.maxTime = 0;
         }
+        this.faultSchedule = FaultSchedule.fromDetectedObjects(detectedObjectsList);
     }
 
     public List<StampedDetectedObject> getDetectedObjectsList() {
@@ -60,25 +71,38 @@ public class Camera {
 
     public StampedDetectedObject getDetectedObjectsAtTime(int time) {
         checkIfDone(time);
-        for (StampedDetectedObject stampedObject : detectedObjectsList) {
-            if (stampedObject.getTime() == time) {
-                for (DetectedObject obj : stampedObject.getDetectedObjects()) {
-                    if ("ERROR".equals(obj.getId())) {
-                        errMString = obj.getDescription();
-                        setStatus(STATUS.ERROR);
-                        break;
-                    }
-                }
-                return stampedObject;
-            }
+        if (faultSchedule.isFaultAt(time)) {
+            errMString = faultSchedule.getDescription(time) != null ? faultSchedule.getDescription(time)
+                    : "Camera" + id + " disconnected";
+            setStatus(STATUS.ERROR);
         }
-        return null;
+        return framesByTick.get(time);
+    }
+
+    public FaultSchedule getFaultSchedule() {
+        return faultSchedule;
+    }
+
+    /**
+     * Appends a frame read from a live stream. Frames arrive in time order.
+     *
+     * @param frame The stamped detected objects of the next frame.
+     */
+    public void appendFrame(StampedDetectedObject frame) {
+        faultSchedule.addFaultOf(frame);
+        framesByTick.append(frame, frame.getTime());
+        lastFrameTime = Math.max(lastFrameTime, frame.getTime());
+    }
+
+    // Called when the live stream closed, the camera finishes after its last frame
+    public void finishFrames() {
+        this.maxTime = lastFrameTime;
     }
 
     public void loadDetectedObjectsFromFile(String filePath, String cameraKey) {
-        try (FileReader reader = new FileReader(filePath)) {
+        try (Reader reader = InputFiles.openReader(filePath)) {
             System.out.println("Camera attempting to read file: " + new File(filePath).getAbsolutePath());
-            Gson gson = new Gson();
+            Gson gson = SensorTypeAdapters.createGson();
             java.lang.reflect.Type type = new TypeToken<Map<String, List<List<StampedDetectedObject>>>>() {
             }.getType();
             Map<String, List<List<StampedDetectedObject>>> cameraData = gson.fromJson(reader, type);
@@ -99,6 +123,7 @@ public class Camera {
         } catch (Exception e) {
             detectedObjectsList = new ArrayList<>();
         }
+        framesByTick = new TickIndex<>(detectedObjectsList, StampedDetectedObject::getTime);
     }
 
     public void checkIfDone(int currentTime) {
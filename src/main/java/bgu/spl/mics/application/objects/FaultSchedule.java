@@ -0,0 +1,122 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the ticks at which a sensor is scheduled to fail.
+ * Fault ticks are collected once, when the sensor data is loaded (records with
+ * the id "ERROR") or when a fault is declared in the configuration file, so
+ * checking for a fault at a given tick is a single bit lookup.
+ * <p>
+ * Faults may be added while the sensor runs (live replay), so access is
+ * synchronized; a schedule without faults is answered without locking.
+ */
+// FaultSchedule class
+public class FaultSchedule {
+    public static final String ERROR_ID = "ERROR";
+
+    private final BitSet faultTicks; // sorted set of the ticks with a fault
+    private final Map<Integer, String> descriptions; // error description per fault tick
+    private volatile boolean hasFaults; // lets healthy sensors skip the lock
+
+    public FaultSchedule() {
+        this.faultTicks = new BitSet();
+        this.descriptions = new HashMap<>();
+    }
+
+    /**
+     * Builds the fault schedule of a camera from its detected objects.
+     *
+     * @param detectedObjectsList The stamped detected objects of the camera.
+     * @return A schedule with a fault at every tick that has an "ERROR" object.
+     */
+    public static FaultSchedule fromDetectedObjects(List<StampedDetectedObject> detectedObjectsList) {
+        FaultSchedule schedule = new FaultSchedule();
+        for (StampedDetectedObject stampedObject : detectedObjectsList) {
+            schedule.addFaultOf(stampedObject);
+        }
+        return schedule;
+    }
+
+    /**
+     * Builds the fault schedule of the LiDAR data from its cloud points.
+     *
+     * @param cloudPoints The stamped cloud points of the LiDAR data base.
+     * @return A schedule with a fault at every tick that has an "ERROR" record.
+     */
+    public static FaultSchedule fromCloudPoints(List<StampedCloudPoints> cloudPoints) {
+        FaultSchedule schedule = new FaultSchedule();
+        for (StampedCloudPoints stampedCloudPoints : cloudPoints) {
+            schedule.addFaultOf(stampedCloudPoints);
+        }
+        return schedule;
+    }
+
+    // Adds a fault if the camera frame has an "ERROR" object
+    public void addFaultOf(StampedDetectedObject stampedObject) {
+        for (DetectedObject obj : stampedObject.getDetectedObjects()) {
+            if (ERROR_ID.equals(obj.getId())) {
+                addFault(stampedObject.getTime(), obj.getDescription());
+                break;
+            }
+        }
+    }
+
+    // Adds a fault if the LiDAR record is an "ERROR" record
+    public void addFaultOf(StampedCloudPoints stampedCloudPoints) {
+        if (ERROR_ID.equals(stampedCloudPoints.getId())) {
+            addFault(stampedCloudPoints.getTime(), null);
+        }
+    }
+
+    /**
+     * Adds a fault at the given tick. If a fault already exists at that tick its
+     * description is kept unless it had none.
+     *
+     * @param tick        The tick of the fault.
+     * @param description The error description (may be null).
+     */
+    public synchronized void addFault(int tick, String description) {
+        if (tick < 0) {
+            return; // ticks start at 1, a negative tick can never be reached
+        }
+        faultTicks.set(tick);
+        if (description != null) {
+            descriptions.putIfAbsent(tick, description);
+        }
+        hasFaults = true;
+    }
+
+    public boolean isFaultAt(int tick) {
+        if (!hasFaults) {
+            return false;
+        }
+        synchronized (this) {
+            return tick >= 0 && faultTicks.get(tick);
+        }
+    }
+
+    public synchronized String getDescription(int tick) {
+        return descriptions.get(tick);
+    }
+
+    public boolean isEmpty() {
+        return !hasFaults;
+    }
+
+    // Returns the first tick with a fault, or -1 if there is none
+    public synchronized int getFirstFaultTick() {
+        return faultTicks.nextSetBit(0);
+    }
+
+    public synchronized FaultSchedule copy() {
+        FaultSchedule copy = new FaultSchedule();
+        copy.faultTicks.or(faultTicks);
+        copy.descriptions.putAll(descriptions);
+        copy.hasFaults = hasFaults;
+        return copy;
+    }
+}
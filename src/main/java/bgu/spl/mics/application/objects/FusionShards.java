@@ -0,0 +1,317 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fuses tracked objects on several shards, each with its own worker thread and
+ * its own map of the landmarks it owns.
+ * <p>
+ * The world is split into square tiles and every tile is hashed onto a shard.
+ * A landmark is owned by the shard of the tile of its centroid: the fusion
+ * thread routes an observation to the shard that owns its id, or, for a new
+ * id, to the shard of the observation's centroid. At the boundaries:
+ * <ul>
+ * <li>a landmark whose centroid moves into a tile of another shard is handed
+ * off to that shard, and observations that still reach the old shard are
+ * forwarded to the new one;</li>
+ * <li>a geometric match (see {@link Listener#findNearby(double, double)}) owned
+ * by another shard gets the observation forwarded to that shard.</li>
+ * </ul>
+ * Only its worker thread touches a shard's map. {@link #collect()} waits for
+ * the shards to finish and merges their maps in the order the landmarks were
+ * first routed, which is the order a single fusion thread creates them in.
+ */
+// FusionShards class
+public class FusionShards {
+
+    /**
+     * The map-wide bookkeeping of the shards (logging, indexing, statistics),
+     * called on the shard threads.
+     */
+    public interface Listener {
+        // A shard created a landmark from its first observation
+        void created(LandMark landmark, double[] xs, double[] ys);
+
+        // A shard applied an observation, called under the landmark's lock
+        void observed(LandMark landmark, double[] xs, double[] ys);
+
+        // A shard is done changing a landmark, called without locks
+        void changed(LandMark landmark);
+
+        // Returns the landmark a new object at a position matches, or null
+        LandMark findNearby(double x, double y);
+    }
+
+    // A landmark in a shard's map, with the routing order of its first observation
+    private static final class Owned {
+        private final LandMark landmark;
+        private final long sequence;
+
+        private Owned(LandMark landmark, long sequence) {
+            this.landmark = landmark;
+            this.sequence = sequence;
+        }
+    }
+
+    // A fusion worker and the landmarks of its tiles
+    private final class Shard {
+        private final ExecutorService worker;
+        private final Map<String, Owned> landmarks = new HashMap<>(); // only used on the worker thread
+
+        private Shard(ExecutorService worker) {
+            this.worker = worker;
+        }
+
+        // Applies an observation to the landmark of an id, or creates it if this shard owns the id
+        private void observe(String id, String description, double[] xs, double[] ys, long sequence,
+                boolean associate) {
+            Owned owned = landmarks.get(id);
+            if (owned == null) {
+                Shard owner = owners.get(id);
+                if (owner != null && owner != this) {
+                    forward(owner, id, description, xs, ys, sequence, associate); // handed off meanwhile
+                    return;
+                }
+                if (associate && xs.length > 0) {
+                    LandMark match = listener.findNearby(mean(xs), mean(ys));
+                    Shard matchOwner = match == null ? null : owners.get(match.getId());
+                    if (matchOwner != null) {
+                        owned = landmarks.get(match.getId());
+                        if (owned == null) { // owned by another shard, or handed to this one and not adopted yet
+                            forward(matchOwner, match.getId(), description, xs, ys, sequence, false);
+                            return;
+                        }
+                    }
+                }
+                if (owned == null) {
+                    LandMark landmark = new LandMark(id, description, xs, ys, xs.length);
+                    landmarks.put(id, new Owned(landmark, sequence));
+                    listener.created(landmark, xs, ys);
+                    handOffIfMoved(landmarks.get(id));
+                    return;
+                }
+            }
+            LandMark landmark = owned.landmark;
+            synchronized (landmark) {
+                landmark.addObservation(xs, ys, xs.length);
+                listener.observed(landmark, xs, ys);
+            }
+            listener.changed(landmark);
+            handOffIfMoved(owned);
+        }
+
+        // Moves a landmark to the shard of its centroid's tile if that is another shard
+        private void handOffIfMoved(Owned owned) {
+            Shard owner = shardOf(owned.landmark);
+            if (owner != this) {
+                String id = owned.landmark.getId();
+                landmarks.remove(id);
+                // queued before the owner changes, so whatever is routed to the new owner comes after it
+                submit(owner, () -> owner.landmarks.put(id, owned));
+                owners.put(id, owner);
+                handOffs.incrementAndGet();
+            }
+        }
+    }
+
+    private final double tileSize;
+    private final Shard[] shards;
+    private final Listener listener;
+    private final Map<String, Shard> owners = new ConcurrentHashMap<>(); // id -> shard that owns it
+    private final AtomicInteger pending = new AtomicInteger(0); // tasks queued or running on the shards
+    private final AtomicInteger handOffs = new AtomicInteger(0);
+    private long nextSequence = 0; // routing order, used by the routing thread only
+
+    /**
+     * @param count    The number of shards (worker threads).
+     * @param tileSize The side of a tile, in map units.
+     * @param listener The map-wide bookkeeping of the shards.
+     */
+    public FusionShards(int count, double tileSize, Listener listener) {
+        if (count <= 0 || !(tileSize > 0)) {
+            throw new IllegalArgumentException("count and tileSize must be positive");
+        }
+        this.tileSize = tileSize;
+        this.listener = listener;
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            String name = "FusionShard-" + i;
+            shards[i] = new Shard(Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
+    }
+
+    public int getCount() {
+        return shards.length;
+    }
+
+    /**
+     * Routes the observation of a tracked object to the shard that owns it.
+     * Called by a single thread, in the order the objects are fused.
+     *
+     * @param id          The id of the tracked object.
+     * @param description The description of the tracked object.
+     * @param xs          The observed x coordinates, in global coordinates.
+     * @param ys          The observed y coordinates, in global coordinates.
+     */
+    public void route(String id, String description, double[] xs, double[] ys) {
+        long sequence = nextSequence++;
+        Shard owner = owners.get(id);
+        if (owner == null) {
+            Shard byPosition = xs.length == 0 ? shards[0] : shardAt(mean(xs), mean(ys));
+            Shard claimed = owners.putIfAbsent(id, byPosition); // a hand-off only replaces an owner
+            owner = claimed != null ? claimed : byPosition;
+        }
+        Shard target = owner;
+        submit(target, () -> target.observe(id, description, xs, ys, sequence, true));
+    }
+
+    /**
+     * Gives an existing landmark (e.g. restored from a checkpoint) to the shard
+     * of its centroid. Called by the routing thread, before the objects that
+     * may update it are routed.
+     *
+     * @param landmark The landmark.
+     */
+    public void adopt(LandMark landmark) {
+        Owned owned = new Owned(landmark, nextSequence++);
+        Shard owner = shardOf(landmark);
+        owners.put(landmark.getId(), owner);
+        submit(owner, () -> owner.landmarks.put(landmark.getId(), owned));
+    }
+
+    /**
+     * Waits until the shards have fused everything routed so far and merges
+     * their maps.
+     *
+     * @return The landmarks of all the shards, in the order they were first
+     *         routed.
+     */
+    public List<LandMark> collect() {
+        drain();
+        List<Owned> all = new ArrayList<>();
+        List<Future<List<Owned>>> parts = new ArrayList<>();
+        for (Shard shard : shards) {
+            parts.add(shard.worker.submit(() -> new ArrayList<>(shard.landmarks.values())));
+        }
+        try {
+            for (Future<List<Owned>> part : parts) {
+                all.addAll(part.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while merging the fusion shards", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A fusion shard failed", e.getCause());
+        }
+        all.sort(Comparator.comparingLong(owned -> owned.sequence));
+        List<LandMark> merged = new ArrayList<>(all.size());
+        for (Owned owned : all) {
+            merged.add(owned.landmark);
+        }
+        return merged;
+    }
+
+    // Waits until no task is queued or running on any shard
+    private synchronized void drain() {
+        while (pending.get() > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the fusion shards", e);
+            }
+        }
+    }
+
+    // Runs a task on a shard; the pending count covers the tasks it forwards, so it only drops to 0 at the end
+    private void submit(Shard shard, Runnable task) {
+        pending.incrementAndGet();
+        shard.worker.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    private void forward(Shard owner, String id, String description, double[] xs, double[] ys, long sequence,
+            boolean associate) {
+        submit(owner, () -> owner.observe(id, description, xs, ys, sequence, associate));
+    }
+
+    // Returns the shard of the tile that holds a position
+    private Shard shardAt(double x, double y) {
+        long tileX = (long) Math.floor(x / tileSize);
+        long tileY = (long) Math.floor(y / tileSize);
+        long hash = tileX * 0x9E3779B97F4A7C15L + tileY * 0xC2B2AE3D27D4EB4FL;
+        return shards[(int) Math.floorMod(hash ^ (hash >>> 31), (long) shards.length)];
+    }
+
+    // Returns the shard of the tile of a landmark's centroid
+    private Shard shardOf(LandMark landmark) {
+        synchronized (landmark) {
+            int numPoints = landmark.getNumPoints();
+            double x = 0;
+            double y = 0;
+            for (int i = 0; i < numPoints; i++) {
+                x += landmark.getX(i);
+                y += landmark.getY(i);
+            }
+            return numPoints == 0 ? shards[0] : shardAt(x / numPoints, y / numPoints);
+        }
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    // Stops the worker threads
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.worker.shutdownNow();
+        }
+    }
+
+    // functions for testing
+
+    // Returns how many times a landmark moved to another shard
+    public int getNumberOfHandOffs() {
+        return handOffs.get();
+    }
+
+    // Returns the index of the shard that owns an id, or -1
+    public int getOwner(String id) {
+        Shard owner = owners.get(id);
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] == owner) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,16 +1,19 @@
 package bgu.spl.mics.application.objects;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import bgu.spl.mics.application.messages.DetectObjectsEvent;
 import bgu.spl.mics.application.messages.TrackedObjectsEvent;
 import bgu.spl.mics.Event;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Manages the fusion of sensor data for simultaneous localization and mapping
@@ -31,15 +34,47 @@ public class FusionSlam {
         return SingletonHolderFusionSlam.INSTANCE;
     }
 
-    private ArrayList<LandMark> landmarks = new ArrayList<>();
-    private Map<Integer, Pose> posesByTime = new HashMap<>();
+    public static final double DEFAULT_GRID_CELL_SIZE = 1.0;
+    public static final double DEFAULT_OCCUPANCY_RESOLUTION = 0.1;
+
+    private final Map<String, LandMark> landmarks = new LinkedHashMap<>(); // by id, in the order they were added
+    private final PoseStore poses = new PoseStore(); // poses by tick
+    private volatile LandmarkGrid landmarkGrid = new LandmarkGrid(DEFAULT_GRID_CELL_SIZE); // spatial index
+    private volatile OccupancyGrid occupancyGrid; // rasterized map, null unless configured
+    private volatile String occupancyOutputFile; // null unless the occupancy grid is written out
+    private Writer occupancyUpdates; // null unless the changed tiles are appended to a file
+    private int occupancyUpdateInterval = 1;
+    private volatile MapSnapshot snapshot = MapSnapshot.EMPTY; // latest published version of the map
+    // Position of each landmark in the snapshots and the landmarks not published yet, guarded by landmarks
+    private final Map<String, Integer> snapshotIndexes = new HashMap<>();
+    private final List<LandMark> createdSincePublish = new ArrayList<>();
     private int tick = 0;
     private final AtomicInteger activeCameras = new AtomicInteger(0);
     private int activeSensors = 0;
+    private volatile int parallelFusionThreshold = Integer.MAX_VALUE; // smallest batch fused in parallel
+    private volatile boolean poseInterpolation = false; // interpolate poses between the known ticks
+    private volatile double associationGate = -1; // max distance of a geometric match, negative: ids only
+    private volatile boolean compactOutput = false; // write the output file without pretty printing
+    // Changes since the last checkpoint, both guarded by changedLandmarks
+    private final Map<String, LandMark> changedLandmarks = new LinkedHashMap<>();
+    private final TreeSet<Integer> changedPoseTicks = new TreeSet<>();
+    private volatile FusionWriteAheadLog writeAheadLog; // null unless the changes are logged
+    private volatile FusionShards fusionShards; // null unless the landmarks are owned by spatial shards
 
     /**
      * Processes a list of tracked objects to update or add landmarks based on the
      * robot's pose.
+     * <p>
+     * A batch of at least {@code parallelFusionThreshold} objects is processed in
+     * parallel: the objects are transformed to global coordinates in parallel,
+     * new landmarks are created in the order of their first object, and then the
+     * updates of each landmark are applied in parallel with the other landmarks,
+     * in the order of the batch. The result is the same as processing the batch
+     * one object at a time.
+     * <p>
+     * With fusion shards (see {@link #setFusionShards(int, double)}) the objects
+     * are only transformed here and routed to the shards, which fuse them on
+     * their own threads; the map shows them once the shards are merged.
      *
      * @pre {@code trackedObjects != null} - The provided list of tracked objects
      *      must not be null.
@@ -49,60 +84,285 @@ public class FusionSlam {
      *
      * @param trackedObjects The list of tracked objects to process.
      */
-    public synchronized void processTrackedObjects(List<TrackedObject> trackedObjects) {
-        for (TrackedObject obj : trackedObjects) {
-            String id = obj.getId();
-            Pose relaventPose = getPoseAtTime(obj.getTime());
-            if (relaventPose == null) {// just for test
-                System.out.println("No pose found for time: " + obj.getTime() + ". Skipping object: " + id);
-                continue;
+    public void processTrackedObjects(List<TrackedObject> trackedObjects) {
+        processTrackedObjects(trackedObjects, false);
+    }
+
+    /**
+     * Processes a list of tracked objects, see {@link #processTrackedObjects(List)}.
+     *
+     * @param trackedObjects The list of tracked objects to process.
+     * @param useNearestPose If true, an object whose pose cannot be resolved
+     *                       uses the pose of the nearest tick instead of being
+     *                       skipped.
+     */
+    public void processTrackedObjects(List<TrackedObject> trackedObjects, boolean useNearestPose) {
+        boolean parallel = trackedObjects.size() >= parallelFusionThreshold;
+
+        // Resolve the transform of each object, once per distinct time
+        PoseTransform[] transforms = new PoseTransform[trackedObjects.size()];
+        Map<Integer, PoseTransform> transformsByTime = new HashMap<>();
+        for (int i = 0; i < trackedObjects.size(); i++) {
+            TrackedObject obj = trackedObjects.get(i);
+            if (!transformsByTime.containsKey(obj.getTime())) {
+                Pose relaventPose = resolvePose(obj.getTime());
+                if (relaventPose == null && useNearestPose) {
+                    relaventPose = getNearestPose(obj.getTime());
+                }
+                transformsByTime.put(obj.getTime(), relaventPose != null ? new PoseTransform(relaventPose) : null);
             }
-            List<CloudPoint> globalCoordinates = transformToGlobal(obj.getCoordinates(), relaventPose);
-            LandMark existingLandmark = findLandMarkById(id);
-            if (existingLandmark != null) {
-                updateLandmarkCoordinates(existingLandmark, globalCoordinates);
-            } else {
-                LandMark newLandmark = new LandMark(id, obj.getDescription(), globalCoordinates);
-                landmarks.add(newLandmark);
-                StatisticalFolder.getInstance().updateNumLandmarks(1);
+            transforms[i] = transformsByTime.get(obj.getTime());
+            if (transforms[i] == null) {// just for test
+                System.out.println("No pose found for time: " + obj.getTime() + ". Skipping object: " + obj.getId());
+            }
+        }
+
+        // Transform every object to global coordinates (null if it has no pose)
+        Observation[] observations = new Observation[trackedObjects.size()];
+        IntStream indexes = IntStream.range(0, trackedObjects.size());
+        (parallel ? indexes.parallel() : indexes).forEach(i -> {
+            if (transforms[i] != null) {
+                observations[i] = observe(trackedObjects.get(i).getCoordinates(), transforms[i]);
+            }
+        });
+
+        // With shards, every observation goes to the shard that owns its landmark or position
+        FusionShards shards = fusionShards;
+        if (shards != null) {
+            for (int i = 0; i < trackedObjects.size(); i++) {
+                if (observations[i] != null) {
+                    shards.route(trackedObjects.get(i).getId(), trackedObjects.get(i).getDescription(),
+                            observations[i].xs, observations[i].ys);
+                }
+            }
+            return;
+        }
+
+        // Group the updates by landmark, creating the new landmarks in batch order
+        Map<LandMark, List<Observation>> updatesByLandmark = new LinkedHashMap<>();
+        synchronized (landmarks) {
+            for (int i = 0; i < trackedObjects.size(); i++) {
+                if (observations[i] == null) {
+                    continue;
+                }
+                TrackedObject obj = trackedObjects.get(i);
+                LandMark existingLandmark = associate(obj, observations[i]);
+                if (existingLandmark != null) {
+                    updatesByLandmark.computeIfAbsent(existingLandmark, landmark -> new ArrayList<>())
+                            .add(observations[i]);
+                } else {
+                    LandMark newLandmark = new LandMark(obj.getId(), obj.getDescription(), observations[i].xs,
+                            observations[i].ys, observations[i].xs.length);
+                    landmarks.put(obj.getId(), newLandmark);
+                    createdSincePublish.add(newLandmark);
+                    FusionWriteAheadLog log = writeAheadLog;
+                    if (log != null) {
+                        log.appendLandmarkCreated(obj.getId(), obj.getDescription(), observations[i].xs,
+                                observations[i].ys, observations[i].xs.length);
+                    }
+                    indexLandmark(newLandmark);
+                    StatisticalFolder.getInstance().updateNumLandmarks(1);
+                    markChanged(newLandmark);
+                }
             }
         }
 
+        // Different landmarks are updated independently, each under its own lock
+        Collection<Map.Entry<LandMark, List<Observation>>> updates = updatesByLandmark.entrySet();
+        (parallel ? updates.parallelStream() : updates.stream()).forEach(entry -> {
+            LandMark landmark = entry.getKey();
+            synchronized (landmark) {
+                for (Observation observation : entry.getValue()) {
+                    updateLandmarkCoordinates(landmark, observation);
+                }
+            }
+            // Re-index after the landmark lock is released, the grids lock the landmark themselves
+            indexLandmark(landmark);
+            markChanged(landmark); // after the update, so a checkpoint never misses it
+        });
+        publishSnapshot(updatesByLandmark.keySet());
     }
 
     /**
-     * Updates the coordinates of an existing landmark by averaging the new
-     * coordinates with the old ones.
+     * Publishes a new map snapshot with the landmarks created since the last one
+     * and the given changed landmarks. Only those landmarks, and the snapshot
+     * nodes on their paths, are copied.
      *
-     * @pre {@code existingLandmark != null && newCoordinates != null} - Both the
-     *      existing landmark and new coordinates must not be null.
-     * @post The coordinates of {@code existingLandmark} are updated to reflect the
-     *       average of the old and new coordinates.
+     * @param changed Existing landmarks whose coordinates changed.
+     */
+    private void publishSnapshot(Collection<LandMark> changed) {
+        synchronized (landmarks) {
+            MapSnapshot current = snapshot;
+            int nextIndex = current.size();
+            Set<String> ids = new LinkedHashSet<>();
+            for (LandMark landmark : createdSincePublish) {
+                snapshotIndexes.put(landmark.getId(), nextIndex++);
+                ids.add(landmark.getId());
+            }
+            createdSincePublish.clear();
+            for (LandMark landmark : changed) {
+                ids.add(landmark.getId());
+            }
+            SortedMap<Integer, MapSnapshot.LandmarkSnapshot> updates = new TreeMap<>();
+            for (String id : ids) {
+                updates.put(snapshotIndexes.get(id), new MapSnapshot.LandmarkSnapshot(landmarks.get(id)));
+            }
+            snapshot = current.with(tick, updates);
+        }
+    }
+
+    /**
+     * Returns the latest published version of the map. The snapshot is
+     * immutable, so it can be read without locks while the fusion goes on.
+     * With fusion shards, it is published when the shards are merged (see
+     * {@link #mergeShards()}).
      *
-     * @param existingLandmark The existing landmark to update.
-     * @param newCoordinates   The new coordinates to average with the old ones.
+     * @return The current snapshot, in O(1).
      */
-    private void updateLandmarkCoordinates(LandMark existingLandmark, List<CloudPoint> newCoordinates) {
-        List<CloudPoint> existingCoordinates = existingLandmark.getCoordinates();
-        List<CloudPoint> updatedCoordinates = new ArrayList<>();
+    public MapSnapshot getSnapshot() {
+        return snapshot;
+    }
 
-        int size = Math.min(existingCoordinates.size(), newCoordinates.size());
-        for (int i = 0; i < size; i++) {
-            CloudPoint oldPoint = existingCoordinates.get(i);
-            CloudPoint newPoint = newCoordinates.get(i);
+    /**
+     * Fuses the tracked objects on spatial shards, each with its own worker
+     * thread and map (see {@link FusionShards}). The landmarks already in the
+     * map are given to the shards of their tiles. Call it before fusing, from
+     * the thread that fuses.
+     *
+     * @param count    The number of shards, 0 to fuse on the calling thread.
+     * @param tileSize The side of a tile, in map units.
+     */
+    public void setFusionShards(int count, double tileSize) {
+        FusionShards previous = fusionShards;
+        if (previous != null) {
+            mergeShards();
+            previous.shutdown();
+        }
+        if (count <= 0) {
+            fusionShards = null;
+            return;
+        }
+        FusionShards shards = new FusionShards(count, tileSize, new FusionShards.Listener() {
+            @Override
+            public void created(LandMark landmark, double[] xs, double[] ys) {
+                FusionWriteAheadLog log = writeAheadLog;
+                if (log != null) {
+                    log.appendLandmarkCreated(landmark.getId(), landmark.getDescription(), xs, ys, xs.length);
+                }
+                indexLandmark(landmark);
+                StatisticalFolder.getInstance().updateNumLandmarks(1);
+                markChanged(landmark);
+            }
 
-            double avgX = (oldPoint.getX() + newPoint.getX()) / 2;
-            double avgY = (oldPoint.getY() + newPoint.getY()) / 2;
+            @Override
+            public void observed(LandMark landmark, double[] xs, double[] ys) {
+                FusionWriteAheadLog log = writeAheadLog;
+                if (log != null) {
+                    log.appendObservation(landmark.getId(), xs, ys, xs.length);
+                }
+            }
+
+            @Override
+            public void changed(LandMark landmark) {
+                indexLandmark(landmark);
+                markChanged(landmark);
+            }
 
-            updatedCoordinates.add(new CloudPoint(avgX, avgY));
+            @Override
+            public LandMark findNearby(double x, double y) {
+                double gate = associationGate;
+                if (gate < 0) {
+                    return null;
+                }
+                List<LandMark> candidates = landmarkGrid.queryRange(x, y, gate);
+                return candidates.isEmpty() ? null : candidates.get(0);
+            }
+        });
+        synchronized (landmarks) {
+            for (LandMark landmark : landmarks.values()) {
+                shards.adopt(landmark);
+            }
         }
-        if (newCoordinates.size() > existingCoordinates.size()) {
-            updatedCoordinates.addAll(newCoordinates.subList(size, newCoordinates.size()));
+        fusionShards = shards;
+    }
+
+    public FusionShards getFusionShards() {
+        return fusionShards;
+    }
+
+    /**
+     * Waits for the fusion shards to fuse everything routed to them and merges
+     * their landmarks into the map, in the order they were first seen, then
+     * publishes a snapshot. Does nothing without shards. Called from the
+     * thread that fuses; the output files call it first.
+     */
+    public void mergeShards() {
+        FusionShards shards = fusionShards;
+        if (shards == null) {
+            return;
         }
-        if (existingCoordinates.size() > newCoordinates.size()) {
-            updatedCoordinates.addAll(existingCoordinates.subList(size, existingCoordinates.size()));
+        List<LandMark> merged = shards.collect();
+        List<LandMark> existing = new ArrayList<>();
+        synchronized (landmarks) {
+            for (LandMark landmark : merged) {
+                if (landmarks.putIfAbsent(landmark.getId(), landmark) == null) {
+                    createdSincePublish.add(landmark);
+                } else {
+                    existing.add(landmark);
+                }
+            }
+        }
+        publishSnapshot(existing);
+    }
+
+    /**
+     * Updates the coordinates of an existing landmark: each point becomes the
+     * mean of all its observations so far. The update is done in place.
+     *
+     * @pre {@code existingLandmark != null && observation != null} - Both the
+     *      existing landmark and the observation must not be null.
+     * @post Every observed point of {@code existingLandmark} is the running mean
+     *       of its observations, and its observation count grew by one.
+     *
+     * @param existingLandmark The existing landmark to update.
+     * @param observation      The new observation in global coordinates.
+     */
+    private void updateLandmarkCoordinates(LandMark existingLandmark, Observation observation) {
+        existingLandmark.addObservation(observation.xs, observation.ys, observation.xs.length);
+        FusionWriteAheadLog log = writeAheadLog;
+        if (log != null) { // logged under the landmark's lock, in the order the observations were applied
+            log.appendObservation(existingLandmark.getId(), observation.xs, observation.ys, observation.xs.length);
+        }
+    }
+
+    /**
+     * Finds the landmark a tracked object belongs to. A landmark with the same id
+     * is used first. Otherwise, if geometric association is on, the landmark
+     * closest to the centroid of the object's points is used, provided it lies
+     * within the association gate.
+     *
+     * @param obj         The tracked object.
+     * @param observation The object's points in global coordinates.
+     * @return The matching landmark, or null if a new landmark is needed.
+     */
+    private LandMark associate(TrackedObject obj, Observation observation) {
+        LandMark landmark = findLandMarkById(obj.getId());
+        double gate = associationGate;
+        int size = observation.xs.length;
+        if (landmark != null || gate < 0 || size == 0) {
+            return landmark;
+        }
+        double centroidX = 0;
+        double centroidY = 0;
+        for (int i = 0; i < size; i++) {
+            centroidX += observation.xs[i];
+            centroidY += observation.ys[i];
         }
-        existingLandmark.setCoordinates(updatedCoordinates);
+        centroidX /= size;
+        centroidY /= size;
+        // A range query bounded by the gate only visits the cells around the object
+        List<LandMark> candidates = landmarkGrid.queryRange(centroidX, centroidY, gate);
+        return candidates.isEmpty() ? null : candidates.get(0);
     }
 
     /**
@@ -112,12 +372,7 @@ public class FusionSlam {
      * @return The LandMark object if found, or null otherwise.
      */
     private LandMark findLandMarkById(String id) {
-        for (LandMark landmark : landmarks) {
-            if (landmark.getId().equals(id)) {
-                return landmark;
-            }
-        }
-        return null;
+        return landmarks.get(id);
     }
 
     /**
@@ -133,172 +388,380 @@ public class FusionSlam {
      * @return A list of transformed global coordinates.
      */
     public List<CloudPoint> transformToGlobal(List<CloudPoint> localCoordinates, Pose pose) {
-        List<CloudPoint> globalCoordinates = new ArrayList<>();
+        return transformToGlobal(localCoordinates, new PoseTransform(pose));
+    }
 
-        double yawRadians = Math.toRadians(pose.getYaw());
-        double cosYaw = Math.cos(yawRadians);
-        double sinYaw = Math.sin(yawRadians);
+    // Transforms the points with a precomputed transform, see PoseTransform
+    private List<CloudPoint> transformToGlobal(List<CloudPoint> localCoordinates, PoseTransform transform) {
+        Observation observation = observe(localCoordinates, transform);
+        List<CloudPoint> globalCoordinates = new ArrayList<>(observation.xs.length);
+        for (int i = 0; i < observation.xs.length; i++) {
+            globalCoordinates.add(new CloudPoint(observation.xs[i], observation.ys[i]));
+        }
+        return globalCoordinates;
+    }
 
-        for (CloudPoint point : localCoordinates) {
-            double globalX = point.getX() * cosYaw - point.getY() * sinYaw + pose.getX();
-            double globalY = point.getX() * sinYaw + point.getY() * cosYaw + pose.getY();
-            globalCoordinates.add(new CloudPoint(globalX, globalY));
+    // Packs the points of a tracked object and transforms them in place
+    private static Observation observe(List<CloudPoint> localCoordinates, PoseTransform transform) {
+        int size = localCoordinates.size();
+        double[] xs = new double[size];
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            CloudPoint point = localCoordinates.get(i);
+            xs[i] = point.getX();
+            ys[i] = point.getY();
         }
+        transform.apply(xs, ys, xs, ys, 0, size);
+        return new Observation(xs, ys);
+    }
 
-        return globalCoordinates;
+    // The points of one tracked object in global coordinates, packed by axis
+    private static final class Observation {
+        private final double[] xs;
+        private final double[] ys;
+
+        private Observation(double[] xs, double[] ys) {
+            this.xs = xs;
+            this.ys = ys;
+        }
+    }
+
+    /**
+     * Finds the landmarks with a point within a radius of a position.
+     *
+     * @param x      The x coordinate of the position (e.g. the robot's pose).
+     * @param y      The y coordinate of the position.
+     * @param radius The search radius.
+     * @return The landmarks in range, closest first.
+     */
+    public List<LandMark> getLandmarksWithin(double x, double y, double radius) {
+        return landmarkGrid.queryRange(x, y, radius);
+    }
+
+    /**
+     * Finds the landmarks closest to a position.
+     *
+     * @param x The x coordinate of the position.
+     * @param y The y coordinate of the position.
+     * @param k The number of landmarks to return.
+     * @return Up to k landmarks, closest first.
+     */
+    public List<LandMark> getNearestLandmarks(double x, double y, int k) {
+        return landmarkGrid.queryNearest(x, y, k);
+    }
+
+    /**
+     * Sets the cell size of the landmark spatial index and re-indexes the map.
+     *
+     * @param cellSize The side of a grid cell, in map units.
+     */
+    public void setLandmarkGridCellSize(double cellSize) {
+        LandmarkGrid grid = new LandmarkGrid(cellSize);
+        synchronized (landmarks) {
+            for (LandMark landmark : landmarks.values()) {
+                grid.update(landmark);
+            }
+            landmarkGrid = grid;
+        }
+    }
+
+    /**
+     * Creates the occupancy grid, or changes its resolution, and rasterizes the
+     * map again.
+     *
+     * @param resolution The side of a cell, in map units.
+     * @param tileSize   The number of cells along the side of a tile.
+     */
+    public void setOccupancyGrid(double resolution, int tileSize) {
+        OccupancyGrid grid = new OccupancyGrid(resolution, tileSize);
+        synchronized (landmarks) {
+            for (LandMark landmark : landmarks.values()) {
+                grid.update(landmark);
+            }
+            occupancyGrid = grid;
+        }
+    }
+
+    // The occupancy grid, null unless it was set
+    public OccupancyGrid getOccupancyGrid() {
+        return occupancyGrid;
+    }
+
+    // Sets a file the occupancy grid is written to with the output file (null for none)
+    public void setOccupancyOutputFile(String occupancyOutputFile) {
+        this.occupancyOutputFile = occupancyOutputFile;
+    }
+
+    /**
+     * Writes every tile of the occupancy grid, the cells of a tile are base64
+     * encoded bytes, row by row.
+     *
+     * @param filePath The path of the file.
+     */
+    public void generateOccupancyGridFile(String filePath) {
+        OccupancyGrid grid = occupancyGrid;
+        if (grid == null) {
+            return;
+        }
+        try (MapOutputWriter output = new MapOutputWriter(filePath, compactOutput)) {
+            JsonWriter json = output.json();
+            json.beginObject();
+            json.name("resolution").value(grid.getResolution());
+            json.name("tileSize").value(grid.getTileSize());
+            json.name("tiles").beginArray();
+            for (OccupancyGrid.TileSnapshot tile : grid.exportAllTiles()) {
+                json.beginObject();
+                json.name("x").value(tile.getTileX());
+                json.name("y").value(tile.getTileY());
+                json.name("cells").value(Base64.getEncoder().encodeToString(tile.getCells()));
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts appending the tiles of the occupancy grid that changed to a file,
+     * one line of JSON per export: {@code {"tick": t, "tiles": [...]}}, the
+     * tiles as in {@link #generateOccupancyGridFile(String)}; a tile that was
+     * freed has empty cells. A consumer can keep its grid up to date by reading
+     * the new lines instead of the whole grid.
+     *
+     * @param filePath      The file, truncated first.
+     * @param intervalTicks The changed tiles are appended every
+     *                      {@code intervalTicks} ticks.
+     * @throws IOException If the file cannot be created.
+     */
+    public synchronized void setOccupancyUpdatesFile(String filePath, int intervalTicks) throws IOException {
+        closeOccupancyUpdates();
+        occupancyUpdates = Files.newBufferedWriter(Paths.get(filePath), StandardCharsets.UTF_8);
+        occupancyUpdateInterval = Math.max(1, intervalTicks);
+    }
+
+    // Whether the changed tiles are appended at a tick
+    public synchronized boolean isOccupancyUpdateDue(int tick) {
+        return occupancyUpdates != null && tick % occupancyUpdateInterval == 0;
     }
 
     /**
-     * Returns the list of landmarks.
+     * Appends the tiles that changed since the last export to the updates file,
+     * if there is one and a tile changed.
      *
-     * @return A list of landmarks.
+     * @param tick The tick of the export.
+     */
+    public synchronized void appendOccupancyUpdates(int tick) {
+        OccupancyGrid grid = occupancyGrid;
+        if (grid == null || occupancyUpdates == null) {
+            return;
+        }
+        List<OccupancyGrid.TileSnapshot> tiles = grid.exportDirtyTiles();
+        if (tiles.isEmpty()) {
+            return;
+        }
+        try {
+            JsonWriter json = new JsonWriter(occupancyUpdates); // one per line, it is not closed
+            json.beginObject();
+            json.name("tick").value(tick);
+            json.name("tiles").beginArray();
+            for (OccupancyGrid.TileSnapshot tile : tiles) {
+                json.beginObject();
+                json.name("x").value(tile.getTileX());
+                json.name("y").value(tile.getTileY());
+                json.name("cells").value(Base64.getEncoder().encodeToString(tile.getCells()));
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+            json.flush();
+            occupancyUpdates.write('\n');
+            occupancyUpdates.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Appends the last changed tiles and closes the updates file
+    private synchronized void closeOccupancyUpdates() {
+        if (occupancyUpdates == null) {
+            return;
+        }
+        appendOccupancyUpdates(tick);
+        try {
+            occupancyUpdates.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        occupancyUpdates = null;
+    }
+
+    /**
+     * Returns the list of the live landmarks. Every call copies the list under
+     * the landmarks lock, O(n) in the number of landmarks, and holds back the
+     * fusion while it copies. Readers that need a consistent view without
+     * copying should use {@link #getSnapshot()}. With fusion shards, the list
+     * has the landmarks merged so far (see {@link #mergeShards()}).
+     *
+     * @return A list of landmarks, in the order they were added.
      */
     public List<LandMark> getLandmarks() {
-        return Collections.unmodifiableList(new ArrayList<>(landmarks));
+        synchronized (landmarks) {
+            return Collections.unmodifiableList(new ArrayList<>(landmarks.values()));
+        }
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("FusionSlam Map:\n");
-        for (LandMark landmark : landmarks) {
+        for (LandMark landmark : getLandmarks()) {
             sb.append(landmark).append("\n");
         }
         return sb.toString();
     }
 
     public void generateOutputFileWithError(String filePath, String errorDescription, String faultySensor) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        Map<String, Object> outputData = new LinkedHashMap<>(); // Ensure ordered output
-
-        // Add error-specific fields
-
-        // Add last cameras frame
-        Map<String, Object> lastCamerasFrame = new LinkedHashMap<>();
-        Map<String, Object> lastLiDarWorkerTrackersFrame = new LinkedHashMap<>();
+        mergeShards();
         StatisticalFolder stats = StatisticalFolder.getInstance();
         Map<String, Event<?>> lastFrames = stats.getLastFrames();
+        try (MapOutputWriter output = new MapOutputWriter(filePath, compactOutput)) {
+            JsonWriter json = output.json();
+            json.beginObject();
 
-        for (Map.Entry<String, Event<?>> entry : lastFrames.entrySet()) {
-            String key = entry.getKey();
-            Event<?> event = entry.getValue();
-
-            if (key.startsWith("Camera")) {
-                if (event instanceof DetectObjectsEvent) {
-                    DetectObjectsEvent detectEvent = (DetectObjectsEvent) event;
-                    StampedDetectedObject stampedDetectedObject = detectEvent.getStampedDetectedObjects();
-
-                    // Build camera data
-                    Map<String, Object> cameraData = new LinkedHashMap<>();
-                    cameraData.put("time", stampedDetectedObject.getTime());
-
-                    List<Map<String, String>> detectedObjects = new ArrayList<>();
+            // Add last cameras frame
+            json.name("lastCamerasFrame").beginObject();
+            for (Map.Entry<String, Event<?>> entry : lastFrames.entrySet()) {
+                if (entry.getKey().startsWith("Camera") && entry.getValue() instanceof DetectObjectsEvent) {
+                    StampedDetectedObject stampedDetectedObject = ((DetectObjectsEvent) entry.getValue())
+                            .getStampedDetectedObjects();
+                    json.name(entry.getKey()).beginObject();
+                    json.name("time").value(stampedDetectedObject.getTime());
+                    json.name("detectedObjects").beginArray();
                     for (DetectedObject obj : stampedDetectedObject.getDetectedObjects()) {
-                        Map<String, String> objData = new LinkedHashMap<>();
-                        objData.put("id", obj.getId());
-                        objData.put("description", obj.getDescription());
-                        detectedObjects.add(objData);
+                        json.beginObject();
+                        json.name("id").value(obj.getId());
+                        json.name("description").value(obj.getDescription());
+                        json.endObject();
                     }
-                    cameraData.put("detectedObjects", detectedObjects);
-
-                    lastCamerasFrame.put(key, cameraData);
+                    json.endArray();
+                    json.endObject();
                 }
-            } else if (key.startsWith("LiDar")) {
-                if (event instanceof TrackedObjectsEvent) {
-                    TrackedObjectsEvent trackedEvent = (TrackedObjectsEvent) event;
-
-                    List<Map<String, Object>> trackedObjects = new ArrayList<>();
-                    for (TrackedObject obj : trackedEvent.getTrackedObjects()) {
-                        Map<String, Object> objData = new LinkedHashMap<>();
-                        objData.put("id", obj.getId());
-                        objData.put("time", obj.getTime());
-                        objData.put("description", obj.getDescription());
-                        objData.put("coordinates", obj.getCoordinates());
-                        trackedObjects.add(objData);
+            }
+            json.endObject();
+
+            // Add last LiDAR workers frame
+            json.name("lastLiDarWorkerTrackersFrame").beginObject();
+            for (Map.Entry<String, Event<?>> entry : lastFrames.entrySet()) {
+                if (entry.getKey().startsWith("LiDar") && entry.getValue() instanceof TrackedObjectsEvent) {
+                    json.name(entry.getKey()).beginArray();
+                    for (TrackedObject obj : ((TrackedObjectsEvent) entry.getValue()).getTrackedObjects()) {
+                        json.beginObject();
+                        json.name("id").value(obj.getId());
+                        json.name("time").value(obj.getTime());
+                        json.name("description").value(obj.getDescription());
+                        json.name("coordinates");
+                        output.writeCloudPoints(obj.getCoordinates());
+                        json.endObject();
                     }
-                    lastLiDarWorkerTrackersFrame.put(key, trackedObjects);
+                    json.endArray();
                 }
             }
-        }
-        outputData.put("lastCamerasFrame", lastCamerasFrame);
-        outputData.put("lastLiDarWorkerTrackersFrame", lastLiDarWorkerTrackersFrame);
+            json.endObject();
 
-        // Add poses
-        outputData.put("poses", getAllPoses());
-        // Add landmarks to statistics
-        Map<String, Object> landmarks = new LinkedHashMap<>();
-        for (LandMark landmark : getLandmarks()) {
-            Map<String, Object> landmarkData = new LinkedHashMap<>();
-            landmarkData.put("id", landmark.getId());
-            landmarkData.put("description", landmark.getDescription());
-            landmarkData.put("coordinates", landmark.getCoordinates());
-            landmarks.put(landmark.getId(), landmarkData);
-        }
-
-        // Add statistics
-        Map<String, Object> statistics = new LinkedHashMap<>();
-        statistics.put("landMarks", landmarks);
-        statistics.put("error", errorDescription);
-        statistics.put("faultySensor", faultySensor);
-        statistics.put("systemRuntime", stats.getSystemRuntime());
-        statistics.put("numDetectedObjects", stats.getNumDetectedObjects());
-        statistics.put("numTrackedObjects", stats.getNumTrackedObjects());
-        statistics.put("numLandmarks", stats.getNumLandmarks());
-
-        outputData.put("statistics", statistics);
-
-        // Write JSON to file
-        try (FileWriter writer = new FileWriter(filePath)) {
-            gson.toJson(outputData, writer);
+            // Add poses
+            json.name("poses");
+            output.writePoses(poses);
+
+            // Add statistics, with the landmarks
+            json.name("statistics").beginObject();
+            json.name("landMarks");
+            writeLandmarks(output);
+            json.name("error").value(errorDescription);
+            json.name("faultySensor").value(faultySensor);
+            writeStatistics(json, stats);
+            json.endObject();
+
+            json.endObject();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (occupancyOutputFile != null) {
+            generateOccupancyGridFile(occupancyOutputFile);
+        }
+        closeOccupancyUpdates();
     }
 
     public void generateOutputFileWithoutError(String filePath) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        Map<String, Object> outputData = new HashMap<>();
-
-        // Add statistics
+        mergeShards();
         StatisticalFolder stats = StatisticalFolder.getInstance();
-        Map<String, Object> statistics = Map.of(
-                "systemRuntime", stats.getSystemRuntime(),
-                "numDetectedObjects", stats.getNumDetectedObjects(),
-                "numTrackedObjects", stats.getNumTrackedObjects(),
-                "numLandmarks", stats.getNumLandmarks());
-        outputData.put("statistics", statistics);
-
-        // Add landmarks
-        Map<String, Object> landmarks = new HashMap<>();
-        for (LandMark landmark : getLandmarks()) {
-            landmarks.put(landmark.getId(), landmark); // Gson will handle serialization
-        }
-        outputData.put("landMarks", landmarks);
+        try (MapOutputWriter output = new MapOutputWriter(filePath, compactOutput)) {
+            JsonWriter json = output.json();
+            json.beginObject();
+
+            // Add landmarks
+            json.name("landMarks");
+            writeLandmarks(output);
+
+            // Add poses
+            json.name("poses");
+            output.writePoses(poses);
 
-        // Add poses
-        outputData.put("poses", getAllPoses()); // Gson will serialize the list
+            // Add statistics
+            json.name("statistics").beginObject();
+            writeStatistics(json, stats);
+            json.endObject();
 
-        // Write JSON to file
-        try (FileWriter writer = new FileWriter(filePath)) {
-            gson.toJson(outputData, writer);
+            json.endObject();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (occupancyOutputFile != null) {
+            generateOccupancyGridFile(occupancyOutputFile);
+        }
+        closeOccupancyUpdates();
     }
 
+    // Writes the landmarks of the current snapshot as an object keyed by id, in the order they were added
+    private void writeLandmarks(MapOutputWriter output) throws IOException {
+        JsonWriter json = output.json();
+        json.beginObject();
+        for (MapSnapshot.LandmarkSnapshot landmark : snapshot.getLandmarks()) {
+            json.name(landmark.getId());
+            output.writeLandmark(landmark);
+        }
+        json.endObject();
+    }
+
+    private static void writeStatistics(JsonWriter json, StatisticalFolder stats) throws IOException {
+        json.name("systemRuntime").value(stats.getSystemRuntime());
+        json.name("numDetectedObjects").value(stats.getNumDetectedObjects());
+        json.name("numTrackedObjects").value(stats.getNumTrackedObjects());
+        json.name("numLandmarks").value(stats.getNumLandmarks());
+    }
+
+    // Returns all poses in tick order
     public List<Pose> getAllPoses() {
-        return new ArrayList<>(posesByTime.values());
+        return poses.getAll();
     }
 
+    // Returns the poses up to the given tick (inclusive) in tick order
     public List<Pose> getPosesUpToTick(int time) {
-        List<Pose> poses = new ArrayList<>();
-        for (Map.Entry<Integer, Pose> entry : posesByTime.entrySet()) {
-            if (entry.getKey() <= time) {
-                poses.add(entry.getValue());
-            } else {
-                break;
-            }
-        }
-        return poses;
+        return poses.getUpTo(time);
+    }
+
+    public int getParallelFusionThreshold() {
+        return parallelFusionThreshold;
+    }
+
+    /**
+     * Sets the smallest batch of tracked objects that is fused in parallel.
+     *
+     * @param parallelFusionThreshold The threshold, Integer.MAX_VALUE to always
+     *                                fuse serially.
+     */
+    public void setParallelFusionThreshold(int parallelFusionThreshold) {
+        this.parallelFusionThreshold = Math.max(1, parallelFusionThreshold);
     }
 
     // Getter for active cameras
@@ -344,20 +807,339 @@ public class FusionSlam {
      * @param pose The new pose to add.
      */
     public void addPose(Pose pose) {
-        posesByTime.put(pose.getTime(), pose);
+        poses.add(pose);
+        FusionWriteAheadLog log = writeAheadLog;
+        if (log != null) {
+            log.appendPose(pose);
+        }
+        synchronized (changedLandmarks) {
+            changedPoseTicks.add(pose.getTime());
+        }
+    }
+
+    // Records that a landmark changed since the last checkpoint
+    private void markChanged(LandMark landmark) {
+        synchronized (changedLandmarks) {
+            changedLandmarks.put(landmark.getId(), landmark);
+        }
+    }
+
+    /**
+     * Takes a delta checkpoint: the landmarks and poses that changed since the
+     * previous call. Only the changed landmarks are copied, each under its own
+     * lock. When called between fusion batches (e.g. on a tick by the
+     * FusionSlamService) the delta is consistent.
+     *
+     * @param tick The tick of the checkpoint.
+     * @return The delta, with the current statistics.
+     */
+    public MapCheckpoint takeCheckpointDelta(int tick) {
+        List<LandMark> changed;
+        List<Integer> changedTicks;
+        synchronized (changedLandmarks) {
+            changed = new ArrayList<>(changedLandmarks.values());
+            changedTicks = new ArrayList<>(changedPoseTicks);
+            changedLandmarks.clear();
+            changedPoseTicks.clear();
+        }
+        MapCheckpoint checkpoint = new MapCheckpoint(tick, false);
+        for (LandMark landmark : changed) {
+            synchronized (landmark) {
+                checkpoint.getLandmarks().add(new MapCheckpoint.LandmarkState(landmark));
+            }
+        }
+        for (int t : changedTicks) {
+            Pose pose = poses.get(t);
+            if (pose != null) {
+                checkpoint.getPoses().add(pose);
+            }
+        }
+        StatisticalFolder stats = StatisticalFolder.getInstance();
+        checkpoint.setStatistics(stats.getSystemRuntime(), stats.getNumDetectedObjects(),
+                stats.getNumTrackedObjects(), stats.getNumLandmarks());
+        return checkpoint;
+    }
+
+    /**
+     * Returns a delta that could not be written to the changes of the next one,
+     * so the changes it held are not lost. The landmarks are marked by id, the
+     * next delta copies their current state.
+     *
+     * @param delta The delta taken by {@link #takeCheckpointDelta(int)}.
+     */
+    public void returnCheckpointDelta(MapCheckpoint delta) {
+        List<LandMark> returned = new ArrayList<>(delta.getLandmarks().size());
+        synchronized (landmarks) { // called by the checkpoint writer while the fusion adds landmarks
+            for (MapCheckpoint.LandmarkState state : delta.getLandmarks()) {
+                LandMark landmark = findLandMarkById(state.getId());
+                // a landmark of a shard is not in the map before the merge, its state is still the latest
+                returned.add(landmark != null ? landmark : state.toLandMark());
+            }
+        }
+        for (LandMark landmark : returned) {
+            markChanged(landmark);
+        }
+        synchronized (changedLandmarks) {
+            for (Pose pose : delta.getPoses()) {
+                changedPoseTicks.add(pose.getTime());
+            }
+        }
+    }
+
+    /**
+     * Restores the landmarks, poses and tick of a checkpoint. The restored state
+     * is not part of the next delta, it is already on disk.
+     *
+     * @param checkpoint The merged checkpoint to resume from.
+     */
+    public void restore(MapCheckpoint checkpoint) {
+        List<LandMark> restored = new ArrayList<>();
+        for (MapCheckpoint.LandmarkState state : checkpoint.getLandmarks()) {
+            LandMark landmark = state.toLandMark();
+            putLandmark(landmark);
+            restored.add(landmark);
+        }
+        publishSnapshot(restored);
+        for (Pose pose : checkpoint.getPoses()) {
+            poses.add(pose);
+        }
+        this.tick = checkpoint.getTick();
+    }
+
+    /**
+     * Adds a landmark created in the write-ahead log. Unlike a checkpoint, the
+     * replayed change is part of the next checkpoint delta.
+     *
+     * @param landmark The landmark, as it was created.
+     */
+    public void replayLandmark(LandMark landmark) {
+        if (putLandmark(landmark) == null) {
+            StatisticalFolder.getInstance().updateNumLandmarks(1);
+        }
+        markChanged(landmark);
+        publishSnapshot(Collections.singletonList(landmark));
+    }
+
+    /**
+     * Applies an observation from the write-ahead log to its landmark.
+     *
+     * @param id     The ID of the landmark.
+     * @param xs     The observed x coordinates, in global coordinates.
+     * @param ys     The observed y coordinates, in global coordinates.
+     * @param length The number of observed points.
+     */
+    public void replayObservation(String id, double[] xs, double[] ys, int length) {
+        LandMark landmark = findLandMarkById(id);
+        if (landmark == null) {
+            System.out.println("Write-ahead log: no landmark " + id + " to apply an observation to");
+            return;
+        }
+        landmark.addObservation(xs, ys, length);
+        indexLandmark(landmark);
+        markChanged(landmark);
+        publishSnapshot(Collections.singletonList(landmark));
+    }
 
+    // Adds or replaces a landmark, returns the replaced landmark; the caller publishes it
+    private LandMark putLandmark(LandMark landmark) {
+        synchronized (landmarks) {
+            LandMark previous = landmarks.put(landmark.getId(), landmark);
+            if (previous == null) {
+                createdSincePublish.add(landmark);
+            } else {
+                landmarkGrid.remove(previous);
+                OccupancyGrid grid = occupancyGrid;
+                if (grid != null) {
+                    grid.remove(previous);
+                }
+            }
+            indexLandmark(landmark);
+            return previous;
+        }
+    }
+
+    // Updates the spatial index and the occupancy grid after a landmark changed
+    private void indexLandmark(LandMark landmark) {
+        landmarkGrid.update(landmark);
+        OccupancyGrid grid = occupancyGrid;
+        if (grid != null) {
+            grid.update(landmark);
+        }
+    }
+
+    /**
+     * Logs every later change of the map to a write-ahead log.
+     *
+     * @param writeAheadLog The log, or null to stop logging.
+     */
+    public void setWriteAheadLog(FusionWriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    public FusionWriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
     }
 
     public Pose getPoseAtTime(int time) {
-        return posesByTime.get(time);
+        return poses.get(time);
+    }
+
+    /**
+     * Returns the pose of the robot at a given time. If there is no pose for
+     * exactly that time and pose interpolation is on, the pose is interpolated
+     * between the poses before and after it.
+     *
+     * @param time The time of the pose.
+     * @return The pose, or null if it is not known (yet).
+     */
+    public Pose resolvePose(int time) {
+        Pose pose = poses.get(time);
+        if (pose != null || !poseInterpolation) {
+            return pose;
+        }
+        Pose before = poses.getFloor(time);
+        Pose after = poses.getCeiling(time);
+        if (before == null || after == null) {
+            return null;
+        }
+        return interpolate(before, after, time);
+    }
+
+    /**
+     * @param time A time.
+     * @return The known pose of the latest time before {@code time}, or null.
+     */
+    public Pose getPoseBefore(int time) {
+        return poses.getFloor(time - 1);
+    }
+
+    /**
+     * @param time A time.
+     * @return The known pose of the earliest time after {@code time}, or null.
+     */
+    public Pose getPoseAfter(int time) {
+        return time == Integer.MAX_VALUE ? null : poses.getCeiling(time + 1);
+    }
+
+    /**
+     * Returns the known pose closest in time (the earlier one on a tie).
+     *
+     * @param time The time of the pose.
+     * @return The nearest pose, or null if there are no poses at all.
+     */
+    public Pose getNearestPose(int time) {
+        Pose before = poses.getFloor(time);
+        Pose after = poses.getCeiling(time);
+        if (before == null) {
+            return after;
+        }
+        if (after == null || time - before.getTime() <= after.getTime() - time) {
+            return before;
+        }
+        return after;
+    }
+
+    /**
+     * Interpolates the pose at a time between two poses: x and y linearly, the
+     * yaw along the shorter arc between the two angles.
+     *
+     * @pre {@code before.getTime() <= time <= after.getTime()}
+     * @param before The pose before {@code time}.
+     * @param after  The pose after {@code time}.
+     * @param time   The time of the interpolated pose.
+     * @return The interpolated pose.
+     */
+    public static Pose interpolate(Pose before, Pose after, int time) {
+        int span = after.getTime() - before.getTime();
+        if (span <= 0) {
+            return before;
+        }
+        float fraction = (float) (time - before.getTime()) / span;
+        float x = before.getX() + fraction * (after.getX() - before.getX());
+        float y = before.getY() + fraction * (after.getY() - before.getY());
+        float yawDelta = normalizeYaw(after.getYaw() - before.getYaw()); // shortest arc
+        float yaw = normalizeYaw(before.getYaw() + fraction * yawDelta);
+        return new Pose(time, x, y, yaw);
+    }
+
+    /**
+     * @param yaw An angle in degrees.
+     * @return The same angle in [-180, 180).
+     */
+    private static float normalizeYaw(float yaw) {
+        return ((yaw % 360f) + 540f) % 360f - 180f;
+    }
+
+    public double getAssociationGate() {
+        return associationGate;
+    }
+
+    /**
+     * Turns on geometric data association: a tracked object whose id matches no
+     * landmark is merged into the closest landmark within {@code gate}.
+     *
+     * @param gate The largest distance of a match, negative for id matching only.
+     */
+    public void setAssociationGate(double gate) {
+        this.associationGate = gate;
+    }
+
+    public boolean isPoseInterpolation() {
+        return poseInterpolation;
+    }
+
+    public void setPoseInterpolation(boolean poseInterpolation) {
+        this.poseInterpolation = poseInterpolation;
+    }
+
+    public boolean isCompactOutput() {
+        return compactOutput;
+    }
+
+    public void setCompactOutput(boolean compactOutput) {
+        this.compactOutput = compactOutput;
     }
 
     public void setTick(int time) {
         this.tick = time;
+        FusionWriteAheadLog log = writeAheadLog;
+        if (log != null) {
+            log.appendTick(time, StatisticalFolder.getInstance());
+        }
     }
 
     public int getTick() {
         return tick;
     }
 
+    // Add a reset method for testing
+    public synchronized void reset() {
+        synchronized (landmarks) {
+            landmarks.clear();
+            snapshotIndexes.clear();
+            createdSincePublish.clear();
+            snapshot = MapSnapshot.EMPTY;
+            landmarkGrid.clear();
+            occupancyGrid = null;
+        }
+        occupancyOutputFile = null;
+        closeOccupancyUpdates();
+        parallelFusionThreshold = Integer.MAX_VALUE;
+        poseInterpolation = false;
+        associationGate = -1;
+        compactOutput = false;
+        writeAheadLog = null;
+        FusionShards shards = fusionShards;
+        if (shards != null) {
+            shards.shutdown();
+            fusionShards = null;
+        }
+        poses.clear();
+        synchronized (changedLandmarks) {
+            changedLandmarks.clear();
+            changedPoseTicks.clear();
+        }
+        tick = 0;
+    }
+
 }
\ No newline at end of file
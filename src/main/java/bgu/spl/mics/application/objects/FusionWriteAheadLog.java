@@ -0,0 +1,400 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * A binary write-ahead log of the changes to the FusionSlam map: landmark
+ * creations, landmark observations, poses and ticks. Together with the latest
+ * checkpoint (see {@link MapCheckpointer}) it rebuilds the map after a crash.
+ * <p>
+ * Appending only encodes the record into an in-memory buffer. A flusher thread
+ * writes the buffered records to a {@link FileChannel} in batches (group
+ * commit), every {@code flushIntervalMs} or once {@code batchBytes} are
+ * buffered, so a crash loses at most the last unflushed batch.
+ * <p>
+ * The log is split into segments. A new segment starts at every checkpoint, so
+ * the records after a checkpoint are exactly the segments that start at its
+ * tick or later, and the older segments are deleted once the checkpoint is on
+ * disk. Every record is framed with its length and a CRC32, so a torn record at
+ * the end of a segment is detected and ignored on replay.
+ */
+// FusionWriteAheadLog class
+public class FusionWriteAheadLog {
+    private static final Pattern FILE_NAME = Pattern.compile("wal-(\\d+)-(\\d+)\\.log");
+    private static final int HEADER_SIZE = 8; // record length and CRC32
+
+    // Record types
+    private static final byte POSE = 1;
+    private static final byte CREATE_LANDMARK = 2;
+    private static final byte OBSERVATION = 3;
+    private static final byte TICK = 4;
+
+    private final Path directory;
+    private final long flushIntervalMs;
+    private final int batchBytes;
+    private final boolean fsync;
+    private final Object channelLock = new Object(); // taken before the buffer lock (this)
+    private final CRC32 crc = new CRC32(); // used under the buffer lock
+    private final Thread flusher;
+    private ByteBuffer buffer; // records not written yet, guarded by this
+    private ByteBuffer standby; // buffer being written, guarded by channelLock
+    private FileChannel channel; // current segment, guarded by channelLock
+    private int segmentSequence;
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the log and starts a new segment.
+     *
+     * @param directory       The log directory, created if needed.
+     * @param startTick       The tick the first segment starts at.
+     * @param flushIntervalMs The longest time a record waits in memory.
+     * @param batchBytes      The buffered size that triggers a flush.
+     * @param fsync           Whether every batch is forced to the storage device.
+     * @throws IOException If the directory or the segment cannot be created.
+     */
+    public FusionWriteAheadLog(String directory, int startTick, long flushIntervalMs, int batchBytes, boolean fsync)
+            throws IOException {
+        this.directory = Paths.get(directory);
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+        this.batchBytes = Math.max(1024, batchBytes);
+        this.fsync = fsync;
+        this.buffer = ByteBuffer.allocate(this.batchBytes * 2);
+        this.standby = ByteBuffer.allocate(this.batchBytes * 2);
+        Files.createDirectories(this.directory);
+        for (Segment segment : listSegments(this.directory)) {
+            segmentSequence = Math.max(segmentSequence, segment.sequence);
+        }
+        this.channel = openSegment(startTick);
+        this.flusher = new Thread(this::flushLoop, "FusionWriteAheadLog");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public void appendPose(Pose pose) {
+        synchronized (this) {
+            int start = beginRecord(POSE, 16);
+            buffer.putInt(pose.getTime());
+            buffer.putFloat(pose.getX());
+            buffer.putFloat(pose.getY());
+            buffer.putFloat(pose.getYaw());
+            endRecord(start);
+        }
+    }
+
+    public void appendLandmarkCreated(String id, String description, double[] xs, double[] ys, int length) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] descriptionBytes = description.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            int start = beginRecord(CREATE_LANDMARK, 8 + idBytes.length + descriptionBytes.length + 4 + 16 * length);
+            putString(idBytes);
+            putString(descriptionBytes);
+            putPoints(xs, ys, length);
+            endRecord(start);
+        }
+    }
+
+    public void appendObservation(String id, double[] xs, double[] ys, int length) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            int start = beginRecord(OBSERVATION, 4 + idBytes.length + 4 + 16 * length);
+            putString(idBytes);
+            putPoints(xs, ys, length);
+            endRecord(start);
+        }
+    }
+
+    // Records the start of a tick with the statistics at that point
+    public void appendTick(int tick, StatisticalFolder stats) {
+        synchronized (this) {
+            int start = beginRecord(TICK, 20);
+            buffer.putInt(tick);
+            buffer.putInt(stats.getSystemRuntime());
+            buffer.putInt(stats.getNumDetectedObjects());
+            buffer.putInt(stats.getNumTrackedObjects());
+            buffer.putInt(stats.getNumLandmarks());
+            endRecord(start);
+        }
+    }
+
+    /**
+     * Writes the buffered records and starts a new segment at a checkpoint.
+     * Must be called by the thread that fuses, right after the checkpoint delta
+     * was taken, so every later record is in the new segment.
+     *
+     * @param tick The tick of the checkpoint.
+     */
+    public void startSegment(int tick) {
+        synchronized (channelLock) {
+            try {
+                writeBuffered();
+                channel.close();
+                channel = openSegment(tick);
+            } catch (IOException e) {
+                System.out.println("FusionWriteAheadLog: failed to start a segment at tick " + tick + ": "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments that start before a checkpoint that is on disk.
+     *
+     * @param tick The tick of the checkpoint.
+     */
+    public void deleteSegmentsBefore(int tick) {
+        try {
+            for (Segment segment : listSegments(directory)) {
+                if (segment.startTick < tick) {
+                    Files.deleteIfExists(segment.path);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("FusionWriteAheadLog: failed to delete old segments: " + e.getMessage());
+        }
+    }
+
+    // Writes the buffered records and closes the log
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll(); // an interrupt would close the channel in the middle of a write
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (channelLock) {
+            try {
+                writeBuffered();
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("FusionWriteAheadLog: failed to close: " + e.getMessage());
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            synchronized (this) {
+                if (buffer.position() < batchBytes) {
+                    try {
+                        wait(flushIntervalMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return; // close() writes what is left
+                    }
+                }
+            }
+            synchronized (channelLock) {
+                try {
+                    writeBuffered();
+                } catch (IOException e) {
+                    System.out.println("FusionWriteAheadLog: failed to write a batch: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Swaps the buffers and writes the records to the current segment, under channelLock
+    private void writeBuffered() throws IOException {
+        synchronized (this) {
+            if (buffer.position() == 0) {
+                return;
+            }
+            ByteBuffer full = buffer;
+            buffer = standby;
+            standby = full;
+        }
+        standby.flip();
+        while (standby.hasRemaining()) {
+            channel.write(standby);
+        }
+        standby.clear();
+        if (fsync) {
+            channel.force(false);
+        }
+    }
+
+    private FileChannel openSegment(int startTick) throws IOException {
+        segmentSequence++;
+        Path path = directory.resolve(String.format("wal-%08d-%06d.log", Math.max(0, startTick), segmentSequence));
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    // Reserves room for the record header, the caller holds the buffer lock
+    private int beginRecord(byte type, int payloadSize) {
+        int needed = HEADER_SIZE + 1 + payloadSize;
+        if (buffer.remaining() < needed) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        int start = buffer.position();
+        buffer.position(start + HEADER_SIZE);
+        buffer.put(type);
+        return start;
+    }
+
+    // Fills in the length and checksum of the record and wakes the flusher for a full batch
+    private void endRecord(int start) {
+        int end = buffer.position();
+        int payloadStart = start + HEADER_SIZE;
+        crc.reset();
+        crc.update(buffer.array(), payloadStart, end - payloadStart);
+        buffer.putInt(start, end - payloadStart);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        if (end >= batchBytes) {
+            notifyAll();
+        }
+    }
+
+    private void putString(byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putPoints(double[] xs, double[] ys, int length) {
+        buffer.putInt(length);
+        for (int i = 0; i < length; i++) {
+            buffer.putDouble(xs[i]);
+            buffer.putDouble(ys[i]);
+        }
+    }
+
+    /**
+     * Replays the records logged after a checkpoint into the map. Replayed
+     * changes are part of the next checkpoint delta.
+     *
+     * @param directory      The log directory.
+     * @param checkpointTick The tick of the restored checkpoint, 0 if there is
+     *                       none.
+     * @param fusionSlam     The map, already restored from the checkpoint.
+     * @return The last tick found in the log, or {@code checkpointTick} if there
+     *         is none.
+     * @throws IOException If a segment cannot be read.
+     */
+    public static int replay(String directory, int checkpointTick, FusionSlam fusionSlam) throws IOException {
+        Path path = Paths.get(directory);
+        int lastTick = checkpointTick;
+        if (!Files.isDirectory(path)) {
+            return lastTick;
+        }
+        for (Segment segment : listSegments(path)) {
+            if (segment.startTick >= checkpointTick) {
+                lastTick = Math.max(lastTick, replaySegment(segment.path, fusionSlam));
+            }
+        }
+        return lastTick;
+    }
+
+    private static int replaySegment(Path path, FusionSlam fusionSlam) throws IOException {
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 checksum = new CRC32();
+        int lastTick = 0;
+        while (records.remaining() >= HEADER_SIZE) {
+            int length = records.getInt();
+            int expectedCrc = records.getInt();
+            if (length <= 0 || length > records.remaining()) {
+                break; // torn record at the end of the segment
+            }
+            checksum.reset();
+            checksum.update(records.array(), records.position(), length);
+            if ((int) checksum.getValue() != expectedCrc) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(records.array(), records.position(), length).slice();
+            records.position(records.position() + length);
+            try {
+                lastTick = Math.max(lastTick, apply(record, fusionSlam));
+            } catch (BufferUnderflowException e) {
+                break;
+            }
+        }
+        return lastTick;
+    }
+
+    // Applies a single record, returns its tick if it is a tick record and 0 otherwise
+    private static int apply(ByteBuffer record, FusionSlam fusionSlam) {
+        byte type = record.get();
+        if (type == POSE) {
+            fusionSlam.addPose(new Pose(record.getInt(), record.getFloat(), record.getFloat(), record.getFloat()));
+        } else if (type == CREATE_LANDMARK) {
+            String id = getString(record);
+            String description = getString(record);
+            double[][] points = getPoints(record);
+            fusionSlam.replayLandmark(new LandMark(id, description, points[0], points[1], points[0].length));
+        } else if (type == OBSERVATION) {
+            String id = getString(record);
+            double[][] points = getPoints(record);
+            fusionSlam.replayObservation(id, points[0], points[1], points[0].length);
+        } else if (type == TICK) {
+            int tick = record.getInt();
+            StatisticalFolder.getInstance().restore(record.getInt(), record.getInt(), record.getInt(),
+                    record.getInt());
+            return tick;
+        }
+        return 0;
+    }
+
+    private static String getString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static double[][] getPoints(ByteBuffer record) {
+        int length = record.getInt();
+        double[][] points = new double[2][length];
+        for (int i = 0; i < length; i++) {
+            points[0][i] = record.getDouble();
+            points[1][i] = record.getDouble();
+        }
+        return points;
+    }
+
+    // The segments of a log directory, in the order they were written
+    private static List<Segment> listSegments(Path directory) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.add(new Segment(file, Integer.parseInt(matcher.group(1)),
+                            Integer.parseInt(matcher.group(2))));
+                }
+            }
+        }
+        segments.sort((first, second) -> Integer.compare(first.sequence, second.sequence));
+        return segments;
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final int startTick;
+        private final int sequence;
+
+        private Segment(Path path, int startTick, int sequence) {
+            this.path = path;
+            this.startTick = startTick;
+            this.sequence = sequence;
+        }
+    }
+}
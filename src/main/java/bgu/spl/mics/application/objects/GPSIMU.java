@@ -1,8 +1,8 @@
 package bgu.spl.mics.application.objects;
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,14 +19,22 @@ public class GPSIMU {
     private int currTick;
     private STATUS status;
     private List<Pose> poseList;
-    private int maxTime;
+    private TickIndex<Pose> posesByTick; // poseList indexed by time
+    private volatile int maxTime; // set when a live GPS/IMU stream closes
+    private int lastPoseTime; // live only: time of the last appended pose
 
     public GPSIMU(List<Pose> poseList, int maxTime) { // Constructor for main class
         this.currTick = 0;
         this.status = STATUS.UP; // Default status
-        this.poseList = poseList;
+        this.poseList = poseList != null ? poseList : new ArrayList<>();
+        this.posesByTick = new TickIndex<>(this.poseList, Pose::getTime);
         this.maxTime = maxTime; // Calculate the maximum time
     }
+
+    // Constructor for a live GPS/IMU, poses are appended while the service runs
+    public GPSIMU() {
+        this(new ArrayList<>(), Integer.MAX_VALUE);
+    }
     // -------------chack if okay to delete this constructor----------------
     // public GPSIMU(String filePath) {
     // this.currTick = 0;
@@ -60,27 +68,32 @@ public class GPSIMU {
 
     public Pose getPoseAtTime() {
         updateStatusBasedOnTime();
-        for (Pose pose : poseList) {
-            if (pose.getTime() == this.currTick) {
-                return pose;
-            }
-        }
-        return null;
+        return posesByTick.get(this.currTick);
     }
 
     public Pose getPoseAtTime(int time) {
-        for (Pose pose : poseList) {
-            if (pose.getTime() == time) {
-                return pose;
-            }
-        }
-        return null;
+        return posesByTick.get(time);
+    }
+
+    /**
+     * Appends a pose read from a live stream. Poses arrive in time order.
+     *
+     * @param pose The next pose.
+     */
+    public void appendPose(Pose pose) {
+        posesByTick.append(pose, pose.getTime());
+        lastPoseTime = Math.max(lastPoseTime, pose.getTime());
+    }
+
+    // Called when the live stream closed, the GPS/IMU finishes after its last pose
+    public void finishPoses() {
+        this.maxTime = lastPoseTime;
     }
 
     public List<Pose> loadPosesFromFile(String filePath) {
-        try (FileReader reader = new FileReader(filePath)) {
+        try (Reader reader = InputFiles.openReader(filePath)) {
             System.out.println("pose attempting to read file: " + new File(filePath).getAbsolutePath());
-            Gson gson = new Gson();
+            Gson gson = SensorTypeAdapters.createGson();
             List<Pose> data = gson.fromJson(reader, new TypeToken<List<Pose>>() {
             }.getType());
             System.out.println("pose loaded " + data.size() + " detected objects.");
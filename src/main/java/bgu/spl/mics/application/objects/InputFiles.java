@@ -0,0 +1,50 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens the input files of the simulation (configuration, camera data, LiDAR
+ * data and poses). A file whose name ends with ".gz" is decompressed while it
+ * is read, so compressed recordings do not have to be unpacked to disk first.
+ */
+// InputFiles class
+public final class InputFiles {
+    // Large buffers, the input files are read once from start to end
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final int READER_BUFFER_SIZE = 64 * 1024;
+
+    private InputFiles() {
+    }
+
+    /**
+     * Opens a UTF-8 text file for reading, decompressing it if it is gzipped.
+     *
+     * @param filePath The file to open.
+     * @return A buffered reader over the (decompressed) file content.
+     * @throws IOException If the file cannot be opened or is not valid gzip.
+     */
+    public static Reader openReader(String filePath) throws IOException {
+        InputStream in = new FileInputStream(filePath);
+        try {
+            if (isGzipped(filePath)) {
+                in = new GZIPInputStream(in, GZIP_BUFFER_SIZE);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), READER_BUFFER_SIZE);
+    }
+
+    public static boolean isGzipped(String filePath) {
+        return filePath.toLowerCase(Locale.ROOT).endsWith(".gz");
+    }
+}
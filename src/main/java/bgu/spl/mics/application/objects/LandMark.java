@@ -1,23 +1,61 @@
 package bgu.spl.mics.application.objects;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Represents a landmark in the environment map.
  * Landmarks are identified and updated by the FusionSlam service.
+ * <p>
+ * Every point of the landmark is the running mean of all the observations of
+ * that point, so each observation carries the same weight. The means and the
+ * observation counts are kept in primitive arrays and updated in place; an
+ * update only allocates when the landmark gains points.
+ * Methods are synchronized on the landmark.
  */
 // landmark class
 public class LandMark {
     private String id; // The ID of the landmark
     private String description; // Description of the landmark
-    private List<CloudPoint> coordinates; // List of coordinates representing the landmark
+    private double[] xs; // running mean of the x coordinate of each point
+    private double[] ys; // running mean of the y coordinate of each point
+    private int[] counts; // number of observations of each point
+    private int numPoints;
 
     // Constructor to initialize the LandMark object
     public LandMark(String id, String description, List<CloudPoint> coordinates) {
         this.id = id;
         this.description = description;
-        this.coordinates = coordinates;
+        setCoordinates(coordinates);
+    }
+
+    /**
+     * Creates a landmark from its first observation.
+     *
+     * @param xs     The x coordinates of the points (copied).
+     * @param ys     The y coordinates of the points (copied).
+     * @param length The number of points.
+     */
+    public LandMark(String id, String description, double[] xs, double[] ys, int length) {
+        this.id = id;
+        this.description = description;
+        this.xs = Arrays.copyOf(xs, length);
+        this.ys = Arrays.copyOf(ys, length);
+        this.counts = new int[length];
+        Arrays.fill(counts, 1);
+        this.numPoints = length;
+    }
+
+    /**
+     * Creates a landmark with the given running means, e.g. one restored from a
+     * checkpoint.
+     *
+     * @param counts The number of observations of each point (copied).
+     */
+    public LandMark(String id, String description, double[] xs, double[] ys, int[] counts, int length) {
+        this(id, description, xs, ys, length);
+        this.counts = Arrays.copyOf(counts, length);
     }
 
     // Getters and Setters
@@ -31,24 +69,95 @@ public class LandMark {
         return id;
     }
 
-    // Set the coordinates of the landmark
-    public void setCoordinates(List<CloudPoint> coordinates) {
-        this.coordinates = new ArrayList<>(coordinates);
+    // Set the coordinates of the landmark, each point counts as a single observation
+    public synchronized void setCoordinates(List<CloudPoint> coordinates) {
+        int size = coordinates.size();
+        this.xs = new double[size];
+        this.ys = new double[size];
+        this.counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = coordinates.get(i).getX();
+            ys[i] = coordinates.get(i).getY();
+            counts[i] = 1;
+        }
+        this.numPoints = size;
+    }
+
+    /**
+     * Adds an observation of the landmark. Point i of the observation updates the
+     * running mean of point i; points beyond the current ones are added as new
+     * points.
+     *
+     * @param obsXs  The x coordinates of the observed points.
+     * @param obsYs  The y coordinates of the observed points.
+     * @param length The number of observed points.
+     */
+    public synchronized void addObservation(double[] obsXs, double[] obsYs, int length) {
+        int shared = Math.min(numPoints, length);
+        for (int i = 0; i < shared; i++) {
+            int count = ++counts[i];
+            xs[i] += (obsXs[i] - xs[i]) / count;
+            ys[i] += (obsYs[i] - ys[i]) / count;
+        }
+        if (length > numPoints) {
+            ensureCapacity(length);
+            for (int i = numPoints; i < length; i++) {
+                xs[i] = obsXs[i];
+                ys[i] = obsYs[i];
+                counts[i] = 1;
+            }
+            numPoints = length;
+        }
     }
 
-    // Get the coordinates of the landmark
-    public List<CloudPoint> getCoordinates() {
+    // Get the coordinates of the landmark (a copy)
+    public synchronized List<CloudPoint> getCoordinates() {
+        List<CloudPoint> coordinates = new ArrayList<>(numPoints);
+        for (int i = 0; i < numPoints; i++) {
+            coordinates.add(new CloudPoint(xs[i], ys[i]));
+        }
         return coordinates;
     }
 
+    public synchronized int getNumPoints() {
+        return numPoints;
+    }
+
+    public synchronized double getX(int index) {
+        return xs[index];
+    }
+
+    public synchronized double getY(int index) {
+        return ys[index];
+    }
+
+    // Get the number of observations of a point
+    public synchronized int getObservationCount(int index) {
+        return counts[index];
+    }
+
     // Add a CloudPoint to the list of coordinates
-    public void addCoordinate(CloudPoint coordinate) {
-        this.coordinates.add(coordinate);
+    public synchronized void addCoordinate(CloudPoint coordinate) {
+        ensureCapacity(numPoints + 1);
+        xs[numPoints] = coordinate.getX();
+        ys[numPoints] = coordinate.getY();
+        counts[numPoints] = 1;
+        numPoints++;
         StatisticalFolder.getInstance().updateNumLandmarks(1); // Update the number of landmarks in stsistics
     }
 
+    private void ensureCapacity(int capacity) {
+        if (capacity > xs.length) {
+            int grown = Math.max(capacity, xs.length * 2);
+            xs = Arrays.copyOf(xs, grown);
+            ys = Arrays.copyOf(ys, grown);
+            counts = Arrays.copyOf(counts, grown);
+        }
+    }
+
     @Override
     public String toString() {
-        return String.format("{\"id\":\"%s\",\"description\":\"%s\",\"coordinates\":%s}", id, description, coordinates);
+        return String.format("{\"id\":\"%s\",\"description\":\"%s\",\"coordinates\":%s}", id, description,
+                getCoordinates());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,217 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A uniform grid over the points of the landmarks, used to find the landmarks
+ * around a position without scanning the whole map.
+ * <p>
+ * Every landmark is registered in each cell that holds at least one of its
+ * points, and is re-registered whenever its coordinates change. The distance
+ * of a landmark from a position is the distance of its closest point.
+ * All methods are synchronized. The grid locks a landmark while reading its
+ * points, so it must not be called while holding a landmark's lock.
+ */
+// LandmarkGrid class
+public class LandmarkGrid {
+    private final double cellSize;
+    private final Map<Long, Set<LandMark>> cells = new HashMap<>(); // cell key -> landmarks with a point in it
+    private final Map<LandMark, Set<Long>> cellsOf = new IdentityHashMap<>(); // landmark -> its cells
+    private int withPoints = 0; // landmarks registered in at least one cell
+    // Bounds of the cells ever used, they limit how far a nearest search looks
+    private int minCellX = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+
+    /**
+     * @param cellSize The side of a grid cell, in map units.
+     */
+    public LandmarkGrid(double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Adds a landmark, or re-indexes it after its coordinates changed.
+     *
+     * @param landmark The landmark to index.
+     */
+    public synchronized void update(LandMark landmark) {
+        remove(landmark);
+        Set<Long> keys = new HashSet<>();
+        synchronized (landmark) { // read a consistent set of points
+            for (int i = 0; i < landmark.getNumPoints(); i++) {
+                int cellX = cellOf(landmark.getX(i));
+                int cellY = cellOf(landmark.getY(i));
+                if (keys.add(key(cellX, cellY))) {
+                    cells.computeIfAbsent(key(cellX, cellY), k -> new HashSet<>()).add(landmark);
+                    minCellX = Math.min(minCellX, cellX);
+                    maxCellX = Math.max(maxCellX, cellX);
+                    minCellY = Math.min(minCellY, cellY);
+                    maxCellY = Math.max(maxCellY, cellY);
+                }
+            }
+        }
+        cellsOf.put(landmark, keys);
+        if (!keys.isEmpty()) {
+            withPoints++;
+        }
+    }
+
+    public synchronized void remove(LandMark landmark) {
+        removeFromCells(landmark);
+        Set<Long> keys = cellsOf.remove(landmark);
+        if (keys != null && !keys.isEmpty()) {
+            withPoints--;
+        }
+    }
+
+    /**
+     * Finds the landmarks that have a point within {@code radius} of a position.
+     *
+     * @param x      The x coordinate of the position.
+     * @param y      The y coordinate of the position.
+     * @param radius The search radius.
+     * @return The landmarks in range, closest first.
+     */
+    public synchronized List<LandMark> queryRange(double x, double y, double radius) {
+        Map<LandMark, Double> distances = new IdentityHashMap<>();
+        // Only the cells that overlap both the search square and the used cells
+        int fromX = Math.max(cellOf(x - radius), minCellX);
+        int toX = Math.min(cellOf(x + radius), maxCellX);
+        int fromY = Math.max(cellOf(y - radius), minCellY);
+        int toY = Math.min(cellOf(y + radius), maxCellY);
+        for (int cellX = fromX; cellX <= toX; cellX++) {
+            for (int cellY = fromY; cellY <= toY; cellY++) {
+                collect(cellX, cellY, x, y, distances);
+            }
+        }
+        List<LandMark> result = new ArrayList<>();
+        for (Map.Entry<LandMark, Double> entry : distances.entrySet()) {
+            if (entry.getValue() <= radius) {
+                result.add(entry.getKey());
+            }
+        }
+        result.sort(Comparator.comparingDouble(distances::get));
+        return result;
+    }
+
+    /**
+     * Finds the {@code k} landmarks closest to a position. The search visits the
+     * cells in rings around the position and stops once no unvisited cell can
+     * hold a closer landmark.
+     *
+     * @param x The x coordinate of the position.
+     * @param y The y coordinate of the position.
+     * @param k The number of landmarks to return.
+     * @return Up to {@code k} landmarks, closest first.
+     */
+    public synchronized List<LandMark> queryNearest(double x, double y, int k) {
+        List<LandMark> result = new ArrayList<>();
+        if (k <= 0 || cells.isEmpty()) {
+            return result;
+        }
+        int centerX = cellOf(x);
+        int centerY = cellOf(y);
+        // Beyond this ring there are no cells with landmarks, the bounds are set once a cell is used
+        int lastRing = Math.max(Math.max(Math.abs(centerX - minCellX), Math.abs(maxCellX - centerX)),
+                Math.max(Math.abs(centerY - minCellY), Math.abs(maxCellY - centerY)));
+        Map<LandMark, Double> distances = new IdentityHashMap<>();
+        for (int ring = 0; ring <= lastRing; ring++) {
+            for (int cellX = centerX - ring; cellX <= centerX + ring; cellX++) {
+                boolean edgeColumn = cellX == centerX - ring || cellX == centerX + ring;
+                for (int cellY = centerY - ring; cellY <= centerY + ring; cellY++) {
+                    if (edgeColumn || cellY == centerY - ring || cellY == centerY + ring) {
+                        collect(cellX, cellY, x, y, distances);
+                    }
+                }
+            }
+            // Any point outside the visited rings is at least ring * cellSize away
+            if (distances.size() >= k && kthSmallest(distances, k) <= ring * cellSize) {
+                break;
+            }
+            if (distances.size() == withPoints) {
+                break; // every landmark with a point was seen
+            }
+        }
+        result.addAll(distances.keySet());
+        result.sort(Comparator.comparingDouble(distances::get));
+        return new ArrayList<>(result.subList(0, Math.min(k, result.size())));
+    }
+
+    public synchronized int size() {
+        return cellsOf.size();
+    }
+
+    public synchronized void clear() {
+        cells.clear();
+        cellsOf.clear();
+        withPoints = 0;
+        minCellX = Integer.MAX_VALUE;
+        maxCellX = Integer.MIN_VALUE;
+        minCellY = Integer.MAX_VALUE;
+        maxCellY = Integer.MIN_VALUE;
+    }
+
+    // Returns the distance from a position to the closest point of a landmark
+    public static double distance(LandMark landmark, double x, double y) {
+        double best = Double.POSITIVE_INFINITY;
+        synchronized (landmark) {
+            for (int i = 0; i < landmark.getNumPoints(); i++) {
+                double dx = landmark.getX(i) - x;
+                double dy = landmark.getY(i) - y;
+                best = Math.min(best, dx * dx + dy * dy);
+            }
+        }
+        return Math.sqrt(best);
+    }
+
+    private void collect(int cellX, int cellY, double x, double y, Map<LandMark, Double> distances) {
+        Set<LandMark> inCell = cells.get(key(cellX, cellY));
+        if (inCell != null) {
+            for (LandMark landmark : inCell) {
+                distances.computeIfAbsent(landmark, l -> distance(l, x, y));
+            }
+        }
+    }
+
+    private static double kthSmallest(Map<LandMark, Double> distances, int k) {
+        List<Double> values = new ArrayList<>(distances.values());
+        values.sort(null);
+        return values.get(k - 1);
+    }
+
+    private void removeFromCells(LandMark landmark) {
+        Set<Long> keys = cellsOf.get(landmark);
+        if (keys == null) {
+            return;
+        }
+        for (Long key : keys) {
+            Set<LandMark> inCell = cells.get(key);
+            if (inCell != null) {
+                inCell.remove(landmark);
+                if (inCell.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    private int cellOf(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
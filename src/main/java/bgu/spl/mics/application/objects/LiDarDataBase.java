@@ -2,16 +2,26 @@ package bgu.spl.mics.application.objects;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * LiDarDataBase is a singleton class responsible for managing LiDAR data.
  * It provides access to cloud point data and other relevant information for
  * tracked objects.
+ * <p>
+ * Besides the shared singleton, a LiDAR worker may own a private data base,
+ * loaded from its own data file (see {@link #load(String)}) or a partition of
+ * a shared file (see {@link #partition(int)}), with its own index and
+ * completion counter. A live data base (see {@link #live()}) starts empty and
+ * receives its records while the run is going.
  */
 // LiDarDataBase class
 public class LiDarDataBase {
@@ -19,18 +29,41 @@ public class LiDarDataBase {
     // fields
     private List<StampedCloudPoints> cloudPoints;
     private AtomicInteger counter = new AtomicInteger(0);
+    private FaultSchedule faultSchedule; // ticks of the "ERROR" records
+    private Map<Integer, Map<String, StampedCloudPoints>> cloudPointsByTime; // time -> object id -> record
+    private volatile boolean complete; // no more records will be added
 
     // Constructor to initialize the LiDarDataBase object.
     private LiDarDataBase(String filePath) {
-        this.cloudPoints = loadDataFromFile(filePath);
+        this(loadDataFromFile(filePath));
+    }
+
+    // Constructor for a data base of the given records
+    private LiDarDataBase(List<StampedCloudPoints> cloudPoints) {
+        this.cloudPoints = cloudPoints;
         this.counter.set(cloudPoints.size());
+        this.faultSchedule = FaultSchedule.fromCloudPoints(cloudPoints);
+        this.cloudPointsByTime = new HashMap<>();
+        for (StampedCloudPoints stampedCloudPoints : cloudPoints) {
+            cloudPointsByTime.computeIfAbsent(stampedCloudPoints.getTime(), time -> new HashMap<>())
+                    .putIfAbsent(stampedCloudPoints.getId(), stampedCloudPoints); // keep the first record
+        }
+        this.complete = true;
+    }
+
+    // Constructor for a live data base, records are appended while the workers run
+    private LiDarDataBase() {
+        this.cloudPoints = Collections.synchronizedList(new ArrayList<>());
+        this.faultSchedule = new FaultSchedule();
+        this.cloudPointsByTime = new ConcurrentHashMap<>();
+        this.complete = false;
     }
 
     // Singleton Holder implementation as shown in class
     private static class SingletonHolderLiDarDataBase {
         private static LiDarDataBase INSTANCE = null;
 
-        private static LiDarDataBase LiDarDataBasecreatInstance(String filePath) {
+        private static synchronized LiDarDataBase LiDarDataBasecreatInstance(String filePath) {
             if (INSTANCE == null) {
                 INSTANCE = new LiDarDataBase(filePath);
             }
@@ -38,10 +71,6 @@ public class LiDarDataBase {
         }
     }
 
-    public static LiDarDataBase getInstance(String filePath) {
-        return SingletonHolderLiDarDataBase.LiDarDataBasecreatInstance(filePath);
-    }
-
     /**
      * Returns the singleton instance of LiDarDataBase.
      * Initializes it with the provided file path if not already initialized.
@@ -49,10 +78,106 @@ public class LiDarDataBase {
      * @param filePath The file path to initialize the LiDarDataBase.
      * @return The LiDarDataBase instance.
      */
+    public static LiDarDataBase getInstance(String filePath) {
+        return SingletonHolderLiDarDataBase.LiDarDataBasecreatInstance(filePath);
+    }
+
+    /**
+     * Loads a private LiDarDataBase that is not shared with other workers.
+     *
+     * @param filePath The LiDAR data file of a single worker.
+     * @return A new LiDarDataBase instance with its own counter.
+     */
+    public static LiDarDataBase load(String filePath) {
+        return new LiDarDataBase(filePath);
+    }
+
+    /**
+     * Splits the records of this data base into private data bases, one per
+     * worker. The records of an object all go to the same part, chosen by its
+     * id (see {@link #partitionOf(String, int)}); the "ERROR" records go to
+     * every part, so every worker sees the faults.
+     *
+     * @param parts The number of parts.
+     * @return The parts, each with its own index and counter.
+     */
+    public List<LiDarDataBase> partition(int parts) {
+        List<List<StampedCloudPoints>> records = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            records.add(new ArrayList<>());
+        }
+        for (StampedCloudPoints stampedCloudPoints : cloudPoints) {
+            if (FaultSchedule.ERROR_ID.equals(stampedCloudPoints.getId())) {
+                for (List<StampedCloudPoints> part : records) {
+                    part.add(stampedCloudPoints);
+                }
+            } else {
+                records.get(partitionOf(stampedCloudPoints.getId(), parts)).add(stampedCloudPoints);
+            }
+        }
+        List<LiDarDataBase> partitions = new ArrayList<>();
+        for (List<StampedCloudPoints> part : records) {
+            partitions.add(new LiDarDataBase(part));
+        }
+        return partitions;
+    }
+
+    /**
+     * Appends a live record to the part that owns its object, or to every part
+     * for an "ERROR" record, like {@link #partition(int)}.
+     *
+     * @param partitions         The live parts of a shared file.
+     * @param stampedCloudPoints The next LiDAR record.
+     */
+    public static void appendToPartition(List<LiDarDataBase> partitions, StampedCloudPoints stampedCloudPoints) {
+        if (FaultSchedule.ERROR_ID.equals(stampedCloudPoints.getId())) {
+            for (LiDarDataBase partition : partitions) {
+                partition.append(stampedCloudPoints);
+            }
+        } else {
+            partitions.get(partitionOf(stampedCloudPoints.getId(), partitions.size())).append(stampedCloudPoints);
+        }
+    }
+
+    // The part that owns the records of an object
+    public static int partitionOf(String id, int parts) {
+        return Math.floorMod(id == null ? 0 : id.hashCode(), parts);
+    }
+
+    /**
+     * Creates an empty data base that is filled by a live stream.
+     *
+     * @return A new LiDarDataBase instance, complete once {@link #markComplete()}
+     *         is called.
+     */
+    public static LiDarDataBase live() {
+        return new LiDarDataBase();
+    }
+
+    /**
+     * Appends a record read from a live stream.
+     *
+     * @param stampedCloudPoints The next LiDAR record.
+     */
+    public void append(StampedCloudPoints stampedCloudPoints) {
+        cloudPoints.add(stampedCloudPoints);
+        faultSchedule.addFaultOf(stampedCloudPoints);
+        cloudPointsByTime.computeIfAbsent(stampedCloudPoints.getTime(), time -> new ConcurrentHashMap<>())
+                .putIfAbsent(stampedCloudPoints.getId(), stampedCloudPoints);
+        counter.incrementAndGet();
+    }
+
+    public void markComplete() {
+        this.complete = true;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
 
-    private List<StampedCloudPoints> loadDataFromFile(String filePath) {
-        try (FileReader reader = new FileReader(filePath)) {
-            Gson gson = new Gson();
+    private static List<StampedCloudPoints> loadDataFromFile(String filePath) {
+        try (Reader reader = InputFiles.openReader(filePath)) {
+            Gson gson = SensorTypeAdapters.createGson();
             return gson.fromJson(reader, new TypeToken<List<StampedCloudPoints>>() {
             }.getType());
         } catch (IOException e) {
@@ -71,4 +196,20 @@ public class LiDarDataBase {
     public List<StampedCloudPoints> getCloudPoints() {
         return cloudPoints;
     }
+
+    /**
+     * Finds the cloud points of an object at a given time.
+     *
+     * @param id   The ID of the object.
+     * @param time The time the object was detected.
+     * @return The matching record, or null if there is none.
+     */
+    public StampedCloudPoints getCloudPointsAt(String id, int time) {
+        Map<String, StampedCloudPoints> recordsAtTime = cloudPointsByTime.get(time);
+        return recordsAtTime != null ? recordsAtTime.get(id) : null;
+    }
+
+    public FaultSchedule getFaultSchedule() {
+        return faultSchedule;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which LiDAR worker tracks each detected object when the workers own
+ * their data (their own data file or a partition of a shared one).
+ * <p>
+ * A camera frame is split by owner: an object goes to the worker whose data
+ * base has its record at the detection time. The objects no worker owns go
+ * round-robin to the workers that share the singleton data base, or to all
+ * the workers if none shares it. A worker whose data has a fault at the time
+ * of the frame gets a part, possibly empty, so it sees the fault. The workers
+ * are added before the services start and the router is only read afterwards.
+ */
+// LiDarRouter class
+public class LiDarRouter {
+    private final List<String> owners = new ArrayList<>(); // names of the workers with their own data
+    private final List<LiDarDataBase> ownedData = new ArrayList<>();
+    private final List<String> sharing = new ArrayList<>(); // names of the workers sharing the singleton
+    private final AtomicInteger nextShared = new AtomicInteger(0);
+
+    // Adds a worker that owns the records of its data base
+    public void addOwner(String workerName, LiDarDataBase dataBase) {
+        owners.add(workerName);
+        ownedData.add(dataBase);
+    }
+
+    // Adds a worker that shares the singleton data base with other workers
+    public void addSharing(String workerName) {
+        sharing.add(workerName);
+    }
+
+    /**
+     * Splits a camera frame by the worker that should track each object.
+     *
+     * @param frame The detected objects of one camera frame.
+     * @return The part of the frame of each worker, by worker name, in the
+     *         order the workers were added; a worker with no object is left out.
+     */
+    public Map<String, StampedDetectedObject> route(StampedDetectedObject frame) {
+        Map<String, StampedDetectedObject> parts = new LinkedHashMap<>();
+        for (String owner : owners) {
+            parts.put(owner, null); // keeps the order of the workers
+        }
+        String unowned = null; // the whole frame's unowned objects go to one worker
+        for (DetectedObject detectedObject : frame.getDetectedObjects()) {
+            String worker = ownerOf(detectedObject.getId(), frame.getTime());
+            if (worker == null) {
+                if (unowned == null) {
+                    unowned = nextSharedWorker();
+                }
+                worker = unowned;
+            }
+            StampedDetectedObject part = parts.get(worker);
+            if (part == null) {
+                part = new StampedDetectedObject(frame.getTime(), new ArrayList<>(), frame.getCameraKey());
+                parts.put(worker, part);
+            }
+            part.addDetectedObject(detectedObject);
+        }
+        for (int i = 0; i < owners.size(); i++) {
+            // a worker with a fault at this time gets the frame, even with no object, to see the fault
+            if (parts.get(owners.get(i)) == null && ownedData.get(i).getFaultSchedule().isFaultAt(frame.getTime())) {
+                parts.put(owners.get(i), new StampedDetectedObject(frame.getTime(), new ArrayList<>(),
+                        frame.getCameraKey()));
+            }
+        }
+        parts.values().removeIf(part -> part == null);
+        return parts;
+    }
+
+    private String ownerOf(String id, int time) {
+        for (int i = 0; i < owners.size(); i++) {
+            if (ownedData.get(i).getCloudPointsAt(id, time) != null) {
+                return owners.get(i);
+            }
+        }
+        return null;
+    }
+
+    private String nextSharedWorker() {
+        List<String> pool = sharing.isEmpty() ? owners : sharing;
+        return pool.get(Math.floorMod(nextShared.getAndIncrement(), pool.size()));
+    }
+
+    public boolean hasOwners() {
+        return !owners.isEmpty();
+    }
+
+    public int getNumberOfWorkers() {
+        return owners.size() + sharing.size();
+    }
+}
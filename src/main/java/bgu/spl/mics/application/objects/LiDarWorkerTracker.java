@@ -1,8 +1,9 @@
 package bgu.spl.mics.application.objects;
 
 import java.util.ArrayList;
-
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * Represents a LiDar worker on the robot.
@@ -14,10 +15,12 @@ public class LiDarWorkerTracker {
     private int id;
     private int frequency;
     private STATUS status;
-    private List<TrackedObject> lastTrackedObjects;
+    private volatile List<TrackedObject> lastTrackedObjects; // also set by the thread that sends the events
     private LiDarDataBase liDarDataBase; // Instance of LiDarDataBase
     private int currentTick = 0;
     private int maxTime;
+    private FaultSchedule faultSchedule; // faults declared for this worker only
+    private volatile int parallelTrackingThreshold = Integer.MAX_VALUE; // smallest frame tracked in parallel
 
     // Constructor to initialize the LiDarWorkerTracker object.
 
@@ -32,12 +35,18 @@ public class LiDarWorkerTracker {
     // }
 
     public LiDarWorkerTracker(int id, int frequency, String lidarDataFilePath, int maxTime) {
+        this(id, frequency, LiDarDataBase.getInstance(lidarDataFilePath), maxTime);
+    }
+
+    // Constructor for a worker with its own (not necessarily shared) LiDAR data base
+    public LiDarWorkerTracker(int id, int frequency, LiDarDataBase liDarDataBase, int maxTime) {
         this.id = id;
         this.frequency = frequency;
         this.status = STATUS.UP;
         this.lastTrackedObjects = new ArrayList<>();
-        this.liDarDataBase = LiDarDataBase.getInstance(lidarDataFilePath);
+        this.liDarDataBase = liDarDataBase;
         this.maxTime = maxTime;
+        this.faultSchedule = new FaultSchedule();
     }
 
     public int getFrequency() {
@@ -79,36 +88,72 @@ public class LiDarWorkerTracker {
         return liDarDataBase.getCloudPoints();
     }
 
+    public int getParallelTrackingThreshold() {
+        return parallelTrackingThreshold;
+    }
+
+    /**
+     * Sets the smallest number of detected objects in a frame that is tracked
+     * in parallel.
+     *
+     * @param parallelTrackingThreshold The threshold, Integer.MAX_VALUE to always
+     *                                  track serially.
+     */
+    public void setParallelTrackingThreshold(int parallelTrackingThreshold) {
+        this.parallelTrackingThreshold = Math.max(1, parallelTrackingThreshold);
+    }
+
+    public FaultSchedule getFaultSchedule() {
+        return faultSchedule;
+    }
+
     public void checkForErrorInCloudPointsAtTime(int time) {
-        List<StampedCloudPoints> cloudPointsList = liDarDataBase.getCloudPoints();
-        for (StampedCloudPoints stampedCloudPoints : cloudPointsList) {
-            if ("ERROR".equals(stampedCloudPoints.getId()) && stampedCloudPoints.getTime() == time) {
-                setStatus(STATUS.ERROR);
-                break;
-            }
+        if (faultSchedule.isFaultAt(time) || liDarDataBase.getFaultSchedule().isFaultAt(time)) {
+            setStatus(STATUS.ERROR);
         }
     }
 
     public List<CloudPoint> getCoordinates(String id, int time) {
-        List<StampedCloudPoints> cloudPointsList = liDarDataBase.getCloudPoints();
-        for (StampedCloudPoints stampedCloudPoints : cloudPointsList) {
-            if (stampedCloudPoints.getId().equals(id) && stampedCloudPoints.getTime() == time) {
-                liDarDataBase.decrementCounter();
-                if (liDarDataBase.getCounter() == 0) {
-                    setStatus(STATUS.DOWN);
-                }
-                return stampedCloudPoints.listToCloudPoints();
-            }
+        StampedCloudPoints stampedCloudPoints = liDarDataBase.getCloudPointsAt(id, time);
+        if (stampedCloudPoints == null) {
+            return new ArrayList<>();
+        }
+        liDarDataBase.decrementCounter();
+        if (liDarDataBase.getCounter() == 0 && liDarDataBase.isComplete()) {
+            setStatus(STATUS.DOWN);
         }
-        return new ArrayList<>();
+        return stampedCloudPoints.listToCloudPoints();
     }
 
+    /**
+     * Tracks the objects of a camera frame: looks up the cloud points of every
+     * detected object at the detection time.
+     * <p>
+     * A frame of at least {@code parallelTrackingThreshold} objects is tracked
+     * in parallel on the common fork-join pool, and the tracked objects are
+     * returned in the order of the frame, like in a serial run.
+     *
+     * @param stampedDetectedObjects The frame.
+     * @return The tracked objects, empty if the worker is not up.
+     */
     public List<TrackedObject> prosseingEvent(StampedDetectedObject stampedDetectedObjects) {
         List<TrackedObject> trackedObjectsToReturn = new ArrayList<>();
         int detectionTime = stampedDetectedObjects.getTime();
         List<DetectedObject> detectedObjects = stampedDetectedObjects.getDetectedObjects();
         checkForErrorInCloudPointsAtTime(detectionTime);
-        if (this.status == STATUS.UP) {
+        if (this.status == STATUS.UP && detectedObjects.size() >= parallelTrackingThreshold) {
+            // getCoordinates only reads the data base and updates its atomic counter
+            TrackedObject[] trackedObjects = new TrackedObject[detectedObjects.size()];
+            IntStream.range(0, trackedObjects.length).parallel().forEach(i -> {
+                DetectedObject detectedObject = detectedObjects.get(i);
+                trackedObjects[i] = new TrackedObject(
+                        detectedObject.getId(),
+                        detectionTime,
+                        detectedObject.getDescription(),
+                        getCoordinates(detectedObject.getId(), detectionTime));
+            });
+            trackedObjectsToReturn.addAll(Arrays.asList(trackedObjects));
+        } else if (this.status == STATUS.UP) {
             for (DetectedObject detectedObject : detectedObjects) {
                 TrackedObject trackedObject = new TrackedObject(
                         detectedObject.getId(),
@@ -0,0 +1,210 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tails a newline-delimited JSON sensor file while a recorder appends to it.
+ * Each complete line is handed to a {@link LineHandler} as soon as it is
+ * written; a line that is still being written is kept until its newline
+ * arrives. The stream closes when the file has not grown for the idle timeout.
+ * <p>
+ * The stream reads through a fixed size buffer and does not read further than
+ * {@link LiveReplay#getMaxLeadTicks()} ticks ahead of the clock, so the records
+ * parsed ahead of time stay bounded. A line longer than
+ * {@link LiveReplay#getMaxLineBytes()} is dropped and reported, so a recorder
+ * that never writes a newline cannot fill the memory.
+ */
+// LiveRecordStream class
+public class LiveRecordStream implements Runnable {
+
+    /**
+     * Parses a single record line and applies it to its sensor.
+     */
+    public interface LineHandler {
+        /**
+         * @param line A complete JSON record (without the newline).
+         * @return The time of the record.
+         */
+        int handle(String line);
+    }
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final String name;
+    private final String filePath;
+    private final LineHandler handler;
+    private final Runnable onClose;
+    private final LiveReplay replay;
+    private volatile int lastTime = 0; // time of the latest record seen
+    private volatile boolean closed = false;
+    private int droppedLines = 0;
+
+    /**
+     * @param name     The name of the stream (used for the reader thread).
+     * @param filePath The newline-delimited JSON file to tail.
+     * @param handler  Parses each record and applies it to its sensor.
+     * @param onClose  Called once when the stream closes (may be null).
+     * @param replay   The live replay this stream belongs to.
+     */
+    public LiveRecordStream(String name, String filePath, LineHandler handler, Runnable onClose,
+            LiveReplay replay) {
+        this.name = name;
+        this.filePath = filePath;
+        this.handler = handler;
+        this.onClose = onClose;
+        this.replay = replay;
+    }
+
+    public void start() {
+        Thread reader = new Thread(this, "LiveRecordStream-" + name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Every record of a tick has been read once a record of a later tick was
+     * seen, or once the stream is closed.
+     *
+     * @param tick The tick to check.
+     * @return true if no more records of {@code tick} or earlier can arrive.
+     */
+    public boolean isCompleteThrough(int tick) {
+        return closed || lastTime > tick;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // The number of lines dropped for being longer than the limit
+    public synchronized int getDroppedLines() {
+        return droppedLines;
+    }
+
+    @Override
+    public void run() {
+        try (InputStream in = openWhenCreated()) {
+            if (in != null) {
+                tail(in);
+            }
+        } catch (IOException e) {
+            System.out.println(name + ": stopped reading " + filePath + " - " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    // The recorder may not have created the file yet
+    private InputStream openWhenCreated() throws IOException, InterruptedException {
+        File file = new File(filePath);
+        long waited = 0;
+        while (!file.exists()) {
+            if (waited >= replay.getIdleTimeoutMillis()) {
+                System.out.println(name + ": " + filePath + " was never created");
+                return null;
+            }
+            Thread.sleep(replay.getPollIntervalMillis());
+            waited += replay.getPollIntervalMillis();
+        }
+        return new FileInputStream(file);
+    }
+
+    private void tail(InputStream in) throws IOException, InterruptedException {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        ByteArrayOutputStream pending = new ByteArrayOutputStream(); // bytes of the current line
+        int maxLineBytes = replay.getMaxLineBytes();
+        boolean dropping = false; // the current line is too long, skip to its newline
+        long idle = 0;
+        while (true) {
+            int read = in.read(buffer);
+            if (read <= 0) {
+                // Reached the current end of the file, wait for the recorder
+                if (idle >= replay.getIdleTimeoutMillis()) {
+                    break;
+                }
+                Thread.sleep(replay.getPollIntervalMillis());
+                idle += replay.getPollIntervalMillis();
+                continue;
+            }
+            idle = 0;
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    if (dropping) {
+                        dropping = false;
+                    } else if (pending.size() + i - start <= maxLineBytes) {
+                        pending.write(buffer, start, i - start);
+                        String line = new String(pending.toByteArray(), StandardCharsets.UTF_8);
+                        pending.reset();
+                        accept(line);
+                    } else {
+                        drop(pending);
+                    }
+                    start = i + 1;
+                }
+            }
+            if (!dropping) {
+                if (pending.size() + read - start <= maxLineBytes) {
+                    pending.write(buffer, start, read - start);
+                } else {
+                    drop(pending);
+                    dropping = true;
+                }
+            }
+        }
+        // The last line may have no newline
+        if (!dropping && pending.size() > 0) {
+            accept(new String(pending.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private void drop(ByteArrayOutputStream pending) {
+        pending.reset();
+        synchronized (this) {
+            droppedLines++;
+        }
+        System.out.println(name + ": dropped a record longer than " + replay.getMaxLineBytes() + " bytes");
+    }
+
+    private void accept(String line) throws InterruptedException {
+        String record = line.trim();
+        if (record.isEmpty()) {
+            return;
+        }
+        int time;
+        try {
+            time = handler.handle(record);
+        } catch (RuntimeException e) {
+            System.out.println(name + ": skipped a malformed record - " + e.getMessage());
+            return;
+        }
+        if (time > lastTime) {
+            // Records arrive in time order, a later record completes the earlier ticks
+            lastTime = time;
+            replay.recordArrived();
+        }
+        replay.awaitLead(time);
+    }
+
+    private void close() {
+        if (!closed) {
+            if (onClose != null) {
+                onClose.run(); // finish the sensor before the clock may pass its last tick
+            }
+            closed = true;
+            System.out.println(name + ": live stream closed after time " + lastTime);
+            replay.recordArrived();
+        }
+    }
+}
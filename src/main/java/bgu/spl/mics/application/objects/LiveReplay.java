@@ -0,0 +1,114 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coordinates the live sensor streams of a run that replays a recording while
+ * it is still being written.
+ * <p>
+ * The TimeService asks {@link #awaitTick(int)} before broadcasting a tick, so
+ * the clock only moves once every stream has delivered all of its records for
+ * that tick (or has closed). In turn, the streams do not read more than
+ * {@code maxLeadTicks} ahead of the clock.
+ */
+// LiveReplay class
+public class LiveReplay {
+    private final long idleTimeoutMillis; // a stream closes after its file has not grown for this long
+    private final long pollIntervalMillis; // how often a stream checks its file for new records
+    private final int maxLeadTicks; // how far ahead of the clock a stream may read
+    private final int maxLineBytes; // longer records are dropped
+    private final List<LiveRecordStream> streams = new ArrayList<>();
+    private int currentTick = 0;
+
+    public LiveReplay(long idleTimeoutMillis, long pollIntervalMillis, int maxLeadTicks) {
+        this(idleTimeoutMillis, pollIntervalMillis, maxLeadTicks, 1 << 20);
+    }
+
+    public LiveReplay(long idleTimeoutMillis, long pollIntervalMillis, int maxLeadTicks, int maxLineBytes) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.maxLeadTicks = maxLeadTicks;
+        this.maxLineBytes = Math.max(1, maxLineBytes);
+    }
+
+    /**
+     * Adds a stream to the replay. Streams are added before {@link #start()}.
+     *
+     * @param name     The name of the stream.
+     * @param filePath The newline-delimited JSON file to tail.
+     * @param handler  Parses each record and applies it to its sensor.
+     * @param onClose  Called once when the stream closes (may be null).
+     * @return The added stream.
+     * @throws IllegalArgumentException If the file is gzipped; a compressed
+     *                                  file cannot be tailed while it is written.
+     */
+    public synchronized LiveRecordStream addStream(String name, String filePath,
+            LiveRecordStream.LineHandler handler, Runnable onClose) {
+        if (InputFiles.isGzipped(filePath)) {
+            throw new IllegalArgumentException("Live replay stream " + name + " cannot tail the compressed file "
+                    + filePath + ", live data files must be plain newline-delimited JSON");
+        }
+        LiveRecordStream stream = new LiveRecordStream(name, filePath, handler, onClose, this);
+        streams.add(stream);
+        return stream;
+    }
+
+    public synchronized void start() {
+        for (LiveRecordStream stream : streams) {
+            stream.start();
+        }
+    }
+
+    /**
+     * Blocks until every stream has delivered all of its records up to the given
+     * tick, then lets the streams read ahead of it.
+     *
+     * @param tick The tick that is about to be broadcast.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized void awaitTick(int tick) throws InterruptedException {
+        currentTick = Math.max(currentTick, tick);
+        notifyAll(); // the clock moved, streams waiting on their lead may continue
+        while (!isCompleteThrough(tick)) {
+            wait();
+        }
+    }
+
+    // Called by a stream whenever it read a record of a new tick or closed
+    synchronized void recordArrived() {
+        notifyAll();
+    }
+
+    // Called by a stream after each record, blocks while the stream is too far ahead
+    synchronized void awaitLead(int time) throws InterruptedException {
+        while (time > currentTick + maxLeadTicks) {
+            wait();
+        }
+    }
+
+    private boolean isCompleteThrough(int tick) {
+        for (LiveRecordStream stream : streams) {
+            if (!stream.isCompleteThrough(tick)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long getPollIntervalMillis() {
+        return pollIntervalMillis;
+    }
+
+    public int getMaxLeadTicks() {
+        return maxLeadTicks;
+    }
+
+    public int getMaxLineBytes() {
+        return maxLineBytes;
+    }
+}
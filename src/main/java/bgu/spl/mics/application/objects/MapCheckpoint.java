@@ -0,0 +1,138 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The content of a single checkpoint file, see {@link MapCheckpointer}.
+ * A delta checkpoint holds only the landmarks and poses that changed since the
+ * previous checkpoint; a full checkpoint holds the whole map. Both hold the
+ * statistics at the checkpoint tick.
+ */
+// MapCheckpoint class
+public class MapCheckpoint {
+    private int tick;
+    private boolean full;
+    private List<LandmarkState> landmarks = new ArrayList<>();
+    private List<Pose> poses = new ArrayList<>();
+    private int systemRuntime;
+    private int numDetectedObjects;
+    private int numTrackedObjects;
+    private int numLandmarks;
+
+    public MapCheckpoint(int tick, boolean full) {
+        this.tick = tick;
+        this.full = full;
+    }
+
+    /**
+     * The state of a single landmark: its points and how many observations each
+     * point averages, so the running means continue correctly after a resume.
+     */
+    public static class LandmarkState {
+        private String id;
+        private String description;
+        private double[] xs;
+        private double[] ys;
+        private int[] counts;
+
+        // Copies the state of a landmark, the caller holds the landmark's lock
+        LandmarkState(LandMark landmark) {
+            int size = landmark.getNumPoints();
+            this.id = landmark.getId();
+            this.description = landmark.getDescription();
+            this.xs = new double[size];
+            this.ys = new double[size];
+            this.counts = new int[size];
+            for (int i = 0; i < size; i++) {
+                xs[i] = landmark.getX(i);
+                ys[i] = landmark.getY(i);
+                counts[i] = landmark.getObservationCount(i);
+            }
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public LandMark toLandMark() {
+            return new LandMark(id, description, xs, ys, counts, xs.length);
+        }
+    }
+
+    /**
+     * Merges a later checkpoint into this one: its landmarks replace the
+     * landmarks with the same id, its poses replace the poses of the same tick
+     * and its tick and statistics become the current ones.
+     *
+     * @param later The next checkpoint.
+     */
+    public void merge(MapCheckpoint later) {
+        Map<String, LandmarkState> landmarksById = new LinkedHashMap<>();
+        for (LandmarkState state : landmarks) {
+            landmarksById.put(state.getId(), state);
+        }
+        for (LandmarkState state : later.landmarks) {
+            landmarksById.put(state.getId(), state);
+        }
+        landmarks = new ArrayList<>(landmarksById.values());
+
+        Map<Integer, Pose> posesByTick = new TreeMap<>();
+        for (Pose pose : poses) {
+            posesByTick.put(pose.getTime(), pose);
+        }
+        for (Pose pose : later.poses) {
+            posesByTick.put(pose.getTime(), pose);
+        }
+        poses = new ArrayList<>(posesByTick.values());
+
+        tick = later.tick;
+        setStatistics(later.systemRuntime, later.numDetectedObjects, later.numTrackedObjects, later.numLandmarks);
+    }
+
+    public void setStatistics(int systemRuntime, int numDetectedObjects, int numTrackedObjects, int numLandmarks) {
+        this.systemRuntime = systemRuntime;
+        this.numDetectedObjects = numDetectedObjects;
+        this.numTrackedObjects = numTrackedObjects;
+        this.numLandmarks = numLandmarks;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public void setFull(boolean full) {
+        this.full = full;
+    }
+
+    public List<LandmarkState> getLandmarks() {
+        return landmarks;
+    }
+
+    public List<Pose> getPoses() {
+        return poses;
+    }
+
+    public int getSystemRuntime() {
+        return systemRuntime;
+    }
+
+    public int getNumDetectedObjects() {
+        return numDetectedObjects;
+    }
+
+    public int getNumTrackedObjects() {
+        return numTrackedObjects;
+    }
+
+    public int getNumLandmarks() {
+        return numLandmarks;
+    }
+}
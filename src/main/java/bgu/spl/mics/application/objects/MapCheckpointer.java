@@ -0,0 +1,251 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.Gson;
+
+/**
+ * Writes periodic checkpoints of the FusionSlam map, so a crashed run can be
+ * resumed instead of starting over.
+ * <p>
+ * A checkpoint is taken by the FusionSlamService between fusion batches (see
+ * {@link FusionSlam#takeCheckpointDelta(int)}) and holds only what changed since
+ * the previous one. The files are written by a single background thread, so
+ * fusion only waits for the copy of the changed landmarks. Every
+ * {@code compactEvery} deltas, the latest full checkpoint and the deltas after
+ * it are merged into a new full checkpoint and the merged files are deleted.
+ * <p>
+ * Files are named {@code checkpoint-<sequence>.delta.json} and
+ * {@code checkpoint-<sequence>.full.json} and are written to a temporary file
+ * first, so a crash never leaves a half written checkpoint. A delta that
+ * cannot be written is returned to the map, and its changes are written with
+ * the next one. The deltas taken before the failure was known are returned
+ * too, so the files on disk are always an unbroken chain.
+ * <p>
+ * If the map has a {@link FusionWriteAheadLog}, a new log segment starts at
+ * every checkpoint, and the segments before the last checkpoint of an unbroken
+ * chain are deleted; after a failure they are kept until the changes are
+ * written again.
+ */
+// MapCheckpointer class
+public class MapCheckpointer {
+    private static final Pattern FILE_NAME = Pattern.compile("checkpoint-(\\d+)\\.(delta|full)\\.json");
+
+    private final FusionSlam fusionSlam;
+    private final Path directory;
+    private final int intervalTicks;
+    private final int compactEvery;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MapCheckpointer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Gson gson = new Gson();
+    private int sequence; // sequence number of the last checkpoint file, used by the writer thread
+    private int deltasSinceCompaction;
+    private volatile int chainTick = -1;
+    private final AtomicInteger returnedDeltas = new AtomicInteger(); // deltas given back to the map
+
+    /**
+     * @param fusionSlam    The map to checkpoint.
+     * @param directory     The checkpoint directory, created if needed.
+     * @param intervalTicks A checkpoint is taken every {@code intervalTicks}
+     *                      ticks.
+     * @param compactEvery  The number of deltas merged into each full checkpoint.
+     * @throws IOException If the directory cannot be created or listed.
+     */
+    public MapCheckpointer(FusionSlam fusionSlam, String directory, int intervalTicks, int compactEvery)
+            throws IOException {
+        this.fusionSlam = fusionSlam;
+        this.directory = Paths.get(directory);
+        this.intervalTicks = Math.max(1, intervalTicks);
+        this.compactEvery = Math.max(1, compactEvery);
+        Files.createDirectories(this.directory);
+        // Continue the numbering of a resumed run
+        TreeMap<Integer, Path> existing = listFiles(this.directory);
+        this.sequence = existing.isEmpty() ? 0 : existing.lastKey();
+    }
+
+    // Whether a checkpoint should be taken at the tick
+    public boolean isDue(int tick) {
+        return tick % intervalTicks == 0;
+    }
+
+    /**
+     * Takes a delta checkpoint and writes it in the background.
+     * Called by the thread that fuses, between fusion batches.
+     *
+     * @param tick The current tick.
+     */
+    public void checkpoint(int tick) {
+        int returnedBefore = returnedDeltas.get(); // read first, the returned changes are then in this delta
+        MapCheckpoint delta = fusionSlam.takeCheckpointDelta(tick);
+        FusionWriteAheadLog log = fusionSlam.getWriteAheadLog();
+        if (log != null) {
+            log.startSegment(tick); // the later changes are not in this delta
+        }
+        writer.execute(() -> {
+            if (returnedDeltas.get() != returnedBefore) {
+                // Taken before an earlier delta failed, writing it would leave a gap in the chain
+                returnDelta(delta);
+                return;
+            }
+            try {
+                write(delta, sequence + 1);
+            } catch (IOException e) {
+                System.out.println("MapCheckpointer: failed to write the checkpoint of tick " + tick + ": "
+                        + e.getMessage());
+                returnDelta(delta);
+                return;
+            }
+            sequence++;
+            chainTick = tick; // every change up to the tick is on disk
+            if (log != null) {
+                log.deleteSegmentsBefore(chainTick); // replaced by the checkpoints
+            }
+            deltasSinceCompaction++;
+            if (deltasSinceCompaction >= compactEvery) {
+                try {
+                    compact();
+                    deltasSinceCompaction = 0;
+                } catch (IOException e) {
+                    System.out.println("MapCheckpointer: failed to compact at tick " + tick + ": "
+                            + e.getMessage());
+                }
+            }
+        });
+    }
+
+    // The tick of the last checkpoint written after an unbroken chain of checkpoints, -1 if none
+    public int getChainTick() {
+        return chainTick;
+    }
+
+    // Gives the changes of a delta back to the map, the next delta holds them
+    private void returnDelta(MapCheckpoint delta) {
+        fusionSlam.returnCheckpointDelta(delta);
+        returnedDeltas.incrementAndGet(); // after the changes are back
+    }
+
+    // Waits for the pending checkpoints to be written and stops the writer thread
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Merges the latest full checkpoint and the deltas after it into a new full checkpoint
+    private void compact() throws IOException {
+        TreeMap<Integer, Path> files = listFiles(directory);
+        MapCheckpoint merged = merge(files, gson);
+        if (merged == null) {
+            return;
+        }
+        merged.setFull(true);
+        write(merged, sequence);
+        for (Path file : files.values()) {
+            if (!file.getFileName().toString().equals(fileName(sequence, true))) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private void write(MapCheckpoint checkpoint, int fileSequence) throws IOException {
+        Path target = directory.resolve(fileName(fileSequence, checkpoint.isFull()));
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                gson.toJson(checkpoint, out);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // the temporary file is not a checkpoint, it is never loaded
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the latest state of a checkpoint directory: the latest full
+     * checkpoint merged with the deltas written after it.
+     *
+     * @param directory The checkpoint directory.
+     * @return The merged checkpoint, or null if there is none.
+     * @throws IOException If a checkpoint cannot be read.
+     */
+    public static MapCheckpoint loadLatest(String directory) throws IOException {
+        Path path = Paths.get(directory);
+        if (!Files.isDirectory(path)) {
+            return null;
+        }
+        return merge(listFiles(path), new Gson());
+    }
+
+    private static MapCheckpoint merge(TreeMap<Integer, Path> files, Gson gson) throws IOException {
+        // Start from the latest full checkpoint, older files are already merged into it
+        List<Path> toMerge = new ArrayList<>();
+        for (Path file : files.descendingMap().values()) {
+            toMerge.add(0, file);
+            if (file.getFileName().toString().endsWith(".full.json")) {
+                break;
+            }
+        }
+        MapCheckpoint merged = null;
+        for (Path file : toMerge) {
+            MapCheckpoint checkpoint;
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                checkpoint = gson.fromJson(reader, MapCheckpoint.class);
+            }
+            if (merged == null) {
+                merged = checkpoint;
+            } else {
+                merged.merge(checkpoint);
+            }
+        }
+        return merged;
+    }
+
+    // The checkpoint files by sequence number; a full checkpoint wins over a delta with the same number
+    private static TreeMap<Integer, Path> listFiles(Path directory) throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    int fileSequence = Integer.parseInt(matcher.group(1));
+                    if (matcher.group(2).equals("full") || !files.containsKey(fileSequence)) {
+                        files.put(fileSequence, file);
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    private static String fileName(int fileSequence, boolean full) {
+        return String.format("checkpoint-%06d.%s.json", fileSequence, full ? "full" : "delta");
+    }
+}
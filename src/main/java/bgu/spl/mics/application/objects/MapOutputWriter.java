@@ -0,0 +1,107 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams the output file of the run with a {@link JsonWriter}.
+ * Landmarks are written from the current map snapshot and poses straight from
+ * the pose store, one value at a time, so writing the output does not build a
+ * copy of the map.
+ * The file is written through a buffered writer over a {@link FileChannel}.
+ */
+// MapOutputWriter class
+public class MapOutputWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Writer out;
+    private final JsonWriter json;
+
+    /**
+     * Opens (and truncates) the output file.
+     *
+     * @param filePath The path of the output file.
+     * @param compact  Whether to write compact JSON instead of pretty printed
+     *                 JSON.
+     * @throws IOException If the file cannot be opened.
+     */
+    public MapOutputWriter(String filePath, boolean compact) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1),
+                BUFFER_SIZE);
+        // Same formatting as the Gson instance the output used to be written with
+        Gson gson = compact ? new Gson() : new GsonBuilder().setPrettyPrinting().create();
+        this.json = gson.newJsonWriter(out);
+    }
+
+    // The underlying writer, for the fields that are not landmarks or poses
+    public JsonWriter json() {
+        return json;
+    }
+
+    /**
+     * Writes a landmark as an object with its id, description and coordinates.
+     *
+     * @param landmark The landmark to write, from a map snapshot.
+     * @throws IOException If writing fails.
+     */
+    public void writeLandmark(MapSnapshot.LandmarkSnapshot landmark) throws IOException {
+        json.beginObject();
+        json.name("id").value(landmark.getId());
+        json.name("description").value(landmark.getDescription());
+        json.name("coordinates").beginArray();
+        for (int i = 0; i < landmark.getNumPoints(); i++) {
+            writePoint(landmark.getX(i), landmark.getY(i));
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    // Writes the poses of the store as an array, in tick order, without copying them
+    public void writePoses(PoseStore poses) throws IOException {
+        json.beginArray();
+        for (Pose pose : poses) {
+            json.beginObject();
+            json.name("time").value(pose.getTime());
+            json.name("x").value(pose.getX());
+            json.name("y").value(pose.getY());
+            json.name("yaw").value(pose.getYaw());
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    // Writes cloud points as an array of {x, y} objects
+    public void writeCloudPoints(List<CloudPoint> points) throws IOException {
+        json.beginArray();
+        for (CloudPoint point : points) {
+            writePoint(point.getX(), point.getY());
+        }
+        json.endArray();
+    }
+
+    private void writePoint(double x, double y) throws IOException {
+        json.beginObject();
+        json.name("x").value(x);
+        json.name("y").value(y);
+        json.endObject();
+    }
+
+    @Override
+    public void close() throws IOException {
+        json.close(); // flushes and closes the channel
+    }
+}
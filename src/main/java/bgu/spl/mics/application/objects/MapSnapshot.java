@@ -0,0 +1,191 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * An immutable version of the landmark map, published by FusionSlam after
+ * every fused batch. Readers get the current version in O(1) and never block
+ * the fusion (see {@link FusionSlam#getSnapshot()}).
+ * <p>
+ * The landmarks are kept, in the order they were added, in a trie of nodes of
+ * {@link #CHUNK_SIZE} slots whose leaves hold the landmark copies. A new
+ * version copies only the nodes on the path to a changed landmark, so a
+ * publish of k changed landmarks costs O(k log32 n), and shares all the other
+ * nodes, and the unchanged landmark copies, with the previous version. A
+ * lookup walks log32 n levels (two levels up to 32768 landmarks).
+ */
+// MapSnapshot class
+public final class MapSnapshot {
+    static final int CHUNK_SIZE = 32;
+    private static final int BITS = 5; // log2 of CHUNK_SIZE
+
+    public static final MapSnapshot EMPTY = new MapSnapshot(0, 0, null, 0, 0);
+
+    private final long version;
+    private final int tick;
+    private final Node root; // null while empty
+    private final int shift; // BITS times the number of levels above the leaves
+    private final int size;
+
+    private MapSnapshot(long version, int tick, Node root, int shift, int size) {
+        this.version = version;
+        this.tick = tick;
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    // A trie node: child nodes, or landmark copies in a leaf
+    private static final class Node {
+        final Object[] slots;
+        final Object owner; // the version being built that may still fill this node
+
+        Node(Object owner, Object[] slots) {
+            this.owner = owner;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * An immutable copy of a landmark.
+     */
+    public static final class LandmarkSnapshot {
+        private final String id;
+        private final String description;
+        private final double[] xs;
+        private final double[] ys;
+
+        // Copies a landmark under its lock
+        LandmarkSnapshot(LandMark landmark) {
+            this.id = landmark.getId();
+            this.description = landmark.getDescription();
+            synchronized (landmark) {
+                int numPoints = landmark.getNumPoints();
+                this.xs = new double[numPoints];
+                this.ys = new double[numPoints];
+                for (int i = 0; i < numPoints; i++) {
+                    xs[i] = landmark.getX(i);
+                    ys[i] = landmark.getY(i);
+                }
+            }
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public int getNumPoints() {
+            return xs.length;
+        }
+
+        public double getX(int index) {
+            return xs[index];
+        }
+
+        public double getY(int index) {
+            return ys[index];
+        }
+
+        public List<CloudPoint> getCoordinates() {
+            List<CloudPoint> coordinates = new ArrayList<>(xs.length);
+            for (int i = 0; i < xs.length; i++) {
+                coordinates.add(new CloudPoint(xs[i], ys[i]));
+            }
+            return coordinates;
+        }
+    }
+
+    /**
+     * Creates the next version.
+     *
+     * @param nextTick The tick of the new version.
+     * @param updates  The new copies by position; positions from {@link #size()}
+     *                 on are appended and must be consecutive.
+     * @return The new version, sharing every untouched chunk with this one.
+     */
+    MapSnapshot with(int nextTick, SortedMap<Integer, LandmarkSnapshot> updates) {
+        if (updates.isEmpty()) {
+            return this;
+        }
+        int nextSize = Math.max(size, updates.lastKey() + 1);
+        Object owner = new Object(); // nodes created for this version are filled in place
+        Node nextRoot = root;
+        int nextShift = shift;
+        while (((long) nextSize - 1) >>> nextShift >= CHUNK_SIZE) {
+            Node grown = new Node(owner, new Object[CHUNK_SIZE]);
+            grown.slots[0] = nextRoot;
+            nextRoot = grown;
+            nextShift += BITS;
+        }
+        for (Map.Entry<Integer, LandmarkSnapshot> update : updates.entrySet()) {
+            nextRoot = set(nextRoot, nextShift, update.getKey(), update.getValue(), owner);
+        }
+        return new MapSnapshot(version + 1, nextTick, nextRoot, nextShift, nextSize);
+    }
+
+    // Returns node, or a copy of it owned by owner, with the copy at index set
+    private static Node set(Node node, int level, int index, LandmarkSnapshot copy, Object owner) {
+        Node next;
+        if (node == null) {
+            next = new Node(owner, new Object[CHUNK_SIZE]);
+        } else if (node.owner == owner) {
+            next = node;
+        } else {
+            next = new Node(owner, node.slots.clone());
+        }
+        int slot = (index >>> level) & (CHUNK_SIZE - 1);
+        if (level == 0) {
+            next.slots[slot] = copy;
+        } else {
+            next.slots[slot] = set((Node) next.slots[slot], level - BITS, index, copy, owner);
+        }
+        return next;
+    }
+
+    public LandmarkSnapshot get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.slots[(index >>> level) & (CHUNK_SIZE - 1)];
+        }
+        return (LandmarkSnapshot) node.slots[index & (CHUNK_SIZE - 1)];
+    }
+
+    // A read-only view of the landmarks, in the order they were added
+    public List<LandmarkSnapshot> getLandmarks() {
+        return new AbstractList<LandmarkSnapshot>() {
+            @Override
+            public LandmarkSnapshot get(int index) {
+                return MapSnapshot.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Increases by one with every published version
+    public long getVersion() {
+        return version;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+}
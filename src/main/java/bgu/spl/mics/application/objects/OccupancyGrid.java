@@ -0,0 +1,286 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A sparse occupancy grid of the map, rasterized from the landmarks.
+ * <p>
+ * The grid is split into square tiles of {@code tileSize * tileSize} cells.
+ * A tile is an array of counts that is allocated only when a landmark first
+ * covers one of its cells and freed when it becomes empty, so memory grows with
+ * the mapped area and not with the world bounds. A cell holds the number of
+ * landmarks that cover it; a landmark covers the cells of its points and of
+ * the segments between consecutive points. The counts are 16 bit, and a cell
+ * that reaches the maximum stays there, since the landmarks that covered it
+ * can no longer be counted off. Exported tiles hold one byte per cell, with
+ * the counts capped at 255.
+ * <p>
+ * A landmark is re-rasterized whenever its coordinates change: the cells it
+ * no longer covers are released and the new ones are taken. Every changed tile
+ * is marked dirty until it is exported with {@link #exportDirtyTiles()}.
+ * The walk along a segment is capped: a segment longer than
+ * {@link #MAX_SEGMENT_STEPS} half cells (far apart or corrupt points) covers
+ * the cells of its end points only.
+ * All methods are synchronized. Like {@link LandmarkGrid}, the grid locks a
+ * landmark while reading its points.
+ */
+// OccupancyGrid class
+public class OccupancyGrid {
+    public static final int DEFAULT_TILE_SIZE = 64;
+    private static final int MAX_COUNT = Character.MAX_VALUE; // a saturated cell is never released
+    public static final int MAX_SEGMENT_STEPS = 1 << 16;
+
+    private final double resolution;
+    private final int tileSize;
+    private final Map<Long, Tile> tiles = new HashMap<>();
+    private final Map<LandMark, long[]> cellsOf = new IdentityHashMap<>(); // landmark -> covered cells
+    private final Set<Long> dirtyTiles = new LinkedHashSet<>();
+    private int skippedSegments = 0;
+
+    /**
+     * @param resolution The side of a cell, in map units.
+     * @param tileSize   The number of cells along the side of a tile.
+     */
+    public OccupancyGrid(double resolution, int tileSize) {
+        if (!(resolution > 0) || tileSize <= 0) {
+            throw new IllegalArgumentException("resolution and tileSize must be positive");
+        }
+        this.resolution = resolution;
+        this.tileSize = tileSize;
+    }
+
+    // One tile: the counts of its cells, row by row, and how many of them are occupied
+    private static final class Tile {
+        private final char[] cells;
+        private int occupied;
+
+        private Tile(int tileSize) {
+            this.cells = new char[tileSize * tileSize];
+        }
+
+        // The counts as unsigned bytes, capped at 255
+        private byte[] export() {
+            byte[] exported = new byte[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                exported[i] = (byte) Math.min(cells[i], 255);
+            }
+            return exported;
+        }
+    }
+
+    /**
+     * A copy of a single tile, as exported.
+     */
+    public static class TileSnapshot {
+        private final int tileX;
+        private final int tileY;
+        private final byte[] cells;
+
+        TileSnapshot(int tileX, int tileY, byte[] cells) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.cells = cells;
+        }
+
+        public int getTileX() {
+            return tileX;
+        }
+
+        public int getTileY() {
+            return tileY;
+        }
+
+        // The cells row by row, each an unsigned count capped at 255; empty for a tile that was freed
+        public byte[] getCells() {
+            return cells;
+        }
+    }
+
+    /**
+     * Rasterizes a new landmark, or re-rasterizes one whose coordinates changed.
+     *
+     * @param landmark The landmark.
+     */
+    public synchronized void update(LandMark landmark) {
+        long[] covered = rasterize(landmark);
+        long[] previous = cellsOf.put(landmark, covered);
+        if (previous != null) {
+            for (long cell : previous) {
+                release(cell);
+            }
+        }
+        for (long cell : covered) {
+            take(cell);
+        }
+    }
+
+    public synchronized void remove(LandMark landmark) {
+        long[] previous = cellsOf.remove(landmark);
+        if (previous != null) {
+            for (long cell : previous) {
+                release(cell);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of landmarks that cover the cell of a position.
+     *
+     * @param x The x coordinate of the position.
+     * @param y The y coordinate of the position.
+     * @return The count of the cell, 0 if its tile is not allocated.
+     */
+    public synchronized int getOccupancy(double x, double y) {
+        int cellX = cellOf(x);
+        int cellY = cellOf(y);
+        Tile tile = tiles.get(key(Math.floorDiv(cellX, tileSize), Math.floorDiv(cellY, tileSize)));
+        return tile == null ? 0 : tile.cells[indexInTile(cellX, cellY)];
+    }
+
+    /**
+     * Returns copies of the tiles that changed since the previous export, and
+     * clears the dirty marks. A tile that was freed is exported with no cells.
+     *
+     * @return The changed tiles.
+     */
+    public synchronized List<TileSnapshot> exportDirtyTiles() {
+        List<TileSnapshot> exported = new ArrayList<>(dirtyTiles.size());
+        for (long tileKey : dirtyTiles) {
+            Tile tile = tiles.get(tileKey);
+            exported.add(new TileSnapshot(keyX(tileKey), keyY(tileKey),
+                    tile == null ? new byte[0] : tile.export()));
+        }
+        dirtyTiles.clear();
+        return exported;
+    }
+
+    // Returns copies of all the allocated tiles
+    public synchronized List<TileSnapshot> exportAllTiles() {
+        List<TileSnapshot> exported = new ArrayList<>(tiles.size());
+        for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+            exported.add(new TileSnapshot(keyX(entry.getKey()), keyY(entry.getKey()), entry.getValue().export()));
+        }
+        return exported;
+    }
+
+    // The number of segments too long to walk, covered at their end points only
+    public synchronized int getSkippedSegments() {
+        return skippedSegments;
+    }
+
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    public synchronized void clear() {
+        for (long tileKey : tiles.keySet()) {
+            dirtyTiles.add(tileKey);
+        }
+        tiles.clear();
+        cellsOf.clear();
+    }
+
+    public double getResolution() {
+        return resolution;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    // The distinct cells covered by the points of a landmark and the segments between them
+    private long[] rasterize(LandMark landmark) {
+        Set<Long> cells = new LinkedHashSet<>();
+        synchronized (landmark) {
+            int numPoints = landmark.getNumPoints();
+            for (int i = 0; i < numPoints; i++) {
+                double x = landmark.getX(i);
+                double y = landmark.getY(i);
+                cells.add(key(cellOf(x), cellOf(y)));
+                if (i + 1 < numPoints) {
+                    double dx = landmark.getX(i + 1) - x;
+                    double dy = landmark.getY(i + 1) - y;
+                    // Sample the segment at half a cell, so no cell along it is skipped
+                    double length = Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)) * 2 / resolution);
+                    if (!(length <= MAX_SEGMENT_STEPS)) { // also NaN
+                        skippedSegments++;
+                        continue;
+                    }
+                    int steps = (int) length;
+                    for (int step = 1; step < steps; step++) {
+                        double t = (double) step / steps;
+                        cells.add(key(cellOf(x + dx * t), cellOf(y + dy * t)));
+                    }
+                }
+            }
+        }
+        long[] covered = new long[cells.size()];
+        int index = 0;
+        for (long cell : cells) {
+            covered[index++] = cell;
+        }
+        return covered;
+    }
+
+    private void take(long cell) {
+        int cellX = keyX(cell);
+        int cellY = keyY(cell);
+        long tileKey = key(Math.floorDiv(cellX, tileSize), Math.floorDiv(cellY, tileSize));
+        Tile tile = tiles.computeIfAbsent(tileKey, k -> new Tile(tileSize));
+        int index = indexInTile(cellX, cellY);
+        int count = tile.cells[index];
+        if (count == 0) {
+            tile.occupied++;
+        }
+        if (count < MAX_COUNT) {
+            tile.cells[index] = (char) (count + 1);
+        }
+        dirtyTiles.add(tileKey);
+    }
+
+    private void release(long cell) {
+        int cellX = keyX(cell);
+        int cellY = keyY(cell);
+        long tileKey = key(Math.floorDiv(cellX, tileSize), Math.floorDiv(cellY, tileSize));
+        Tile tile = tiles.get(tileKey);
+        if (tile == null) {
+            return;
+        }
+        int index = indexInTile(cellX, cellY);
+        int count = tile.cells[index];
+        if (count == 0 || count == MAX_COUNT) {
+            return; // a saturated cell may still be covered by landmarks it did not count
+        }
+        tile.cells[index] = (char) (count - 1);
+        if (count == 1 && --tile.occupied == 0) {
+            tiles.remove(tileKey); // free the memory of an empty tile
+        }
+        dirtyTiles.add(tileKey);
+    }
+
+    private int indexInTile(int cellX, int cellY) {
+        return Math.floorMod(cellY, tileSize) * tileSize + Math.floorMod(cellX, tileSize);
+    }
+
+    private int cellOf(double coordinate) {
+        return (int) Math.floor(coordinate / resolution);
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private static int keyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int keyY(long key) {
+        return (int) key;
+    }
+}
@@ -0,0 +1,157 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import bgu.spl.mics.application.messages.TrackedObjectsEvent;
+
+/**
+ * Holds the TrackedObjectsEvents that wait for the pose of their tick.
+ * <p>
+ * The events are bucketed by their detection tick, so the pose of tick t
+ * releases the waiting events of t in O(bucket size), and a range of ticks
+ * (the ticks a pose resolves by interpolation) in O(released). Within a bucket
+ * the events are kept in the order they were parked. The events are also
+ * indexed by the tick they were parked at, so evicting the events that waited
+ * too long costs O(evicted) and does not look at the others. A list of either
+ * index is dropped once none of its events waits any more.
+ * Not thread safe, it is used by the FusionSlamService thread only.
+ */
+// PendingFusionBuffer class
+public class PendingFusionBuffer {
+    private final TreeMap<Integer, Bucket> buckets = new TreeMap<>(); // by detection tick
+    private final TreeMap<Integer, Bucket> byParkedTick = new TreeMap<>();
+    private int size = 0;
+
+    // A waiting event and the tick it was parked at
+    private static final class Parked {
+        private final TrackedObjectsEvent event;
+        private final int parkedTick;
+        private boolean done = false; // released or evicted
+
+        private Parked(TrackedObjectsEvent event, int parkedTick) {
+            this.event = event;
+            this.parkedTick = parkedTick;
+        }
+    }
+
+    // The events of a tick, with how many of them still wait
+    private static final class Bucket {
+        private final List<Parked> parked = new ArrayList<>();
+        private int waiting = 0;
+    }
+
+    /**
+     * Parks an event until the pose of its tick arrives.
+     *
+     * @param event      The event, bucketed by {@code event.getTime()}.
+     * @param parkedTick The current tick.
+     */
+    public void add(TrackedObjectsEvent event, int parkedTick) {
+        Parked parked = new Parked(event, parkedTick);
+        Bucket bucket = buckets.computeIfAbsent(event.getTime(), time -> new Bucket());
+        bucket.parked.add(parked);
+        bucket.waiting++;
+        Bucket parkedAtTick = byParkedTick.computeIfAbsent(parkedTick, tick -> new Bucket());
+        parkedAtTick.parked.add(parked);
+        parkedAtTick.waiting++;
+        size++;
+    }
+
+    /**
+     * Releases the events waiting for the pose of a tick.
+     *
+     * @param poseTick The tick of the new pose.
+     * @return The released events, in the order they were parked.
+     */
+    public List<TrackedObjectsEvent> release(int poseTick) {
+        Bucket bucket = buckets.remove(poseTick);
+        return bucket == null ? Collections.emptyList() : drain(bucket);
+    }
+
+    /**
+     * Releases the events waiting for the poses of a range of ticks, e.g. the
+     * ticks a new pose resolves by interpolation.
+     *
+     * @param from The first tick.
+     * @param to   The last tick.
+     * @return The released events, in tick order.
+     */
+    public List<TrackedObjectsEvent> release(int from, int to) {
+        if (from > to) {
+            return Collections.emptyList();
+        }
+        SortedMap<Integer, Bucket> resolved = buckets.subMap(from, true, to, true);
+        List<TrackedObjectsEvent> released = new ArrayList<>();
+        for (Bucket bucket : resolved.values()) {
+            released.addAll(drain(bucket));
+        }
+        resolved.clear();
+        return released;
+    }
+
+    /**
+     * Evicts the events that were parked at or before a watermark tick.
+     *
+     * @param watermark The last parked tick to evict.
+     * @return The evicted events, in tick order.
+     */
+    public List<TrackedObjectsEvent> evictParkedUpTo(int watermark) {
+        SortedMap<Integer, Bucket> expired = byParkedTick.headMap(watermark, true);
+        if (expired.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Parked> evicted = new ArrayList<>();
+        for (Bucket parkedAtTick : expired.values()) {
+            for (Parked parked : parkedAtTick.parked) {
+                if (!parked.done) {
+                    parked.done = true;
+                    evicted.add(parked);
+                    leave(buckets, parked.event.getTime());
+                }
+            }
+        }
+        expired.clear();
+        size -= evicted.size();
+        evicted.sort(Comparator.comparingInt(parked -> parked.event.getTime())); // stable
+        List<TrackedObjectsEvent> events = new ArrayList<>(evicted.size());
+        for (Parked parked : evicted) {
+            events.add(parked.event);
+        }
+        return events;
+    }
+
+    // The waiting events of a removed detection bucket
+    private List<TrackedObjectsEvent> drain(Bucket bucket) {
+        List<TrackedObjectsEvent> events = new ArrayList<>(bucket.waiting);
+        for (Parked parked : bucket.parked) {
+            if (!parked.done) {
+                parked.done = true;
+                events.add(parked.event);
+                leave(byParkedTick, parked.parkedTick);
+            }
+        }
+        size -= events.size();
+        return events;
+    }
+
+    // One event of the bucket of a tick no longer waits
+    private static void leave(TreeMap<Integer, Bucket> index, int tick) {
+        Bucket bucket = index.get(tick);
+        if (--bucket.waiting == 0) {
+            index.remove(tick);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,369 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Stores the robot's poses indexed by tick.
+ * <p>
+ * Poses are kept in pages of {@link #PAGE_SIZE} consecutive ticks, found
+ * through a directory that covers the pages from the lowest stored tick to the
+ * highest. A lookup by tick is O(1), a range of ticks is read in tick order,
+ * and every page has a bit per tick with a pose, so the nearest pose is found
+ * a word of 64 ticks at a time and empty pages are skipped. The directory
+ * doubles as the poses spread, so memory follows the ticks that are used.
+ * <p>
+ * A tick so far from the others that the directory would be mostly empty (a
+ * corrupt tick) is an outlier: it goes to a sorted map instead. Adding is
+ * synchronized; reads take no lock and see every pose whose add completed
+ * before the read started.
+ */
+// PoseStore class
+public class PoseStore implements Iterable<Pose> {
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS; // ticks per page
+    private static final int INITIAL_PAGES = 4;
+    // The directory always grows up to this many pages, beyond it only while most pages are used
+    private static final int DENSE_PAGES = 1 << 12;
+
+    // The poses of PAGE_SIZE consecutive ticks, with a bit per tick that has one
+    private static final class Page {
+        final AtomicReferenceArray<Pose> slots = new AtomicReferenceArray<>(PAGE_SIZE);
+        final AtomicLongArray occupied = new AtomicLongArray(PAGE_SIZE / 64);
+
+        // The last slot with a pose at or before slot, or -1
+        int floor(int slot) {
+            int word = slot >>> 6;
+            long bits = occupied.get(word) & (-1L >>> (63 - (slot & 63)));
+            while (bits == 0) {
+                if (--word < 0) {
+                    return -1;
+                }
+                bits = occupied.get(word);
+            }
+            return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+        }
+
+        // The first slot with a pose at or after slot, or -1
+        int ceiling(int slot) {
+            int word = slot >>> 6;
+            long bits = occupied.get(word) & (-1L << (slot & 63));
+            while (bits == 0) {
+                if (++word == occupied.length()) {
+                    return -1;
+                }
+                bits = occupied.get(word);
+            }
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+    }
+
+    // The pages of the page numbers base to base + pages.length() - 1
+    private static final class Directory {
+        final int base;
+        final AtomicReferenceArray<Page> pages;
+
+        Directory(int base, int capacity) {
+            this.base = base;
+            this.pages = new AtomicReferenceArray<>(capacity);
+        }
+
+        int last() {
+            return base + pages.length() - 1;
+        }
+
+        boolean contains(int page) {
+            return page >= base && page - base < pages.length();
+        }
+
+        Page get(int page) {
+            return contains(page) ? pages.get(page - base) : null;
+        }
+    }
+
+    private volatile Directory directory = new Directory(0, INITIAL_PAGES);
+    private final ConcurrentSkipListMap<Integer, Pose> outliers = new ConcurrentSkipListMap<>();
+    private int firstPage = -1; // the lowest page with a pose
+    private int lastPage = -1; // the highest page with a pose
+    private int usedPages = 0;
+    private volatile int maxTick = -1; // the largest tick with a pose
+    private volatile int size = 0;
+
+    /**
+     * Adds a pose. A pose for a tick that already has one replaces it.
+     *
+     * @pre {@code pose != null}
+     * @param pose The pose to add.
+     */
+    public synchronized void add(Pose pose) {
+        int tick = pose.getTime();
+        if (tick < 0) {
+            return; // ticks start at 1
+        }
+        if (outliers.containsKey(tick)) {
+            outliers.put(tick, pose);
+            return;
+        }
+        int pageNumber = tick >>> PAGE_BITS;
+        Directory current = directory;
+        if (lastPage < 0) {
+            if (!current.contains(pageNumber)) {
+                current = new Directory(pageNumber, INITIAL_PAGES);
+                directory = current;
+            }
+        } else if (!current.contains(pageNumber)) {
+            current = regrow(current, pageNumber);
+            if (current == null) {
+                if (outliers.isEmpty()) {
+                    System.out.println("PoseStore: tick " + tick + " is far from the other poses, stored aside");
+                }
+                outliers.put(tick, pose);
+                size++;
+                updateMaxTick(tick);
+                return;
+            }
+        }
+        Page page = current.pages.get(pageNumber - current.base);
+        if (page == null) {
+            page = new Page();
+            current.pages.set(pageNumber - current.base, page);
+            usedPages++;
+        }
+        int slot = tick & (PAGE_SIZE - 1);
+        if (page.slots.getAndSet(slot, pose) == null) {
+            // the bit is set after the pose, so a reader that sees the bit sees the pose
+            page.occupied.set(slot >>> 6, page.occupied.get(slot >>> 6) | (1L << (slot & 63)));
+            size++;
+        }
+        firstPage = lastPage < 0 ? pageNumber : Math.min(firstPage, pageNumber);
+        lastPage = Math.max(lastPage, pageNumber);
+        updateMaxTick(tick);
+    }
+
+    // Returns a directory that also covers a page, or null if it would be mostly empty
+    private Directory regrow(Directory current, int pageNumber) {
+        int low = Math.min(firstPage, pageNumber);
+        int high = Math.max(lastPage, pageNumber);
+        long span = (long) high - low + 1;
+        if (span > DENSE_PAGES && span > 2L * (usedPages + 1)) {
+            return null;
+        }
+        int capacity = current.pages.length();
+        while (capacity < span) {
+            capacity *= 2;
+        }
+        // keep the free pages on the side the directory grew to
+        int base = pageNumber < current.base ? Math.max(0, high - capacity + 1) : low;
+        Directory grown = new Directory(base, capacity);
+        for (int i = firstPage; i <= lastPage; i++) {
+            grown.pages.set(i - base, current.pages.get(i - current.base));
+        }
+        directory = grown; // readers switch to the grown directory once it is filled
+        return grown;
+    }
+
+    private void updateMaxTick(int tick) {
+        if (tick > maxTick) {
+            maxTick = tick;
+        }
+    }
+
+    /**
+     * @param tick The tick to look up.
+     * @return The pose of that tick, or null if there is none.
+     */
+    public Pose get(int tick) {
+        if (tick < 0) {
+            return null;
+        }
+        Page page = directory.get(tick >>> PAGE_BITS);
+        Pose pose = page == null ? null : page.slots.get(tick & (PAGE_SIZE - 1));
+        return pose != null || outliers.isEmpty() ? pose : outliers.get(tick);
+    }
+
+    /**
+     * @param tick The tick to look up.
+     * @return The pose of the latest tick at or before {@code tick}, or null.
+     */
+    public Pose getFloor(int tick) {
+        Pose found = null;
+        if (tick >= 0) {
+            Directory current = directory;
+            int pageNumber = tick >>> PAGE_BITS;
+            int slot = tick & (PAGE_SIZE - 1);
+            if (pageNumber > current.last()) {
+                pageNumber = current.last();
+                slot = PAGE_SIZE - 1;
+            }
+            for (; pageNumber >= current.base && found == null; pageNumber--, slot = PAGE_SIZE - 1) {
+                Page page = current.pages.get(pageNumber - current.base);
+                int floor = page == null ? -1 : page.floor(slot);
+                if (floor >= 0) {
+                    found = page.slots.get(floor);
+                }
+            }
+        }
+        Map.Entry<Integer, Pose> outlier = outliers.floorEntry(tick);
+        if (outlier != null && (found == null || outlier.getKey() > found.getTime())) {
+            return outlier.getValue();
+        }
+        return found;
+    }
+
+    /**
+     * @param tick The tick to look up.
+     * @return The pose of the earliest tick at or after {@code tick}, or null.
+     */
+    public Pose getCeiling(int tick) {
+        Directory current = directory;
+        Pose found = null;
+        int pageNumber = Math.max(0, tick) >>> PAGE_BITS;
+        int slot = Math.max(0, tick) & (PAGE_SIZE - 1);
+        if (pageNumber < current.base) {
+            pageNumber = current.base;
+            slot = 0;
+        }
+        for (; pageNumber <= current.last() && found == null; pageNumber++, slot = 0) {
+            Page page = current.pages.get(pageNumber - current.base);
+            int ceiling = page == null ? -1 : page.ceiling(slot);
+            if (ceiling >= 0) {
+                found = page.slots.get(ceiling);
+            }
+        }
+        Map.Entry<Integer, Pose> outlier = outliers.ceilingEntry(tick);
+        if (outlier != null && (found == null || outlier.getKey() < found.getTime())) {
+            return outlier.getValue();
+        }
+        return found;
+    }
+
+    /**
+     * Returns the poses of the ticks {@code from} to {@code to} (inclusive), in
+     * tick order.
+     *
+     * @param from The first tick.
+     * @param to   The last tick.
+     * @return The poses in the range.
+     */
+    public List<Pose> getRange(int from, int to) {
+        List<Pose> poses = new ArrayList<>();
+        if (from > to || to < 0) {
+            return poses;
+        }
+        Directory current = directory;
+        int first = Math.max(0, from);
+        int lastPageNumber = Math.min(to >>> PAGE_BITS, current.last());
+        for (int pageNumber = Math.max(first >>> PAGE_BITS, current.base); pageNumber <= lastPageNumber; pageNumber++) {
+            Page page = current.pages.get(pageNumber - current.base);
+            if (page == null) {
+                continue;
+            }
+            int pageStart = pageNumber << PAGE_BITS;
+            int slot = page.ceiling(Math.max(0, first - pageStart));
+            for (; slot >= 0 && pageStart + slot <= to; slot = slot + 1 < PAGE_SIZE ? page.ceiling(slot + 1) : -1) {
+                poses.add(page.slots.get(slot));
+            }
+        }
+        if (!outliers.isEmpty()) {
+            Map<Integer, Pose> aside = outliers.subMap(from, true, to, true);
+            if (!aside.isEmpty()) {
+                poses.addAll(aside.values());
+                poses.sort(Comparator.comparingInt(Pose::getTime));
+            }
+        }
+        return poses;
+    }
+
+    /**
+     * Iterates over the poses in tick order without copying them. A pose added
+     * while iterating may or may not be seen.
+     *
+     * @return An iterator over the poses.
+     */
+    @Override
+    public Iterator<Pose> iterator() {
+        return new Iterator<Pose>() {
+            private final Directory current = directory;
+            private final Iterator<Pose> aside = outliers.values().iterator();
+            private int pageNumber = current.base;
+            private int slot = -1;
+            private Pose nextPaged = advance();
+            private Pose nextAside = aside.hasNext() ? aside.next() : null;
+
+            // Moves to the next pose in the pages, or null after the last one
+            private Pose advance() {
+                while (pageNumber <= current.last()) {
+                    Page page = current.pages.get(pageNumber - current.base);
+                    int next = page == null || slot + 1 == PAGE_SIZE ? -1 : page.ceiling(slot + 1);
+                    if (next >= 0) {
+                        slot = next;
+                        return page.slots.get(next);
+                    }
+                    pageNumber++;
+                    slot = -1;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return nextPaged != null || nextAside != null;
+            }
+
+            @Override
+            public Pose next() {
+                Pose pose;
+                if (nextPaged != null && (nextAside == null || nextPaged.getTime() < nextAside.getTime())) {
+                    pose = nextPaged;
+                    nextPaged = advance();
+                } else if (nextAside != null) {
+                    pose = nextAside;
+                    nextAside = aside.hasNext() ? aside.next() : null;
+                } else {
+                    throw new NoSuchElementException();
+                }
+                return pose;
+            }
+        };
+    }
+
+    public List<Pose> getUpTo(int tick) {
+        return getRange(0, tick);
+    }
+
+    public List<Pose> getAll() {
+        return getRange(0, maxTick);
+    }
+
+    public int getMaxTick() {
+        return maxTick;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        directory = new Directory(0, INITIAL_PAGES);
+        outliers.clear();
+        firstPage = -1;
+        lastPage = -1;
+        usedPages = 0;
+        maxTick = -1;
+        size = 0;
+    }
+
+    // functions for testing
+
+    // Returns how many poses were stored aside as outliers
+    public int getNumberOfOutliers() {
+        return outliers.size();
+    }
+}
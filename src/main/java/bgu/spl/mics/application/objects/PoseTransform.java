@@ -0,0 +1,71 @@
+package bgu.spl.mics.application.objects;
+
+/**
+ * The rigid transform from the robot's local frame to the global frame at a
+ * given pose. The trigonometry is computed once per pose, so many objects
+ * seen from the same pose share it.
+ * <p>
+ * Points are passed as packed x and y arrays and written into caller-supplied
+ * output arrays, so transforming a cloud allocates nothing. The loop is a plain
+ * indexed loop over the arrays, which the JIT can vectorize.
+ */
+// PoseTransform class
+public final class PoseTransform {
+    private final double cosYaw;
+    private final double sinYaw;
+    private final double translateX;
+    private final double translateY;
+
+    /**
+     * @param pose The robot's pose (yaw in degrees).
+     */
+    public PoseTransform(Pose pose) {
+        double yawRadians = Math.toRadians(pose.getYaw());
+        this.cosYaw = Math.cos(yawRadians);
+        this.sinYaw = Math.sin(yawRadians);
+        this.translateX = pose.getX();
+        this.translateY = pose.getY();
+    }
+
+    /**
+     * Transforms {@code length} points from local to global coordinates.
+     * The input and output arrays may be the same arrays.
+     *
+     * @pre All arrays hold at least {@code offset + length} values.
+     * @param localX  The local x coordinates.
+     * @param localY  The local y coordinates.
+     * @param globalX Receives the global x coordinates.
+     * @param globalY Receives the global y coordinates.
+     * @param offset  The index of the first point.
+     * @param length  The number of points.
+     */
+    public void apply(double[] localX, double[] localY, double[] globalX, double[] globalY, int offset, int length) {
+        double cos = cosYaw;
+        double sin = sinYaw;
+        double tx = translateX;
+        double ty = translateY;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            double x = localX[i];
+            double y = localY[i];
+            globalX[i] = x * cos - y * sin + tx;
+            globalY[i] = x * sin + y * cos + ty;
+        }
+    }
+
+    public double getCosYaw() {
+        return cosYaw;
+    }
+
+    public double getSinYaw() {
+        return sinYaw;
+    }
+
+    public double getTranslateX() {
+        return translateX;
+    }
+
+    public double getTranslateY() {
+        return translateY;
+    }
+}
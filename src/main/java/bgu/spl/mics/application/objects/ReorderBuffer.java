@@ -0,0 +1,148 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import bgu.spl.mics.application.messages.TrackedObjectsEvent;
+
+/**
+ * Puts the TrackedObjectsEvents of the LiDAR workers back in time order before
+ * they are fused.
+ * <p>
+ * A camera sends the objects it detected at tick t on tick t + its frequency,
+ * and a LiDAR worker sends their tracked objects on tick t + its own frequency,
+ * or right away if that tick has passed. So at tick T a worker can no longer
+ * send an event detected before T - max(largest camera frequency, its own
+ * frequency), minus a slack for the events still on their way through the
+ * message bus. That is the worker's progress.
+ * <p>
+ * A worker whose frequency is at least every camera's frequency schedules each
+ * event for a later tick than the detection came in, so it sends in detection
+ * order; once it delivered an event of time t, its events before t are in and
+ * its progress moves up to t - 1. A faster worker may send a later detection
+ * of a fast camera before an earlier one of a slow camera, so its progress
+ * follows the clock only.
+ * <p>
+ * The watermark is the smallest progress over the LiDAR workers that are still
+ * active: the events up to it are complete and are released together, sorted
+ * by (time, sender), so the order they are fused in does not depend on the
+ * order the worker threads ran in. An event that arrives after the watermark
+ * passed its time is late: it is released with the next batch and counted.
+ * Not thread safe, it is used by the FusionSlamService thread only.
+ */
+// ReorderBuffer class
+public class ReorderBuffer {
+    private static final Comparator<TrackedObjectsEvent> FUSION_ORDER = Comparator
+            .comparingInt(TrackedObjectsEvent::getTime)
+            .thenComparing(TrackedObjectsEvent::getSenderName);
+
+    private final TreeMap<Integer, List<TrackedObjectsEvent>> buckets = new TreeMap<>(); // by detection tick
+    private final Map<String, Integer> cameraDelays; // active camera -> frequency
+    private final Map<String, Integer> lidarDelays; // active LiDAR worker -> frequency
+    private final Map<String, Integer> delivered = new HashMap<>(); // LiDAR worker -> last delivered time - 1
+    private final int slackTicks;
+    private int releasedUpTo = Integer.MIN_VALUE; // the highest watermark released so far
+    private int size = 0;
+    private int lateEvents = 0;
+
+    /**
+     * @param cameraFrequencies The frequency of every camera, by service name.
+     * @param lidarFrequencies  The frequency of every LiDAR worker, by service
+     *                          name.
+     * @param slackTicks        How many ticks to hold events back in addition to
+     *                          the sensor frequencies, for a worker that has not
+     *                          delivered anything.
+     */
+    public ReorderBuffer(Map<String, Integer> cameraFrequencies, Map<String, Integer> lidarFrequencies,
+            int slackTicks) {
+        this.cameraDelays = new HashMap<>(cameraFrequencies);
+        this.lidarDelays = new HashMap<>(lidarFrequencies);
+        this.slackTicks = Math.max(0, slackTicks);
+    }
+
+    public void add(TrackedObjectsEvent event) {
+        if (event.getTime() <= releasedUpTo) {
+            lateEvents++;
+            System.out.println("ReorderBuffer: late event of time " + event.getTime() + " from "
+                    + event.getSenderName() + ", the watermark was " + releasedUpTo);
+        }
+        delivered.merge(event.getSenderName(), event.getTime() - 1, Math::max);
+        buckets.computeIfAbsent(event.getTime(), time -> new ArrayList<>()).add(event);
+        size++;
+    }
+
+    // A sensor that terminated sends nothing more and no longer holds the watermark back
+    public void sensorTerminated(String senderName) {
+        cameraDelays.remove(senderName);
+        lidarDelays.remove(senderName);
+    }
+
+    /**
+     * Returns the last detection tick whose events have all been received.
+     *
+     * @param currentTick The current tick.
+     * @return The watermark, Integer.MAX_VALUE once no LiDAR worker is active.
+     */
+    public int getWatermark(int currentTick) {
+        int maxCameraDelay = 0;
+        for (int delay : cameraDelays.values()) {
+            maxCameraDelay = Math.max(maxCameraDelay, delay);
+        }
+        int watermark = Integer.MAX_VALUE;
+        for (Map.Entry<String, Integer> lidar : lidarDelays.entrySet()) {
+            int delay = lidar.getValue();
+            int progress = currentTick - Math.max(maxCameraDelay, delay) - slackTicks; // it can no longer send before
+            Integer last = delivered.get(lidar.getKey());
+            if (last != null && delay >= maxCameraDelay) { // it sends in detection order
+                progress = Math.max(progress, last);
+            }
+            watermark = Math.min(watermark, progress);
+        }
+        return watermark;
+    }
+
+    /**
+     * Removes the events detected up to a watermark.
+     *
+     * @param watermark The last detection tick to release.
+     * @return The released events, sorted by (time, sender).
+     */
+    public List<TrackedObjectsEvent> releaseUpTo(int watermark) {
+        releasedUpTo = Math.max(releasedUpTo, watermark);
+        SortedMap<Integer, List<TrackedObjectsEvent>> complete = buckets.headMap(watermark, true);
+        if (complete.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<TrackedObjectsEvent> released = new ArrayList<>();
+        for (List<TrackedObjectsEvent> bucket : complete.values()) {
+            bucket.sort(FUSION_ORDER); // stable, so events of one sender keep their order
+            released.addAll(bucket);
+        }
+        size -= released.size();
+        complete.clear();
+        return released;
+    }
+
+    // Removes every buffered event, sorted by (time, sender)
+    public List<TrackedObjectsEvent> releaseAll() {
+        return releaseUpTo(Integer.MAX_VALUE);
+    }
+
+    // The number of events that arrived after the watermark passed their time
+    public int getLateEvents() {
+        return lateEvents;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
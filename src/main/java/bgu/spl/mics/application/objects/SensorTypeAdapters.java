@@ -0,0 +1,237 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streaming Gson type adapters for the sensor data types. The records are
+ * read token by token straight into their final objects, without reflection
+ * and without building JsonObject trees or List<Double> points on the way.
+ * Unknown fields are skipped.
+ */
+// SensorTypeAdapters class
+public final class SensorTypeAdapters {
+
+    private SensorTypeAdapters() {
+    }
+
+    /**
+     * @return A Gson instance with the sensor data adapters registered.
+     */
+    public static Gson createGson() {
+        return register(new GsonBuilder()).create();
+    }
+
+    public static GsonBuilder register(GsonBuilder builder) {
+        return builder
+                .registerTypeAdapter(StampedCloudPoints.class, new StampedCloudPointsAdapter().nullSafe())
+                .registerTypeAdapter(Pose.class, new PoseAdapter().nullSafe())
+                .registerTypeAdapter(DetectedObject.class, new DetectedObjectAdapter().nullSafe())
+                .registerTypeAdapter(StampedDetectedObject.class, new StampedDetectedObjectAdapter().nullSafe());
+    }
+
+    // {"time": 2, "id": "Wall_1", "cloudPoints": [[0.1176, 3.6969, 0.104], ...]}
+    static final class StampedCloudPointsAdapter extends TypeAdapter<StampedCloudPoints> {
+        @Override
+        public StampedCloudPoints read(JsonReader in) throws IOException {
+            int time = 0;
+            String id = null;
+            double[] coordinates = new double[16];
+            int numPoints = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "time":
+                        time = in.nextInt();
+                        break;
+                    case "id":
+                        id = in.nextString();
+                        break;
+                    case "cloudPoints":
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            in.beginArray();
+                            double x = 0;
+                            double y = 0;
+                            int dimension = 0;
+                            while (in.hasNext()) {
+                                if (dimension == 0) {
+                                    x = in.nextDouble();
+                                } else if (dimension == 1) {
+                                    y = in.nextDouble();
+                                } else {
+                                    in.skipValue(); // z is not used
+                                }
+                                dimension++;
+                            }
+                            in.endArray();
+                            if (dimension >= 2) { // Ensure at least X and Y coordinates are present
+                                if (2 * numPoints + 2 > coordinates.length) {
+                                    coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+                                }
+                                coordinates[2 * numPoints] = x;
+                                coordinates[2 * numPoints + 1] = y;
+                                numPoints++;
+                            }
+                        }
+                        in.endArray();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new StampedCloudPoints(time, id, coordinates, numPoints);
+        }
+
+        @Override
+        public void write(JsonWriter out, StampedCloudPoints value) throws IOException {
+            out.beginObject();
+            out.name("time").value(value.getTime());
+            out.name("id").value(value.getId());
+            out.name("cloudPoints").beginArray();
+            for (int i = 0; i < value.getNumPoints(); i++) {
+                out.beginArray().value(value.getX(i)).value(value.getY(i)).endArray();
+            }
+            out.endArray();
+            out.endObject();
+        }
+    }
+
+    // {"time": 1, "x": 0.0, "y": 0.0, "yaw": 0.0}
+    static final class PoseAdapter extends TypeAdapter<Pose> {
+        @Override
+        public Pose read(JsonReader in) throws IOException {
+            int time = 0;
+            float x = 0;
+            float y = 0;
+            float yaw = 0;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "time":
+                        time = in.nextInt();
+                        break;
+                    case "x":
+                        x = (float) in.nextDouble();
+                        break;
+                    case "y":
+                        y = (float) in.nextDouble();
+                        break;
+                    case "yaw":
+                        yaw = (float) in.nextDouble();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Pose(time, x, y, yaw);
+        }
+
+        @Override
+        public void write(JsonWriter out, Pose value) throws IOException {
+            out.beginObject();
+            out.name("time").value(value.getTime());
+            out.name("x").value(value.getX());
+            out.name("y").value(value.getY());
+            out.name("yaw").value(value.getYaw());
+            out.endObject();
+        }
+    }
+
+    // {"id": "Wall_1", "description": "Wall"}
+    static final class DetectedObjectAdapter extends TypeAdapter<DetectedObject> {
+        @Override
+        public DetectedObject read(JsonReader in) throws IOException {
+            String id = null;
+            String description = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        id = in.nextString();
+                        break;
+                    case "description":
+                        description = in.nextString();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new DetectedObject(id, description);
+        }
+
+        @Override
+        public void write(JsonWriter out, DetectedObject value) throws IOException {
+            out.beginObject();
+            out.name("id").value(value.getId());
+            out.name("description").value(value.getDescription());
+            out.endObject();
+        }
+    }
+
+    // {"time": 2, "detectedObjects": [{"id": "Wall_1", "description": "Wall"}, ...]}, a live record also
+    // has a "camera_key"
+    static final class StampedDetectedObjectAdapter extends TypeAdapter<StampedDetectedObject> {
+        private final DetectedObjectAdapter detectedObjectAdapter = new DetectedObjectAdapter();
+
+        @Override
+        public StampedDetectedObject read(JsonReader in) throws IOException {
+            int time = 0;
+            List<DetectedObject> detectedObjects = new ArrayList<>();
+            String cameraKey = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "time":
+                        time = in.nextInt();
+                        break;
+                    case "detectedObjects":
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            if (in.peek() == JsonToken.NULL) {
+                                in.nextNull();
+                            } else {
+                                detectedObjects.add(detectedObjectAdapter.read(in));
+                            }
+                        }
+                        in.endArray();
+                        break;
+                    case "camera_key":
+                        cameraKey = in.nextString();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new StampedDetectedObject(time, detectedObjects, cameraKey);
+        }
+
+        @Override
+        public void write(JsonWriter out, StampedDetectedObject value) throws IOException {
+            out.beginObject();
+            if (value.getCameraKey() != null) {
+                out.name("camera_key").value(value.getCameraKey());
+            }
+            out.name("time").value(value.getTime());
+            out.name("detectedObjects").beginArray();
+            for (DetectedObject detectedObject : value.getDetectedObjects()) {
+                detectedObjectAdapter.write(out, detectedObject);
+            }
+            out.endArray();
+            out.endObject();
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package bgu.spl.mics.application.objects;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Represents a group of cloud points corresponding to a specific timestamp.
  * Used by the LiDAR system to store and process point cloud data for tracked
  * objects.
+ * <p>
+ * The points are kept as a flat array of x, y pairs; the mapping is 2D, so
+ * other coordinates of a point (z) are not kept.
  */
 // StampedCloudPoints class
 
@@ -14,12 +18,29 @@ public class StampedCloudPoints {
     // fields
     private int time;
     private String id;
-    private List<List<Double>> cloudPoints;
+    private double[] coordinates; // x0, y0, x1, y1, ...
+    private int numPoints;
 
     public StampedCloudPoints(int time, String id, List<List<Double>> cloudPoints) {
+        this(time, id, new double[cloudPoints != null ? cloudPoints.size() * 2 : 0], 0);
+        if (cloudPoints != null) {
+            for (List<Double> point : cloudPoints) {
+                addCloudPoint(point);
+            }
+        }
+    }
+
+    /**
+     * @param time        The time of the record.
+     * @param id          The ID of the object.
+     * @param coordinates The x, y pairs of the points (used as is, not copied).
+     * @param numPoints   The number of points in {@code coordinates}.
+     */
+    public StampedCloudPoints(int time, String id, double[] coordinates, int numPoints) {
         this.time = time;
         this.id = id;
-        this.cloudPoints = cloudPoints;
+        this.coordinates = coordinates;
+        this.numPoints = numPoints;
     }
 
     // getters
@@ -31,38 +52,66 @@ public class StampedCloudPoints {
         return id;
     }
 
+    public int getNumPoints() {
+        return numPoints;
+    }
+
+    public double getX(int index) {
+        return coordinates[2 * index];
+    }
+
+    public double getY(int index) {
+        return coordinates[2 * index + 1];
+    }
+
+    /**
+     * Returns the points as [x, y] lists. The lists are built on every call.
+     *
+     * @return A list containing the x and y coordinates of each point.
+     */
     public List<List<Double>> getCloudPoints() {
+        List<List<Double>> cloudPoints = new ArrayList<>(numPoints);
+        for (int i = 0; i < numPoints; i++) {
+            cloudPoints.add(Arrays.asList(getX(i), getY(i)));
+        }
         return cloudPoints;
     }
 
     /**
-     * Adds a single cloud point as a List<Double> to the cloudPoints list.
+     * Adds a single cloud point given as a List<Double>.
      * 
      * @param cloudPoint A list containing the x and y coordinates of the point.
      */
     public void addCloudPoint(List<Double> cloudPoint) {
-        cloudPoints.add(cloudPoint);
+        if (cloudPoint.size() >= 2) { // Ensure at least X and Y coordinates are present
+            addCloudPoint(cloudPoint.get(0), cloudPoint.get(1));
+        }
+    }
+
+    public void addCloudPoint(double x, double y) {
+        if (2 * numPoints + 2 > coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, Math.max(8, coordinates.length * 2));
+        }
+        coordinates[2 * numPoints] = x;
+        coordinates[2 * numPoints + 1] = y;
+        numPoints++;
     }
 
     /**
-     * Converts the List<List<Double>> to a List<CloudPoint>.
+     * Converts the points to a List<CloudPoint>.
      * 
      * @return A list of CloudPoint objects.
      */
     public List<CloudPoint> listToCloudPoints() {
-        List<CloudPoint> cloudPointList = new ArrayList<>();
-        for (List<Double> point : cloudPoints) {
-            if (point.size() >= 2) { // Ensure at least X and Y coordinates are present
-                double x = point.get(0);
-                double y = point.get(1);
-                cloudPointList.add(new CloudPoint(x, y));
-            }
+        List<CloudPoint> cloudPointList = new ArrayList<>(numPoints);
+        for (int i = 0; i < numPoints; i++) {
+            cloudPointList.add(new CloudPoint(getX(i), getY(i)));
         }
         return cloudPointList;
     }
 
     @Override
     public String toString() {
-        return "StampedCloudPoints{id='" + id + "', time=" + time + ", cloudPoints=" + cloudPoints + "}";
+        return "StampedCloudPoints{id='" + id + "', time=" + time + ", cloudPoints=" + getCloudPoints() + "}";
     }
-}
\ No newline at end of file
+}
@@ -9,11 +9,18 @@ public class StampedDetectedObject {
 
     private int time; // The time when objects were detected
     private List<DetectedObject> detectedObjects; // List of objects detected at the given time
+    private String cameraKey; // The camera of a live record, null in a per-camera list
 
     // Constructor for StampedDetectedObject
     public StampedDetectedObject(int time, List<DetectedObject> detectedObjects) {
+        this(time, detectedObjects, null);
+    }
+
+    // Constructor for a live record, which names its camera
+    public StampedDetectedObject(int time, List<DetectedObject> detectedObjects, String cameraKey) {
         this.time = time;
         this.detectedObjects = detectedObjects;
+        this.cameraKey = cameraKey;
     }
 
     // Getters and setters
@@ -29,4 +36,8 @@ public class StampedDetectedObject {
     public int getTime() {
         return time;
     }
+
+    public String getCameraKey() {
+        return cameraKey;
+    }
 }
\ No newline at end of file
@@ -74,11 +74,20 @@ public class StatisticalFolder {
         return numLandmarks.get();
     }
 
+    // Restores the statistics of a checkpoint when a run is resumed
+    public void restore(int systemRuntime, int numDetectedObjects, int numTrackedObjects, int numLandmarks) {
+        this.systemRuntime.set(systemRuntime);
+        this.numDetectedObjects.set(numDetectedObjects);
+        this.numTrackedObjects.set(numTrackedObjects);
+        this.numLandmarks.set(numLandmarks);
+    }
+
     // Add a reset method for testing
     public void reset() {
         systemRuntime.set(0);
         numDetectedObjects.set(0);
         numTrackedObjects.set(0);
         numLandmarks.set(0);
+        lastFrames.clear();
     }
 }
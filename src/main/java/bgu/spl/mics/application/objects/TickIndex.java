@@ -0,0 +1,152 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Indexes sensor frames by the tick they belong to, so a sensor can find the
+ * frame of the current tick without scanning all of its frames.
+ * <p>
+ * When the ticks are compact the frames are kept in a dense array indexed by
+ * {@code tick - minTick}. When they are sparse the frames are kept sorted by
+ * tick together with a cursor that moves forward with the clock, so a run that
+ * asks for the ticks in order pays O(1) per lookup.
+ * <p>
+ * If several frames share a tick, the first one in the original list is kept.
+ * Lookups are done by the single service that owns the index. A sparse index
+ * may additionally be appended to by one other thread (live replay); appended
+ * frames are published safely, lookups see them once they are appended.
+ *
+ * @param <T> The type of the indexed frames.
+ */
+// TickIndex class
+public class TickIndex<T> {
+    // Use the dense layout while it wastes at most this many slots per frame
+    private static final int DENSITY_FACTOR = 4;
+
+    private final boolean dense;
+    private final int minTick;
+    private volatile int size; // number of indexed frames (distinct ticks)
+    private volatile Object[] frames; // dense: by tick - minTick, sparse: sorted by tick
+    private volatile int[] ticks; // sparse only: the tick of each frame
+    private int cursor; // sparse only: index of the first frame not before the last asked tick
+
+    /**
+     * @param items  The frames to index (not modified).
+     * @param tickOf Extracts the tick of a frame.
+     */
+    public TickIndex(List<T> items, ToIntFunction<T> tickOf) {
+        List<T> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparingInt(tickOf)); // stable, keeps the first frame of a tick first
+        int distinct = 0;
+        int min = 0;
+        int max = -1;
+        for (T item : sorted) {
+            int tick = tickOf.applyAsInt(item);
+            if (distinct == 0 || tick != max) {
+                if (distinct == 0) {
+                    min = tick;
+                }
+                max = tick;
+                distinct++;
+            }
+        }
+        long span = (long) max - min + 1;
+        this.size = distinct;
+        this.minTick = min;
+        this.dense = distinct > 0 && span <= (long) DENSITY_FACTOR * distinct;
+        if (dense) {
+            Object[] frames = new Object[(int) span];
+            this.ticks = null;
+            for (T item : sorted) {
+                int slot = tickOf.applyAsInt(item) - min;
+                if (frames[slot] == null) {
+                    frames[slot] = item;
+                }
+            }
+            this.frames = frames;
+        } else {
+            Object[] frames = new Object[distinct];
+            int[] ticks = new int[distinct];
+            int n = 0;
+            for (T item : sorted) {
+                int tick = tickOf.applyAsInt(item);
+                if (n == 0 || ticks[n - 1] != tick) {
+                    ticks[n] = tick;
+                    frames[n] = item;
+                    n++;
+                }
+            }
+            this.frames = frames;
+            this.ticks = ticks;
+        }
+        this.cursor = 0;
+    }
+
+    /**
+     * Appends a frame after the last indexed frame. Frames must be appended in
+     * tick order; a frame for a tick that is already indexed is ignored.
+     *
+     * @pre The index is sparse (an index built from an empty list is sparse).
+     * @param item The frame to append.
+     * @param tick The tick of the frame.
+     */
+    public void append(T item, int tick) {
+        if (dense) {
+            throw new IllegalStateException("A dense TickIndex cannot be appended to");
+        }
+        int n = size;
+        if (n > 0 && ticks[n - 1] >= tick) {
+            return; // already indexed, or out of order
+        }
+        if (n == ticks.length) {
+            int capacity = Math.max(16, n * 2);
+            // Copy before publishing, so a reader never sees a partially filled array
+            Object[] grownFrames = Arrays.copyOf(frames, capacity);
+            int[] grownTicks = Arrays.copyOf(ticks, capacity);
+            frames = grownFrames;
+            ticks = grownTicks;
+        }
+        frames[n] = item;
+        ticks[n] = tick;
+        size = n + 1; // publishes the new frame
+    }
+
+    /**
+     * Returns the frame of the given tick.
+     *
+     * @param tick The tick to look up.
+     * @return The frame of that tick, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int tick) {
+        if (dense) {
+            Object[] frames = this.frames;
+            int slot = tick - minTick;
+            return slot >= 0 && slot < frames.length ? (T) frames[slot] : null;
+        }
+        int n = size; // read the size first, the arrays below hold at least n frames
+        int[] ticks = this.ticks;
+        if (cursor > 0 && ticks[cursor - 1] >= tick) {
+            // The clock moved backwards, find the new cursor position
+            int pos = Arrays.binarySearch(ticks, 0, n, tick);
+            cursor = pos >= 0 ? pos : -pos - 1;
+        } else {
+            while (cursor < n && ticks[cursor] < tick) {
+                cursor++;
+            }
+        }
+        return cursor < n && ticks[cursor] == tick ? (T) this.frames[cursor] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isDense() {
+        return dense;
+    }
+}
@@ -1,16 +1,16 @@
 package bgu.spl.mics.application.services;
 
-import java.util.ArrayDeque;
-import java.util.Queue;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.application.messages.CrashedBroadcast;
 import bgu.spl.mics.application.messages.DetectObjectsEvent;
 import bgu.spl.mics.application.messages.TerminatedBroadcast;
 import bgu.spl.mics.application.messages.TickBroadcast;
 import bgu.spl.mics.application.objects.Camera;
+import bgu.spl.mics.application.objects.LiDarRouter;
 import bgu.spl.mics.application.objects.StampedDetectedObject;
 import bgu.spl.mics.application.objects.STATUS;
 import bgu.spl.mics.application.objects.StatisticalFolder;
+import java.util.Map;
 
 /**
  * CameraService is responsible for processing data from the camera and
@@ -23,15 +23,30 @@ import bgu.spl.mics.application.objects.StatisticalFolder;
 // camera service class
 public class CameraService extends MicroService {
     private final Camera camera;
-    private Queue<DetectObjectsEvent> eventQueue;
+    private LiDarRouter lidarRouter; // null when any LiDAR worker can track any object
 
     public CameraService(Camera camera) {
         super("CameraService" + camera.getId());
         this.camera = camera;
-        this.eventQueue = new ArrayDeque<>();
 
     }
 
+    /**
+     * Splits every frame between the LiDAR workers that own the objects'
+     * data, instead of sending it to the next worker in the round-robin. Set
+     * before the service starts.
+     *
+     * @param lidarRouter The router of the LiDAR workers.
+     */
+    public void setLiDarRouter(LiDarRouter lidarRouter) {
+        this.lidarRouter = lidarRouter;
+    }
+
+    // The frequency of the camera, how many ticks its data trails the clock
+    public int getFrequency() {
+        return camera.getFrequency();
+    }
+
     @Override
     protected void initialize() {
         // Subscribe to TickBroadcast
@@ -48,21 +63,16 @@ public class CameraService extends MicroService {
                 } else {
                     if (detectedObject != null) {
                         int sendTime = currentTime + camera.getFrequency();
-                        DetectObjectsEvent event = new DetectObjectsEvent(detectedObject, getName(), sendTime);
-                        eventQueue.add(event);
-                    }
-                    // Process events that are ready to be sent
-                    while (!eventQueue.isEmpty()) {
-                        DetectObjectsEvent event = eventQueue.peek();
-                        if (event.getSendTime() > currentTime) {
-                            break; // If the first event is not ready, stop processing
+                        if (lidarRouter == null) {
+                            // The message bus sends it right before the tick of sendTime
+                            sendDetectedObjects(detectedObject, sendTime, null);
+                        } else {
+                            // Each LiDAR worker gets the objects it has the cloud points of
+                            for (Map.Entry<String, StampedDetectedObject> part : lidarRouter.route(detectedObject)
+                                    .entrySet()) {
+                                sendDetectedObjects(part.getValue(), sendTime, part.getKey());
+                            }
                         }
-                        DetectObjectsEvent readyEvent = eventQueue.poll(); // Remove the first event (FIFO)
-                        sendEvent(readyEvent);
-                        System.out.println(getName() + ": sent DetectObjectsEvent from time "
-                                + event.getStampedDetectedObjects().getTime());
-                        StatisticalFolder.getInstance().updateNumDetectedObjects(
-                                readyEvent.getStampedDetectedObjects().getDetectedObjects().size());
                     }
                 }
                 if (camera.getStatus() == STATUS.DOWN) {
@@ -96,4 +106,13 @@ public class CameraService extends MicroService {
         });
 
     }
-}
\ No newline at end of file
+
+    // Sends a frame at sendTime, to the named LiDAR worker or round-robin if target is null
+    private void sendDetectedObjects(StampedDetectedObject detectedObject, int sendTime, String target) {
+        DetectObjectsEvent event = new DetectObjectsEvent(detectedObject, getName(), sendTime);
+        sendEventAt(event, sendTime, target, () -> {
+            System.out.println(getName() + ": sent DetectObjectsEvent from time " + detectedObject.getTime());
+            StatisticalFolder.getInstance().updateNumDetectedObjects(detectedObject.getDetectedObjects().size());
+        });
+    }
+}
@@ -1,9 +1,9 @@
 package bgu.spl.mics.application.services;
 
 import bgu.spl.mics.*;
-import java.util.PriorityQueue;
 import java.nio.file.Paths;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.List;
 import bgu.spl.mics.application.objects.*;
 import bgu.spl.mics.application.messages.*;
 
@@ -15,9 +15,12 @@ import bgu.spl.mics.application.messages.*;
 
 public class FusionSlamService extends MicroService {
     private final FusionSlam fusionSlam;
-    private PriorityQueue<TrackedObjectsEvent> TrackedObjectsQueue = new PriorityQueue<>(
-            Comparator.comparingInt(e -> e.getTrackedObjects().get(0).getTime()));
+    private final PendingFusionBuffer pendingEvents = new PendingFusionBuffer(); // events waiting for their pose
     private String outputFilePath;
+    private final int maxPoseWaitTicks; // negative: wait for the pose as long as it takes
+    private final MapCheckpointer checkpointer; // null unless checkpoints are enabled
+    private final ReorderBuffer reorderBuffer; // null unless events are fused in time order
+    private int currentTick = 0;
 
     /**
      * Constructor for FusionSlamService.
@@ -26,9 +29,61 @@ public class FusionSlamService extends MicroService {
      *                   map.
      */
     public FusionSlamService(FusionSlam fusionSlam, String configDirectory) {
+        this(fusionSlam, configDirectory, -1);
+    }
+
+    /**
+     * Constructor for FusionSlamService with a bounded wait for poses.
+     *
+     * @param fusionSlam       The FusionSLAM object responsible for managing the
+     *                         global map.
+     * @param configDirectory  The directory of the output file.
+     * @param maxPoseWaitTicks How many ticks a TrackedObjectsEvent waits for its
+     *                         pose before it is fused with the nearest known
+     *                         pose (negative to wait as long as it takes).
+     */
+    public FusionSlamService(FusionSlam fusionSlam, String configDirectory, int maxPoseWaitTicks) {
+        this(fusionSlam, configDirectory, maxPoseWaitTicks, null);
+    }
+
+    /**
+     * Constructor for FusionSlamService with periodic map checkpoints.
+     *
+     * @param fusionSlam       The FusionSLAM object responsible for managing the
+     *                         global map.
+     * @param configDirectory  The directory of the output file.
+     * @param maxPoseWaitTicks How many ticks a TrackedObjectsEvent waits for its
+     *                         pose (negative to wait as long as it takes).
+     * @param checkpointer     Takes a checkpoint on the ticks it is due (may be
+     *                         null).
+     */
+    public FusionSlamService(FusionSlam fusionSlam, String configDirectory, int maxPoseWaitTicks,
+            MapCheckpointer checkpointer) {
+        this(fusionSlam, configDirectory, maxPoseWaitTicks, checkpointer, null);
+    }
+
+    /**
+     * Constructor for FusionSlamService that fuses the TrackedObjectsEvents in
+     * time order.
+     *
+     * @param fusionSlam       The FusionSLAM object responsible for managing the
+     *                         global map.
+     * @param configDirectory  The directory of the output file.
+     * @param maxPoseWaitTicks How many ticks a TrackedObjectsEvent waits for its
+     *                         pose (negative to wait as long as it takes).
+     * @param checkpointer     Takes a checkpoint on the ticks it is due (may be
+     *                         null).
+     * @param reorderBuffer    Holds the events until the watermark passes them
+     *                         (null to fuse them in arrival order).
+     */
+    public FusionSlamService(FusionSlam fusionSlam, String configDirectory, int maxPoseWaitTicks,
+            MapCheckpointer checkpointer, ReorderBuffer reorderBuffer) {
         super("FusionSlamService");
         this.fusionSlam = FusionSlam.getInstance();
         this.outputFilePath = Paths.get(configDirectory, "output_file.json").toString();
+        this.maxPoseWaitTicks = maxPoseWaitTicks;
+        this.checkpointer = checkpointer;
+        this.reorderBuffer = reorderBuffer;
     }
 
     /**
@@ -40,9 +95,12 @@ public class FusionSlamService extends MicroService {
         // Register for TrackedObjectsEvent
         subscribeEvent(TrackedObjectsEvent.class, event -> {
             System.out.println(getName() + ": recived TrackedObjectsEvent");
-            if (fusionSlam.getPoseAtTime(event.getTrackedObjects().get(0).getTime()) == null) {
+            if (reorderBuffer != null) {
+                reorderBuffer.add(event); // fused once the watermark passes it
+                fuseInOrder(reorderBuffer.releaseUpTo(reorderBuffer.getWatermark(currentTick)));
+            } else if (fusionSlam.resolvePose(event.getTime()) == null) {
                 System.out.println("this event had no pose");
-                TrackedObjectsQueue.add(event);
+                pendingEvents.add(event, currentTick);
             } else {
                 fusionSlam.processTrackedObjects(event.getTrackedObjects());
                 System.out.println(getName() + "processed TrackedObjectsEvent from time" + event.getTime());
@@ -57,41 +115,60 @@ public class FusionSlamService extends MicroService {
             fusionSlam.addPose(event.getPose());
             System.out.println("PoseEvent from " + event.getPose().getTime() + " has been processed in: " + getName());
             complete(event, true);
-            // Process all TrackedObjectsEvents in the queue that have a corresponding Pose
-            while (!TrackedObjectsQueue.isEmpty()) {
-                int trackedObjectsTime = TrackedObjectsQueue.peek().getTime();
-                // Check if there is a Pose available for the given time and process the event
-                if (fusionSlam.getPoseAtTime(trackedObjectsTime) != null) {
-                    TrackedObjectsEvent e = TrackedObjectsQueue.poll();
+            // Process the TrackedObjectsEvents that were waiting for this Pose
+            if (!pendingEvents.isEmpty()) {
+                int poseTick = event.getPose().getTime();
+                List<TrackedObjectsEvent> released;
+                if (fusionSlam.isPoseInterpolation()) {
+                    // the new pose resolves the ticks between it and the known poses next to it
+                    Pose before = fusionSlam.getPoseBefore(poseTick);
+                    Pose after = fusionSlam.getPoseAfter(poseTick);
+                    released = pendingEvents.release(before == null ? poseTick : before.getTime() + 1,
+                            after == null ? poseTick : after.getTime() - 1);
+                } else {
+                    released = pendingEvents.release(poseTick);
+                }
+                for (TrackedObjectsEvent e : released) {
                     fusionSlam.processTrackedObjects(e.getTrackedObjects());
                     System.out
                             .println("the poseevent has been processed in: " + getName() + " at time: " + e.getTime());
                     complete(e, true);
-                } else {
-                    // Stop processing if the required Pose is not available
-                    break;
                 }
             }
         });
-        ;
 
         // Register for TickBroadcast
         subscribeBroadcast(TickBroadcast.class, broadcast -> {
             System.out.println(getName() + ": recived a tickBrodcast, tick: " + broadcast.getTime());
-            int currentTick = broadcast.getTime();
+            currentTick = broadcast.getTime();
             fusionSlam.setTick(currentTick);
-
+            if (reorderBuffer != null) {
+                fuseInOrder(reorderBuffer.releaseUpTo(reorderBuffer.getWatermark(currentTick)));
+            }
+            fuseExpiredEvents();
+            // Between messages no batch is being fused, so the checkpoint is consistent
+            if (checkpointer != null && checkpointer.isDue(currentTick)) {
+                checkpointer.checkpoint(currentTick);
+            }
+            if (fusionSlam.isOccupancyUpdateDue(currentTick)) {
+                fusionSlam.appendOccupancyUpdates(currentTick);
+            }
         });
 
         // Register for TerminatedBroadcast
         subscribeBroadcast(TerminatedBroadcast.class, broadcast -> {
             if (broadcast.getSenderName() != "TimeService ") {
+                if (reorderBuffer != null) {
+                    reorderBuffer.sensorTerminated(broadcast.getSenderName());
+                    fuseInOrder(reorderBuffer.releaseUpTo(reorderBuffer.getWatermark(currentTick)));
+                }
                 fusionSlam.decreaseServiceCounter();
                 System.out.println(getName() + ": service counter is " + fusionSlam.getserviceCounter()
                         + "termineted sensor: " + broadcast.getSenderName());
                 if (fusionSlam.getserviceCounter() == 0) {
                     System.out.println(getName() + ": terminate program, service counter is 0");
                     terminate();
+                    closeCheckpointer();
                     System.out.println(getName() + ": has terminated");
                     System.out.println(getName() + ": is printing an output file");
                     fusionSlam.generateOutputFileWithoutError(outputFilePath);
@@ -103,10 +180,67 @@ public class FusionSlamService extends MicroService {
         subscribeBroadcast(CrashedBroadcast.class, broadcast -> {
             System.out.println(getName() + ": recived CrashedBroadcast from " + broadcast.getSenderName());
             terminate();
+            if (reorderBuffer != null) {
+                fuseInOrder(reorderBuffer.releaseAll()); // what was received before the crash is in the map
+            }
+            closeCheckpointer();
             String errorDescription = broadcast.getErrorMessage(); // Populate if isError = true
             String faultySensor = broadcast.getSenderName(); // Populate if isError = true
             System.out.println(getName() + ": is printing an error output file");
             fusionSlam.generateOutputFileWithError(outputFilePath, errorDescription, faultySensor);
         });
     }
+
+    /**
+     * Fuses events released by the reorder buffer as a single batch, in the
+     * order given. An event whose pose has not arrived yet waits for it as
+     * usual.
+     *
+     * @param events The events, sorted by (time, sender).
+     */
+    private void fuseInOrder(List<TrackedObjectsEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<TrackedObjectsEvent> ready = new ArrayList<>(events.size());
+        List<TrackedObject> batch = new ArrayList<>();
+        for (TrackedObjectsEvent event : events) {
+            if (fusionSlam.resolvePose(event.getTime()) == null) {
+                pendingEvents.add(event, currentTick);
+            } else {
+                ready.add(event);
+                batch.addAll(event.getTrackedObjects());
+            }
+        }
+        fusionSlam.processTrackedObjects(batch);
+        System.out.println(getName() + ": fused " + ready.size() + " TrackedObjectsEvents in time order");
+        for (TrackedObjectsEvent event : ready) {
+            complete(event, true);
+        }
+    }
+
+    // Writes the pending checkpoints and log records before the output file
+    private void closeCheckpointer() {
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
+        FusionWriteAheadLog log = fusionSlam.getWriteAheadLog();
+        if (log != null) {
+            fusionSlam.setWriteAheadLog(null);
+            log.close();
+        }
+    }
+
+    // Fuses the parked events that waited too long for their pose, using the nearest pose
+    private void fuseExpiredEvents() {
+        if (maxPoseWaitTicks < 0 || pendingEvents.isEmpty()) {
+            return;
+        }
+        for (TrackedObjectsEvent e : pendingEvents.evictParkedUpTo(currentTick - maxPoseWaitTicks)) {
+            fusionSlam.processTrackedObjects(e.getTrackedObjects(), true);
+            System.out.println(getName() + ": fused TrackedObjectsEvent from time " + e.getTime()
+                    + " with the nearest pose after waiting " + maxPoseWaitTicks + " ticks");
+            complete(e, true);
+        }
+    }
 }
\ No newline at end of file
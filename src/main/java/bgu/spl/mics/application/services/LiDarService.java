@@ -10,9 +10,7 @@ import bgu.spl.mics.application.objects.LiDarWorkerTracker;
 import bgu.spl.mics.application.objects.STATUS;
 import bgu.spl.mics.application.objects.TrackedObject;
 import bgu.spl.mics.application.objects.StatisticalFolder;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /**
  * LiDarService is responsible for processing data from the LiDAR sensor and
@@ -28,13 +26,15 @@ import java.util.PriorityQueue;
 public class LiDarService extends MicroService {
 
     private final LiDarWorkerTracker lidarWorkerTracker;
-    private PriorityQueue<TrackedObjectsEvent> TOeventQueue;
 
     public LiDarService(String name, LiDarWorkerTracker lidarWorkerTracker) {
         super(name);
         this.lidarWorkerTracker = lidarWorkerTracker;
-        this.TOeventQueue = new PriorityQueue<>(Comparator.comparingInt(event -> event.getTime()));
+    }
 
+    // The frequency of the LiDAR worker, how many ticks its data trails the clock
+    public int getFrequency() {
+        return lidarWorkerTracker.getFrequency();
     }
 
     @Override
@@ -46,23 +46,8 @@ public class LiDarService extends MicroService {
                 return;
             }
             lidarWorkerTracker.updateTick(currentTime);
-            while (!TOeventQueue.isEmpty()) {
-                TrackedObjectsEvent event = TOeventQueue.peek();
-                if (event.getDesignatedTime() > currentTime) {
-                    break;
-                }
-                TrackedObjectsEvent readyEvent = TOeventQueue.poll();
-                complete(readyEvent.getHandeledEvent(), true);
-                lidarWorkerTracker.setLastTrackedObjects(readyEvent.getTrackedObjects());// update the last tracked
-                                                                                         // objects
-                System.out.println(getName() + ": sent TrackedObjectsEvent at time" + currentTime
-                        + "for object from time" + event.getTime());
-                System.out.println(getName() + ": sent an event");
-                sendEvent(readyEvent);
-                StatisticalFolder.getInstance().updateNumDetectedObjects(readyEvent.getTrackedObjects().size());
-
-            }
-            if (TOeventQueue.isEmpty() && (lidarWorkerTracker.getStatus() == STATUS.DOWN)) {
+            // The events due at this tick were sent by the message bus before the tick
+            if (getNumberOfDelayedEvents() == 0 && (lidarWorkerTracker.getStatus() == STATUS.DOWN)) {
                 System.out.println(getName() + ": is down, finished and terminated");
                 terminate();
                 sendBroadcast(new TerminatedBroadcast(getName()));
@@ -96,27 +81,24 @@ public class LiDarService extends MicroService {
                 } else {
                     int designatedTime = event.getStampedDetectedObjects().getTime()
                             + lidarWorkerTracker.getFrequency();
-                    int currTime = lidarWorkerTracker.getCurrentTick();
                     TrackedObjectsEvent toSendEvent = (new TrackedObjectsEvent(event,
                             event.getStampedDetectedObjects().getTime(), TrackedObjects, getName(), designatedTime));
-                    if (designatedTime <= currTime) { ///// ----------לבדוק תנאי ראשון
+                    // Sent right away if the designated tick has passed, otherwise by the message bus
+                    sendEventAt(toSendEvent, designatedTime, () -> {
                         complete(event, true);
-                        System.out.println(getName() + ": sent TrackedObjectsEvent at: " + currTime
-                                + "for object from time: " + event.getStampedDetectedObjects().getTime());
-                        sendEvent(toSendEvent);
+                        System.out.println(getName() + ": sent TrackedObjectsEvent for object from time: "
+                                + toSendEvent.getTime());
                         lidarWorkerTracker.setLastTrackedObjects(TrackedObjects);// update the last tracked objects
                         StatisticalFolder.getInstance().updateNumTrackedObjects(TrackedObjects.size());
                         StatisticalFolder.getInstance().updateLastFrame(getName(), toSendEvent);
-                    } else {
-                        TOeventQueue.add(toSendEvent);
-                    }
+                    });
                 }
-                if (TOeventQueue.isEmpty() && lidarWorkerTracker.getStatus() == STATUS.DOWN) {
+                if (getNumberOfDelayedEvents() == 0 && lidarWorkerTracker.getStatus() == STATUS.DOWN) {
                     System.out.println(getName() + ": is down, finished and terminated");
                     terminate();
                     sendBroadcast(new TerminatedBroadcast(getName()));
                 }
-            } else if (TOeventQueue.isEmpty()) {
+            } else if (getNumberOfDelayedEvents() == 0) {
                 System.out.println(getName() + ": is down, finished and terminated");
                 terminate();
                 sendBroadcast(new TerminatedBroadcast(getName()));
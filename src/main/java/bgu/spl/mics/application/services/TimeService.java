@@ -5,6 +5,7 @@ import bgu.spl.mics.application.messages.TerminatedBroadcast;
 import bgu.spl.mics.application.messages.TickBroadcast;
 import bgu.spl.mics.application.messages.CrashedBroadcast;
 import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.LiveReplay;
 import bgu.spl.mics.application.objects.StatisticalFolder;
 
 /**
@@ -17,6 +18,8 @@ public class TimeService extends MicroService {
 
     private final int tickTime; // Duration of each tick in milliseconds
     private final int duration; // Total number of ticks
+    private final LiveReplay liveReplay; // null unless the sensor data is replayed live
+    private final int firstTick; // 1, or the tick after the checkpoint of a resumed run
 
     /**
      * Constructor for TimeService.
@@ -25,9 +28,35 @@ public class TimeService extends MicroService {
      * @param duration The total number of ticks before the service terminates.
      */
     public TimeService(int tickTime, int duration) {
+        this(tickTime, duration, null);
+    }
+
+    /**
+     * Constructor for TimeService in live replay mode. A tick is broadcast only
+     * once every live stream has delivered its records up to that tick.
+     *
+     * @param tickTime   The duration of each tick in milliseconds.
+     * @param duration   The total number of ticks before the service terminates.
+     * @param liveReplay The live sensor streams (may be null).
+     */
+    public TimeService(int tickTime, int duration, LiveReplay liveReplay) {
+        this(tickTime, duration, liveReplay, 1);
+    }
+
+    /**
+     * Constructor for TimeService of a run resumed from a checkpoint.
+     *
+     * @param tickTime   The duration of each tick in milliseconds.
+     * @param duration   The total number of ticks before the service terminates.
+     * @param liveReplay The live sensor streams (may be null).
+     * @param firstTick  The first tick to broadcast.
+     */
+    public TimeService(int tickTime, int duration, LiveReplay liveReplay, int firstTick) {
         super("TimeService");
         this.tickTime = tickTime;
         this.duration = duration;
+        this.liveReplay = liveReplay;
+        this.firstTick = Math.max(1, Math.min(firstTick, duration));
     }
 
     /**
@@ -50,6 +79,7 @@ public class TimeService extends MicroService {
             if (currentTick < duration && !FusionSlam.getInstance().isTerminated() && !isterminated()) {
                 try {
                     Thread.sleep(tickTime * 1000L);
+                    awaitLiveData(currentTick + 1);
                     sendBroadcast(new TickBroadcast(currentTick + 1, duration));
                     int sentTick = currentTick + 1;
                     System.out.println("TimeService broadcasted Tick: " + sentTick);
@@ -68,9 +98,25 @@ public class TimeService extends MicroService {
             }
         });
 
-        sendBroadcast(new TickBroadcast(1, duration));
+        try {
+            awaitLiveData(firstTick);
+        } catch (InterruptedException e) {
+            System.out.println("TimeService interrupted before the first Tick");
+            Thread.currentThread().interrupt();
+            terminate();
+            sendBroadcast(new TerminatedBroadcast(getName()));
+            return;
+        }
+        sendBroadcast(new TickBroadcast(firstTick, duration));
         StatisticalFolder.getInstance().IncrementSystemRuntime();
         ;
 
     }
+
+    // In live replay mode, waits until the sensors have their data for the tick
+    private void awaitLiveData(int tick) throws InterruptedException {
+        if (liveReplay != null) {
+            liveReplay.awaitTick(tick);
+        }
+    }
 }
\ No newline at end of file
@@ -2,16 +2,32 @@ package bgu.spl;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
 
 import bgu.spl.mics.application.objects.CloudPoint;
+import bgu.spl.mics.application.objects.FusionShards;
 import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.FusionWriteAheadLog;
 import bgu.spl.mics.application.objects.LandMark;
+import bgu.spl.mics.application.objects.MapCheckpoint;
+import bgu.spl.mics.application.objects.MapCheckpointer;
+import bgu.spl.mics.application.objects.MapSnapshot;
 import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.PoseStore;
 import bgu.spl.mics.application.objects.TrackedObject;
 
+import com.google.gson.Gson;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class FusionSlamTest {
@@ -21,6 +37,7 @@ class FusionSlamTest {
     @BeforeEach
     void setUp() {
         fusionSlam = FusionSlam.getInstance();
+        fusionSlam.reset();
     }
 
     /**
@@ -41,6 +58,400 @@ class FusionSlamTest {
         assertEquals(pose2, fusionSlam.getPoseAtTime(2), "Pose at time 2 should match.");
     }
 
+    /**
+     * Test: Retrieves the poses up to a tick in tick order.
+     * Pre-Condition: Poses are added out of order, with ticks far apart.
+     * Post-Condition: Only the poses up to the tick are returned, sorted by tick.
+     * Invariant: Every added pose can still be looked up by its tick.
+     */
+    @Test
+    void testPosesUpToTickInOrder() {
+        Pose pose3 = new Pose(3, 3, 3, 0);
+        Pose pose1 = new Pose(1, 1, 1, 0);
+        Pose pose200 = new Pose(200, 2, 2, 0);
+        fusionSlam.addPose(pose3);
+        fusionSlam.addPose(pose200);
+        fusionSlam.addPose(pose1);
+
+        assertEquals(Arrays.asList(pose1, pose3), fusionSlam.getPosesUpToTick(150), "Poses should be in order.");
+        assertEquals(Arrays.asList(pose1, pose3, pose200), fusionSlam.getAllPoses(), "All poses should be in order.");
+        assertEquals(pose200, fusionSlam.getPoseAtTime(200), "Pose at time 200 should match.");
+        assertNull(fusionSlam.getPoseAtTime(2), "No pose should exist at time 2.");
+    }
+
+    /**
+     * Test: A far or corrupt tick does not size the pose store.
+     * Pre-Condition: Poses are added at ticks 5, 3, 70000 and near
+     * Integer.MAX_VALUE.
+     * Post-Condition: Every pose is found by its tick, in ranges and as a
+     * floor or ceiling, in tick order.
+     * Invariant: The size counts each tick once.
+     */
+    @Test
+    void testPoseStoreWithFarTicks() {
+        PoseStore store = new PoseStore();
+        Pose pose5 = new Pose(5, 5, 5, 0);
+        Pose pose3 = new Pose(3, 3, 3, 0);
+        Pose far = new Pose(70000, 7, 7, 0);
+        Pose corrupt = new Pose(Integer.MAX_VALUE - 1, 9, 9, 0);
+        store.add(pose5);
+        store.add(corrupt);
+        store.add(pose3);
+        store.add(far);
+        store.add(new Pose(Integer.MAX_VALUE - 1, 9, 9, 0));
+
+        assertEquals(4, store.size(), "A replaced pose should be counted once.");
+        assertEquals(pose3, store.get(3));
+        assertEquals(far, store.get(70000));
+        assertEquals(Integer.MAX_VALUE - 1, store.get(Integer.MAX_VALUE - 1).getTime());
+        assertNull(store.get(4));
+        assertEquals(Arrays.asList(pose3, pose5, far), store.getUpTo(100000), "Poses should be in order.");
+        assertEquals(4, store.getAll().size());
+        assertEquals(pose5, store.getFloor(69999));
+        assertEquals(far, store.getCeiling(6));
+        assertEquals(far, store.getFloor(Integer.MAX_VALUE - 2));
+        assertEquals(Integer.MAX_VALUE - 1, store.getMaxTick());
+        assertEquals(1, store.getNumberOfOutliers(), "Only the corrupt tick should be stored aside.");
+        List<Pose> iterated = new ArrayList<>();
+        store.forEach(iterated::add);
+        assertEquals(store.getAll(), iterated, "Iterating should give the poses in tick order.");
+    }
+
+    /**
+     * Test: A long run keeps every pose in the pages, and the nearest pose is
+     * found across a gap.
+     * Pre-Condition: Poses are added at ticks 1 to 100000, then at 1000000 and
+     * 3000000.
+     * Post-Condition: No pose is stored aside; every pose is found by its tick,
+     * and the floor and ceiling of a tick in a gap are its neighbours.
+     * Invariant: The poses are returned in tick order.
+     */
+    @Test
+    void testPoseStoreLongRun() {
+        PoseStore store = new PoseStore();
+        for (int tick = 1; tick <= 100000; tick++) {
+            store.add(new Pose(tick, tick, 0, 0));
+        }
+        store.add(new Pose(1000000, 1, 1, 0));
+        store.add(new Pose(3000000, 5, 5, 0));
+
+        assertEquals(0, store.getNumberOfOutliers(), "A long run should not be stored aside.");
+        assertEquals(100002, store.size());
+        for (int tick = 1; tick <= 100000; tick++) {
+            assertEquals(tick, store.get(tick).getTime());
+        }
+        assertEquals(100000, store.getFloor(999999).getTime());
+        assertEquals(1000000, store.getCeiling(100001).getTime());
+        assertEquals(3000000, store.getCeiling(1000001).getTime());
+        assertEquals(1000000, store.getFloor(2999999).getTime());
+        assertNull(store.getCeiling(3000001));
+        assertNull(store.getFloor(0));
+        List<Pose> range = store.getRange(99990, 2000000);
+        assertEquals(12, range.size());
+        assertEquals(99990, range.get(0).getTime());
+        assertEquals(1000000, range.get(11).getTime());
+        assertEquals(100002, store.getAll().size());
+    }
+
+    /**
+     * Test: Interpolates a pose between two known poses.
+     * Pre-Condition: Poses exist at ticks 2 and 6, the yaw crosses 180 degrees.
+     * Post-Condition: x/y are linear in time and the yaw takes the shorter arc,
+     * staying in [-180, 180).
+     * Invariant: Without interpolation the missing pose stays unknown.
+     */
+    @Test
+    void testPoseInterpolation() {
+        fusionSlam.addPose(new Pose(2, 0, 0, 170));
+        fusionSlam.addPose(new Pose(6, 4, -8, -170));
+        assertNull(fusionSlam.resolvePose(3), "Without interpolation only exact poses are known.");
+
+        fusionSlam.setPoseInterpolation(true);
+        Pose pose = fusionSlam.resolvePose(3);
+        assertNotNull(pose, "The pose should be interpolated.");
+        assertEquals(3, pose.getTime(), "The interpolated pose should have the asked time.");
+        assertEquals(1, pose.getX(), 1e-5, "X should be interpolated linearly.");
+        assertEquals(-2, pose.getY(), 1e-5, "Y should be interpolated linearly.");
+        assertEquals(175, pose.getYaw(), 1e-4, "Yaw should move along the shorter arc.");
+        Pose wrapped = fusionSlam.resolvePose(5);
+        assertEquals(-175, wrapped.getYaw(), 1e-4, "Yaw past 180 degrees should wrap to -180.");
+        assertNull(fusionSlam.resolvePose(7), "No pose should be known after the last pose.");
+        assertEquals(6, fusionSlam.getNearestPose(7).getTime(), "The nearest pose should be the last one.");
+    }
+
+    /**
+     * Test: Associates objects with unstable ids by their position.
+     * Pre-Condition: A landmark exists; objects with new ids are seen near it
+     * and far from it.
+     * Post-Condition: The near object updates the landmark, the far one creates
+     * a new landmark; with the gate off, a near object with a new id creates a
+     * new landmark too.
+     * Invariant: Objects are not merged when association is off.
+     */
+    @Test
+    void testGeometricAssociation() {
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        fusionSlam.processTrackedObjects(Arrays.asList(new TrackedObject("Wall_1", 1, "Wall",
+                Arrays.asList(new CloudPoint(1, 1), new CloudPoint(2, 1)))));
+        fusionSlam.setAssociationGate(0.5);
+
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("obj_17", 1, "Wall", Arrays.asList(new CloudPoint(1.2, 1.1), new CloudPoint(2, 1.1))),
+                new TrackedObject("obj_18", 1, "Door", Arrays.asList(new CloudPoint(8, 8)))));
+
+        List<LandMark> landmarks = fusionSlam.getLandmarks();
+        assertEquals(2, landmarks.size(), "Only the far object should create a landmark.");
+        assertEquals("Wall_1", landmarks.get(0).getId(), "The near object should update Wall_1.");
+        assertEquals(1.1, landmarks.get(0).getCoordinates().get(0).getX(), 1e-9, "Wall_1 should be averaged.");
+        assertEquals("obj_18", landmarks.get(1).getId(), "The far object should be a new landmark.");
+
+        fusionSlam.setAssociationGate(-1);
+        fusionSlam.processTrackedObjects(Arrays.asList(new TrackedObject("obj_19", 1, "Wall",
+                Arrays.asList(new CloudPoint(1.1, 1.1), new CloudPoint(2, 1.1)))));
+        landmarks = fusionSlam.getLandmarks();
+        assertEquals(3, landmarks.size(), "Without the gate a new id should be a new landmark.");
+        assertEquals("obj_19", landmarks.get(2).getId());
+        assertEquals(1.1, landmarks.get(0).getCoordinates().get(0).getX(), 1e-9, "Wall_1 should not change.");
+    }
+
+    /**
+     * Test: Every observation of a landmark carries the same weight.
+     * Pre-Condition: The same landmark is observed three times.
+     * Post-Condition: Each point is the mean of its three observations.
+     * Invariant: The number of landmarks stays one.
+     */
+    @Test
+    void testObservationsAreEquallyWeighted() {
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        for (int x = 0; x <= 6; x += 3) {
+            fusionSlam.processTrackedObjects(Arrays.asList(new TrackedObject("Wall_1", 1, "Wall",
+                    Arrays.asList(new CloudPoint(x, 1)))));
+        }
+
+        LandMark landmark = fusionSlam.getLandmarks().get(0);
+        assertEquals(1, fusionSlam.getLandmarks().size(), "All observations should update Wall_1.");
+        assertEquals(3.0, landmark.getX(0), 1e-9, "The point should be the mean of 0, 3 and 6.");
+        assertEquals(3, landmark.getObservationCount(0), "The point should count three observations.");
+    }
+
+    /**
+     * Test: Checkpoints hold only the changes and a resumed map matches the
+     * original.
+     * Pre-Condition: Two checkpoints are taken, the second after one landmark
+     * changed.
+     * Post-Condition: The second delta holds only that landmark, and the map
+     * restored from the checkpoints continues its running means.
+     * Invariant: Landmark ids are unchanged by a resume.
+     */
+    @Test
+    void testCheckpointDeltaAndResume(@TempDir Path directory) throws IOException {
+        MapCheckpointer checkpointer = new MapCheckpointer(fusionSlam, directory.toString(), 1, 3);
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Wall_1", 1, "Wall", Arrays.asList(new CloudPoint(0, 1))),
+                new TrackedObject("Door_1", 1, "Door", Arrays.asList(new CloudPoint(5, 5)))));
+        checkpointer.checkpoint(1);
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Wall_1", 1, "Wall", Arrays.asList(new CloudPoint(3, 1)))));
+        checkpointer.checkpoint(2);
+        checkpointer.close();
+        try (Reader reader = Files.newBufferedReader(directory.resolve("checkpoint-000002.delta.json"))) {
+            MapCheckpoint delta = new Gson().fromJson(reader, MapCheckpoint.class);
+            assertEquals(1, delta.getLandmarks().size(), "Only Wall_1 changed since the first checkpoint.");
+        }
+
+        fusionSlam.reset();
+        fusionSlam.restore(MapCheckpointer.loadLatest(directory.toString()));
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Wall_1", 1, "Wall", Arrays.asList(new CloudPoint(6, 1)))));
+
+        assertEquals(2, fusionSlam.getLandmarks().size(), "Both landmarks should be restored.");
+        assertEquals(3.0, fusionSlam.getLandmarks().get(0).getX(0), 1e-9, "The mean should continue after a resume.");
+    }
+
+    /**
+     * Test: The changes of a checkpoint that cannot be written are written with
+     * the next one.
+     * Pre-Condition: The temporary file of the first checkpoint is blocked by a
+     * non-empty directory, so its write fails.
+     * Post-Condition: The next checkpoint holds both landmarks of the failed one
+     * and the map loaded from disk has them.
+     * Invariant: A failed write leaves no checkpoint file.
+     */
+    @Test
+    void testFailedCheckpointIsWrittenWithTheNext(@TempDir Path directory) throws IOException {
+        Path blocker = directory.resolve("checkpoint-000001.delta.json.tmp");
+        Files.createDirectories(blocker.resolve("in-the-way"));
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Wall_1", 1, "Wall", Arrays.asList(new CloudPoint(0, 1))),
+                new TrackedObject("Door_1", 1, "Door", Arrays.asList(new CloudPoint(5, 5)))));
+        MapCheckpointer failing = new MapCheckpointer(fusionSlam, directory.toString(), 1, 3);
+        failing.checkpoint(1);
+        failing.close();
+        assertNull(MapCheckpointer.loadLatest(directory.toString()), "The failed checkpoint should not be on disk.");
+
+        Files.delete(blocker.resolve("in-the-way"));
+        Files.delete(blocker);
+        MapCheckpointer checkpointer = new MapCheckpointer(fusionSlam, directory.toString(), 1, 3);
+        checkpointer.checkpoint(2);
+        checkpointer.close();
+        MapCheckpoint loaded = MapCheckpointer.loadLatest(directory.toString());
+
+        assertEquals(2, loaded.getLandmarks().size(), "The changes of the failed checkpoint should not be lost.");
+        assertEquals(1, loaded.getPoses().size(), "The pose of the failed checkpoint should not be lost.");
+    }
+
+    /**
+     * Test: The write-ahead log is kept until the changes of a failed checkpoint
+     * are on disk.
+     * Pre-Condition: The log is attached; the first checkpoint fails and a
+     * second one is taken before the failure is fixed.
+     * Post-Condition: No log segment is deleted, and a map rebuilt from the log
+     * alone has both landmarks; once a checkpoint is written again only its
+     * own segment is left and the checkpoint has both landmarks.
+     * Invariant: The checkpoint files on disk are an unbroken chain.
+     */
+    @Test
+    void testWriteAheadLogKeptAfterFailedCheckpoint(@TempDir Path directory) throws IOException {
+        Path checkpoints = directory.resolve("checkpoints");
+        Path logs = directory.resolve("wal");
+        Path blocker = checkpoints.resolve("checkpoint-000001.delta.json.tmp");
+        Files.createDirectories(blocker.resolve("in-the-way"));
+        FusionWriteAheadLog log = new FusionWriteAheadLog(logs.toString(), 0, 1, 1024, false);
+        fusionSlam.setWriteAheadLog(log);
+        MapCheckpointer failing = new MapCheckpointer(fusionSlam, checkpoints.toString(), 1, 3);
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Wall_1", 1, "Wall", Arrays.asList(new CloudPoint(0, 1)))));
+        failing.checkpoint(1);
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Door_1", 1, "Door", Arrays.asList(new CloudPoint(5, 5)))));
+        failing.checkpoint(2);
+        failing.close();
+
+        assertEquals(-1, failing.getChainTick(), "No checkpoint should be on disk.");
+        assertEquals(3, countFiles(logs), "Every log segment should be kept.");
+        fusionSlam.setWriteAheadLog(null);
+        log.close();
+        fusionSlam.reset();
+        FusionWriteAheadLog.replay(logs.toString(), 0, fusionSlam);
+        assertEquals(2, fusionSlam.getLandmarks().size(), "The log should still hold both landmarks.");
+
+        Files.delete(blocker.resolve("in-the-way"));
+        Files.delete(blocker);
+        log = new FusionWriteAheadLog(logs.toString(), 2, 1, 1024, false);
+        fusionSlam.setWriteAheadLog(log);
+        MapCheckpointer checkpointer = new MapCheckpointer(fusionSlam, checkpoints.toString(), 1, 3);
+        checkpointer.checkpoint(3);
+        checkpointer.close();
+        fusionSlam.setWriteAheadLog(null);
+        log.close();
+
+        assertEquals(3, checkpointer.getChainTick());
+        assertEquals(1, countFiles(logs), "Only the segment after the checkpoint should be left.");
+        assertEquals(2, MapCheckpointer.loadLatest(checkpoints.toString()).getLandmarks().size());
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    /**
+     * Test: Replaying the write-ahead log rebuilds the map.
+     * Pre-Condition: Poses and observations are fused while the log is attached.
+     * Post-Condition: A reset map rebuilt from the log has the same landmarks,
+     * means and poses.
+     * Invariant: The log does not change the fused map.
+     */
+    @Test
+    void testWriteAheadLogReplay(@TempDir Path directory) throws IOException {
+        FusionWriteAheadLog log = new FusionWriteAheadLog(directory.toString(), 0, 1, 1024, false);
+        fusionSlam.setWriteAheadLog(log);
+        fusionSlam.setTick(1);
+        fusionSlam.addPose(new Pose(1, 1, 0, 90));
+        for (int x = 0; x <= 6; x += 3) {
+            fusionSlam.processTrackedObjects(Arrays.asList(new TrackedObject("Wall_1", 1, "Wall",
+                    Arrays.asList(new CloudPoint(x, 1), new CloudPoint(x, 2)))));
+        }
+        List<CloudPoint> expected = fusionSlam.getLandmarks().get(0).getCoordinates();
+        fusionSlam.setWriteAheadLog(null);
+        log.close();
+
+        fusionSlam.reset();
+        int lastTick = FusionWriteAheadLog.replay(directory.toString(), 0, fusionSlam);
+
+        assertEquals(1, lastTick, "The last logged tick should be returned.");
+        assertNotNull(fusionSlam.getPoseAtTime(1), "The pose should be replayed.");
+        List<CloudPoint> replayed = fusionSlam.getLandmarks().get(0).getCoordinates();
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getX(), replayed.get(i).getX(), 1e-12, "X should match after replay.");
+            assertEquals(expected.get(i).getY(), replayed.get(i).getY(), 1e-12, "Y should match after replay.");
+        }
+    }
+
+    /**
+     * Test: Every fused batch publishes a new immutable snapshot that shares the
+     * unchanged landmarks.
+     * Pre-Condition: Two landmarks are fused, then only one of them is updated.
+     * Post-Condition: The old snapshot is unchanged, the new one has the update
+     * and reuses the copy of the other landmark.
+     * Invariant: Snapshot versions only grow.
+     */
+    @Test
+    void testSnapshotsShareUnchangedLandmarks() {
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Wall_1", 1, "Wall", Arrays.asList(new CloudPoint(0, 1))),
+                new TrackedObject("Door_1", 1, "Door", Arrays.asList(new CloudPoint(5, 5)))));
+        MapSnapshot before = fusionSlam.getSnapshot();
+
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Wall_1", 1, "Wall", Arrays.asList(new CloudPoint(2, 1)))));
+        MapSnapshot after = fusionSlam.getSnapshot();
+
+        assertTrue(after.getVersion() > before.getVersion(), "A new version should be published.");
+        assertEquals(0.0, before.get(0).getX(0), 1e-9, "The old snapshot should not change.");
+        assertEquals(1.0, after.get(0).getX(0), 1e-9, "The new snapshot should have the update.");
+        assertSame(before.get(1), after.get(1), "The unchanged landmark should be shared.");
+        assertEquals(Arrays.asList("Wall_1", "Door_1"), Arrays.asList(after.get(0).getId(), after.get(1).getId()),
+                "Snapshot order should be the order the landmarks were added.");
+    }
+
+    /**
+     * Test: A snapshot deeper than one level shares the untouched branches.
+     * Pre-Condition: More landmarks are fused than two trie levels hold, then
+     * one of them is updated.
+     * Post-Condition: Every landmark is found at its position, and the new
+     * version reuses the copies of the landmarks in other branches.
+     * Invariant: The old snapshot is unchanged.
+     */
+    @Test
+    void testSnapshotTrieLevels() {
+        int count = 32 * 32 + 5;
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        List<TrackedObject> objects = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            objects.add(new TrackedObject("obj_" + i, 1, "Box", Arrays.asList(new CloudPoint(i, 0))));
+        }
+        fusionSlam.processTrackedObjects(objects);
+        MapSnapshot before = fusionSlam.getSnapshot();
+        assertEquals(count, before.size(), "Every landmark should be in the snapshot.");
+        for (int i = 0; i < count; i++) {
+            assertEquals("obj_" + i, before.get(i).getId(), "Landmark " + i + " should keep its position.");
+        }
+
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("obj_40", 1, "Box", Arrays.asList(new CloudPoint(42, 0)))));
+        MapSnapshot after = fusionSlam.getSnapshot();
+        assertEquals(40.0, before.get(40).getX(0), 1e-9, "The old snapshot should not change.");
+        assertEquals(41.0, after.get(40).getX(0), 1e-9, "The new snapshot should have the update.");
+        assertSame(before.get(41), after.get(41), "A landmark in the same leaf should be shared.");
+        assertSame(before.get(count - 1), after.get(count - 1), "A landmark in another branch should be shared.");
+    }
+
     /**
      * Test: Transforms local coordinates to global coordinates.
      * Pre-Condition: Pose is available for transformation.
@@ -102,4 +513,129 @@ class FusionSlamTest {
         List<LandMark> landmarks = fusionSlam.getLandmarks();
         assertTrue(landmarks.isEmpty(), "No landmarks should be added if pose is missing.");
     }
-}
\ No newline at end of file
+
+    /**
+     * Test: Fuses the same batch serially and in parallel.
+     * Pre-Condition: Poses exist for every object; ids repeat within the batch.
+     * Post-Condition: Both runs produce the same landmarks in the same order.
+     * Invariant: Updates of a landmark are applied in batch order.
+     */
+    @Test
+    void testParallelFusionMatchesSerial() {
+        List<TrackedObject> batch = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int time = 1 + i % 3;
+            batch.add(new TrackedObject("L" + (i * 7) % 23, time, "Landmark", Arrays.asList(
+                    new CloudPoint(i, i % 5),
+                    new CloudPoint(i % 11, 2 * i))));
+        }
+
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        fusionSlam.addPose(new Pose(2, 1, 2, 30));
+        fusionSlam.addPose(new Pose(3, -1, 4, 90));
+        fusionSlam.processTrackedObjects(batch);
+        List<LandMark> serial = fusionSlam.getLandmarks();
+
+        fusionSlam.reset();
+        fusionSlam.setParallelFusionThreshold(1);
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        fusionSlam.addPose(new Pose(2, 1, 2, 30));
+        fusionSlam.addPose(new Pose(3, -1, 4, 90));
+        fusionSlam.processTrackedObjects(batch);
+        List<LandMark> parallel = fusionSlam.getLandmarks();
+
+        assertEquals(serial.size(), parallel.size(), "Both runs should create the same landmarks.");
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.get(i).getId(), parallel.get(i).getId(), "Landmark order should match.");
+            List<CloudPoint> expected = serial.get(i).getCoordinates();
+            List<CloudPoint> actual = parallel.get(i).getCoordinates();
+            assertEquals(expected.size(), actual.size(), "Point count should match.");
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).getX(), actual.get(j).getX(), "X should match exactly.");
+                assertEquals(expected.get(j).getY(), actual.get(j).getY(), "Y should match exactly.");
+            }
+        }
+    }
+
+    /**
+     * Test: Fuses the same two batches with one fusion thread and with 4 shards.
+     * Pre-Condition: Poses exist for every object; the landmarks cover several
+     * tiles and their centroids move across tiles as they are observed.
+     * Post-Condition: After the merge both runs have the same landmarks, in the
+     * same order, with the same coordinates.
+     * Invariant: Every landmark is owned by one shard at a time.
+     */
+    @Test
+    void testShardedFusionMatchesSerial() {
+        List<TrackedObject> batch = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            batch.add(new TrackedObject("L" + (i * 7) % 23, 1 + i % 3, "Landmark", Arrays.asList(
+                    new CloudPoint(i, i % 5),
+                    new CloudPoint(i % 11, 2 * i))));
+        }
+
+        List<List<LandMark>> runs = new ArrayList<>();
+        for (int shards : new int[] { 0, 4 }) {
+            fusionSlam.reset();
+            fusionSlam.setFusionShards(shards, 2.0);
+            fusionSlam.addPose(new Pose(1, 0, 0, 0));
+            fusionSlam.addPose(new Pose(2, 1, 2, 30));
+            fusionSlam.addPose(new Pose(3, -1, 4, 90));
+            fusionSlam.processTrackedObjects(batch.subList(0, 100));
+            fusionSlam.processTrackedObjects(batch.subList(100, 200));
+            fusionSlam.mergeShards();
+            runs.add(fusionSlam.getLandmarks());
+        }
+        FusionShards fusionShards = fusionSlam.getFusionShards();
+        assertTrue(runs.get(1).stream().map(landmark -> fusionShards.getOwner(landmark.getId())).distinct()
+                .count() > 1, "The landmarks should be spread over several shards.");
+        assertTrue(fusionShards.getNumberOfHandOffs() > 0, "Some landmarks should move to another shard.");
+
+        List<LandMark> serial = runs.get(0);
+        List<LandMark> sharded = runs.get(1);
+        assertEquals(serial.size(), sharded.size(), "Both runs should create the same landmarks.");
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(serial.get(i).getId(), sharded.get(i).getId(), "Landmark order should match.");
+            List<CloudPoint> expected = serial.get(i).getCoordinates();
+            List<CloudPoint> actual = sharded.get(i).getCoordinates();
+            assertEquals(expected.size(), actual.size(), "Point count should match.");
+            for (int j = 0; j < expected.size(); j++) {
+                // around a hand-off the order of two observations may differ, which only changes rounding
+                assertEquals(expected.get(j).getX(), actual.get(j).getX(), 1e-9, "X should match.");
+                assertEquals(expected.get(j).getY(), actual.get(j).getY(), 1e-9, "Y should match.");
+            }
+        }
+        assertEquals(serial.size(), fusionSlam.getSnapshot().size(), "The merge should publish a snapshot.");
+    }
+
+    /**
+     * Test: A geometric match across a tile boundary is fused by the shard that
+     * owns the landmark.
+     * Pre-Condition: Geometric association is on; a landmark lies just left of
+     * a tile boundary and a new object with another id just right of it, in a
+     * tile of another shard.
+     * Post-Condition: The object updates the landmark instead of creating one.
+     * Invariant: The landmark stays in the shard of its centroid's tile.
+     */
+    @Test
+    void testShardedAssociationAcrossTiles() {
+        fusionSlam.setFusionShards(8, 1.0);
+        fusionSlam.setAssociationGate(0.5);
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Wall_1", 1, "Wall", Arrays.asList(new CloudPoint(0.8, 0.5)))));
+        fusionSlam.mergeShards(); // the landmark is fused and indexed before the next object
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Wall_2", 1, "Wall", Arrays.asList(new CloudPoint(1.05, 0.5)))));
+        fusionSlam.mergeShards();
+
+        FusionShards fusionShards = fusionSlam.getFusionShards();
+        assertNotEquals(fusionShards.getOwner("Wall_1"), fusionShards.getOwner("Wall_2"),
+                "The two positions should be in tiles of different shards.");
+        List<LandMark> landmarks = fusionSlam.getLandmarks();
+        assertEquals(1, landmarks.size(), "The object should match the landmark across the boundary.");
+        assertEquals("Wall_1", landmarks.get(0).getId());
+        assertEquals(0.925, landmarks.get(0).getX(0), 1e-9, "The landmark should have both observations.");
+        assertEquals(fusionShards.getOwner("Wall_1"), 0, "The landmark should stay in the shard of its tile.");
+    }
+}
@@ -0,0 +1,68 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import bgu.spl.mics.application.objects.GPSIMU;
+import bgu.spl.mics.application.objects.InputFiles;
+import bgu.spl.mics.application.objects.Pose;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InputFilesTest {
+
+    private static final String POSES = "[{\"time\": 1, \"x\": 0.5, \"y\": -1.25, \"yaw\": 90.0},"
+            + " {\"time\": 2, \"x\": 1.5, \"y\": -2.25, \"yaw\": -87.48}]";
+
+    /**
+     * Test: A gzipped input file is read as its decompressed text.
+     * Pre-Condition: A pose file is gzipped under an upper-case ".GZ" name and
+     * the default locale is Turkish.
+     * Post-Condition: The reader returns the original text, and the poses load
+     * as from the plain file.
+     * Invariant: Whether a file is gzipped does not depend on the default
+     * locale.
+     */
+    @Test
+    void testReadGzippedFile(@TempDir Path directory) throws IOException {
+        Path plain = directory.resolve("pose_data.json");
+        Path gzipped = directory.resolve("POSE_DATA.JSON.GZ");
+        Files.write(plain, POSES.getBytes(StandardCharsets.UTF_8));
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipped))) {
+            out.write(POSES.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertTrue(InputFiles.isGzipped(gzipped.toString()));
+            assertFalse(InputFiles.isGzipped(plain.toString()));
+            try (Reader reader = InputFiles.openReader(gzipped.toString())) {
+                assertEquals(POSES, new BufferedReader(reader).readLine(), "The text should be decompressed.");
+            }
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+
+        GPSIMU gpsimu = new GPSIMU();
+        List<Pose> fromPlain = gpsimu.loadPosesFromFile(plain.toString());
+        List<Pose> fromGzipped = gpsimu.loadPosesFromFile(gzipped.toString());
+        assertEquals(2, fromGzipped.size());
+        for (int i = 0; i < fromPlain.size(); i++) {
+            assertEquals(fromPlain.get(i).getTime(), fromGzipped.get(i).getTime());
+            assertEquals(fromPlain.get(i).getYaw(), fromGzipped.get(i).getYaw());
+        }
+        assertEquals(-87.48f, fromGzipped.get(1).getYaw());
+    }
+}
@@ -0,0 +1,103 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import bgu.spl.mics.application.objects.CloudPoint;
+import bgu.spl.mics.application.objects.LandMark;
+import bgu.spl.mics.application.objects.LandmarkGrid;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LandmarkGridTest {
+
+    private static List<LandMark> randomLandmarks(Random random, int count) {
+        List<LandMark> landmarks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double x = random.nextDouble() * 40 - 20;
+            double y = random.nextDouble() * 40 - 20;
+            landmarks.add(new LandMark("L" + i, "Landmark", Arrays.asList(
+                    new CloudPoint(x, y),
+                    new CloudPoint(x + random.nextDouble(), y + random.nextDouble()))));
+        }
+        return landmarks;
+    }
+
+    /**
+     * Test: Range and nearest queries match a full scan of the landmarks.
+     * Pre-Condition: 300 random landmarks are indexed in a grid of 1.5 cells.
+     * Post-Condition: Both queries return the same landmarks as the full scan.
+     * Invariant: Results are ordered by distance.
+     */
+    @Test
+    void testQueriesMatchFullScan() {
+        Random random = new Random(7);
+        List<LandMark> landmarks = randomLandmarks(random, 300);
+        LandmarkGrid grid = new LandmarkGrid(1.5);
+        for (LandMark landmark : landmarks) {
+            grid.update(landmark);
+        }
+
+        for (int q = 0; q < 20; q++) {
+            double x = random.nextDouble() * 50 - 25;
+            double y = random.nextDouble() * 50 - 25;
+            List<LandMark> byDistance = new ArrayList<>(landmarks);
+            byDistance.sort(Comparator.comparingDouble(l -> LandmarkGrid.distance(l, x, y)));
+
+            List<LandMark> inRange = new ArrayList<>();
+            for (LandMark landmark : byDistance) {
+                if (LandmarkGrid.distance(landmark, x, y) <= 4) {
+                    inRange.add(landmark);
+                }
+            }
+            assertEquals(inRange, grid.queryRange(x, y, 4), "Range query should match the full scan.");
+            assertEquals(byDistance.subList(0, 5), grid.queryNearest(x, y, 5), "Nearest query should match.");
+        }
+    }
+
+    /**
+     * Test: A landmark is found at its new place after it moved.
+     * Pre-Condition: A landmark is indexed, then its coordinates change.
+     * Post-Condition: It is found around its new position only.
+     * Invariant: The grid holds one entry per landmark.
+     */
+    @Test
+    void testUpdateMovesLandmark() {
+        LandmarkGrid grid = new LandmarkGrid(1.0);
+        LandMark landmark = new LandMark("L1", "Landmark", Arrays.asList(new CloudPoint(0, 0)));
+        grid.update(landmark);
+        landmark.setCoordinates(Arrays.asList(new CloudPoint(10, 10)));
+        grid.update(landmark);
+
+        assertEquals(1, grid.size(), "The landmark should be indexed once.");
+        assertTrue(grid.queryRange(0, 0, 1).isEmpty(), "The old position should be empty.");
+        assertEquals(Arrays.asList(landmark), grid.queryRange(10, 10, 1), "The new position should find it.");
+    }
+
+    /**
+     * Test: Landmarks without points never hold a nearest search back.
+     * Pre-Condition: Only a landmark with no points is indexed, then a second
+     * landmark with a point is added.
+     * Post-Condition: The first search returns nothing, the second returns the
+     * landmark with the point.
+     * Invariant: Both searches return.
+     */
+    @Test
+    void testNearestIgnoresLandmarksWithoutPoints() {
+        LandmarkGrid grid = new LandmarkGrid(1.0);
+        grid.update(new LandMark("E", "empty", new ArrayList<>()));
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertTrue(grid.queryNearest(0, 0, 1).isEmpty(), "A landmark without points cannot be found.");
+
+            LandMark wall = new LandMark("W", "Wall", Arrays.asList(new CloudPoint(3, 4)));
+            grid.update(wall);
+            assertEquals(Arrays.asList(wall), grid.queryNearest(0, 0, 2), "Only the wall has a point.");
+        });
+    }
+}
@@ -2,14 +2,21 @@ package bgu.spl;
 
 import bgu.spl.mics.application.messages.*;
 import bgu.spl.mics.application.objects.*;
+import bgu.spl.mics.application.GurionRockRunner;
 import bgu.spl.mics.application.services.LiDarService;
 import bgu.spl.mics.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 
 class LiDarServiceTest {
@@ -22,7 +29,7 @@ class LiDarServiceTest {
     void setUp() {
         // Pre-Condition: LiDAR worker tracker is initialized with valid ID and
         // frequency.
-        mockTracker = new LiDarWorkerTracker(1, 5, "testFilePath"); // ID = 1, frequency = 5
+        mockTracker = new LiDarWorkerTracker(1, 5, "testFilePath", 10); // ID = 1, frequency = 5
         lidarService = new LiDarService("LiDarServiceTest", mockTracker);
         eventQueue = new PriorityQueue<>((a, b) -> Integer.compare(a.getTime(), b.getTime()));
     }
@@ -108,7 +115,29 @@ class LiDarServiceTest {
         lidarService.testTerminate();
 
         // Post-Condition
-        assertTrue(lidarService.isTerminated(), "Service should be terminated.");
+        assertTrue(lidarService.isterminated(), "Service should be terminated.");
+    }
+
+    /**
+     * Test: A fault declared for the worker is detected at its tick only.
+     * Pre-Condition: A fault is scheduled at tick 3.
+     * Post-Condition: The worker stays UP at tick 2 and moves to ERROR at tick 3.
+     * Invariant: The shared LiDAR data base is not modified.
+     */
+    @Test
+    void testDeclaredFaultSetsError() {
+        // Pre-Condition
+        mockTracker.getFaultSchedule().addFault(3, "LiDar disconnected");
+
+        // Action
+        mockTracker.checkForErrorInCloudPointsAtTime(2);
+        assertEquals(STATUS.UP, mockTracker.getStatus(), "Status should be UP before the fault.");
+        mockTracker.checkForErrorInCloudPointsAtTime(3);
+
+        // Post-Condition
+        assertEquals(STATUS.ERROR, mockTracker.getStatus(), "Status should be ERROR at the fault tick.");
+        assertTrue(LiDarDataBase.getInstance("testFilePath").getFaultSchedule().isEmpty(),
+                "The data base schedule should not change.");
     }
 
     /**
@@ -129,4 +158,130 @@ class LiDarServiceTest {
         // Post-Condition
         assertEquals(1, mockTracker.getCurrentTick(), "Current tick should be updated.");
     }
-}
\ No newline at end of file
+
+    /**
+     * Test: A large frame is tracked in parallel.
+     * Pre-Condition: A worker with a parallel threshold of 8 and cloud points for
+     * 500 objects at tick 4.
+     * Post-Condition: The tracked objects are returned in frame order with their
+     * own cloud points, and the data base counter drops by one per object.
+     * Invariant: The result is the same as tracking the frame serially.
+     */
+    @Test
+    void testParallelTrackingKeepsFrameOrder() {
+        LiDarDataBase dataBase = LiDarDataBase.live();
+        List<DetectedObject> detectedObjects = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            dataBase.append(new StampedCloudPoints(4, "obj" + i, new double[] { i, -i }, 1));
+            detectedObjects.add(new DetectedObject("obj" + i, "Object " + i));
+        }
+        LiDarWorkerTracker tracker = new LiDarWorkerTracker(2, 1, dataBase, 10);
+        tracker.setParallelTrackingThreshold(8);
+
+        List<TrackedObject> trackedObjects = tracker.prosseingEvent(new StampedDetectedObject(4, detectedObjects));
+
+        assertEquals(500, trackedObjects.size());
+        for (int i = 0; i < 500; i++) {
+            TrackedObject trackedObject = trackedObjects.get(i);
+            assertEquals("obj" + i, trackedObject.getId(), "Objects should stay in frame order.");
+            assertEquals(i, trackedObject.getCoordinates().get(0).getX());
+            assertEquals(-i, trackedObject.getCoordinates().get(0).getY());
+        }
+        assertEquals(0, dataBase.getCounter(), "Every object should be counted once.");
+    }
+
+    /**
+     * Test: Several LiDAR workers with their own data files each track the
+     * objects of their own file.
+     * Pre-Condition: Two workers each have a "lidars_data_path" with the objects
+     * of a different time, and one camera sees both objects.
+     * Post-Condition: Both objects become landmarks with their cloud points, so
+     * every detection reached the worker that has its data.
+     * Invariant: The workers share no data base.
+     */
+    @Test
+    void testPerWorkerDataFilesAreRoutedByWorker(@TempDir Path directory) throws IOException {
+        Files.write(directory.resolve("lidar1.json"), Arrays.asList(
+                "[{\"time\": 2, \"id\": \"Wall_1\", \"cloudPoints\": [[0.1, 3.6, 0.1]]}]"));
+        Files.write(directory.resolve("lidar2.json"), Arrays.asList(
+                "[{\"time\": 4, \"id\": \"Wall_3\", \"cloudPoints\": [[3.0, -0.3, 0.1]]}]"));
+        Files.write(directory.resolve("camera_data.json"), Arrays.asList("{\"camera1\": ["
+                + "{\"time\": 2, \"detectedObjects\": [{\"id\": \"Wall_1\", \"description\": \"Wall\"}]},"
+                + "{\"time\": 4, \"detectedObjects\": [{\"id\": \"Wall_3\", \"description\": \"Wall\"}]}]}"));
+        Files.write(directory.resolve("pose_data.json"), Arrays.asList("["
+                + "{\"time\": 1, \"x\": 0, \"y\": 0, \"yaw\": 0}, {\"time\": 2, \"x\": 0, \"y\": 0, \"yaw\": 0},"
+                + "{\"time\": 3, \"x\": 0, \"y\": 0, \"yaw\": 0}, {\"time\": 4, \"x\": 0, \"y\": 0, \"yaw\": 0},"
+                + "{\"time\": 5, \"x\": 0, \"y\": 0, \"yaw\": 0}]"));
+        Path config = directory.resolve("configuration_file.json");
+        Files.write(config, Arrays.asList("{"
+                + "\"Cameras\": {\"CamerasConfigurations\": [{\"id\": 1, \"frequency\": 0, \"camera_key\": \"camera1\"}],"
+                + " \"camera_datas_path\": \"./camera_data.json\"},"
+                + "\"LiDarWorkers\": {\"LidarConfigurations\": ["
+                + "{\"id\": 1, \"frequency\": 0, \"lidars_data_path\": \"./lidar1.json\"},"
+                + "{\"id\": 2, \"frequency\": 0, \"lidars_data_path\": \"./lidar2.json\"}]},"
+                + "\"poseJsonFile\": \"./pose_data.json\", \"TickTime\": 1, \"Duration\": 5}"));
+        FusionSlam.getInstance().reset();
+
+        try {
+            GurionRockRunner.main(new String[] { config.toString() });
+
+            List<LandMark> landmarks = FusionSlam.getInstance().getLandmarks();
+            assertEquals(2, landmarks.size(), "Both objects should become landmarks.");
+            for (LandMark landmark : landmarks) {
+                assertEquals(1, landmark.getNumPoints(), landmark.getId() + " should have its cloud point.");
+            }
+        } finally {
+            FusionSlam.getInstance().reset();
+            StatisticalFolder.getInstance().reset();
+        }
+    }
+
+    /**
+     * Test: A shared data file is split between workers and frames are routed
+     * to the part that has each object.
+     * Pre-Condition: A data base with 40 objects at tick 3 and an "ERROR" record
+     * at tick 7, split in 3 parts.
+     * Post-Condition: Every object is in exactly one part and is routed to the
+     * worker of that part; every part has the fault, and a frame at tick 7 goes
+     * to every worker even with no object of theirs.
+     * Invariant: The counters of the parts add up to the records of the objects
+     * plus one "ERROR" record per part.
+     */
+    @Test
+    void testPartitionedDataIsRoutedToItsWorker() {
+        LiDarDataBase dataBase = LiDarDataBase.live();
+        List<DetectedObject> detectedObjects = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            dataBase.append(new StampedCloudPoints(3, "obj" + i, new double[] { i, 0 }, 1));
+            detectedObjects.add(new DetectedObject("obj" + i, "Object " + i));
+        }
+        dataBase.append(new StampedCloudPoints(7, "ERROR", new double[0], 0));
+        List<LiDarDataBase> parts = dataBase.partition(3);
+        LiDarRouter router = new LiDarRouter();
+        for (int i = 0; i < parts.size(); i++) {
+            router.addOwner("LiDarService" + i, parts.get(i));
+        }
+
+        int counted = 0;
+        for (LiDarDataBase part : parts) {
+            assertTrue(part.getFaultSchedule().isFaultAt(7), "Every part should have the fault.");
+            counted += part.getCounter();
+        }
+        assertEquals(40 + 3, counted, "Each object should be in one part.");
+
+        Map<String, StampedDetectedObject> routed = router.route(new StampedDetectedObject(3, detectedObjects));
+        int routedObjects = 0;
+        for (Map.Entry<String, StampedDetectedObject> part : routed.entrySet()) {
+            LiDarDataBase owner = parts.get(Integer.parseInt(part.getKey().substring("LiDarService".length())));
+            for (DetectedObject detectedObject : part.getValue().getDetectedObjects()) {
+                assertNotNull(owner.getCloudPointsAt(detectedObject.getId(), 3),
+                        detectedObject.getId() + " should go to the worker that has it.");
+                routedObjects++;
+            }
+        }
+        assertEquals(40, routedObjects, "Every object should be routed once.");
+
+        Map<String, StampedDetectedObject> faulty = router.route(new StampedDetectedObject(7, new ArrayList<>()));
+        assertEquals(3, faulty.size(), "Every worker should get the frame of its fault.");
+    }
+}
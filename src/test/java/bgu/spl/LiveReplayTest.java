@@ -0,0 +1,165 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import bgu.spl.mics.application.objects.LiDarDataBase;
+import bgu.spl.mics.application.objects.LiveRecordStream;
+import bgu.spl.mics.application.objects.LiveReplay;
+import bgu.spl.mics.application.objects.StampedCloudPoints;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LiveReplayTest {
+
+    private static void append(Path file, String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    // Waits until the list has the size, fails after two seconds
+    private static void awaitSize(List<Integer> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (list.size() < size) {
+            assertTrue(System.currentTimeMillis() < deadline, "Expected " + size + " records, got " + list);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Test: Records are visible in a live data base as soon as their line is
+     * complete, and the stream closes after the idle timeout.
+     * Pre-Condition: A LiDAR file holds a record of time 1 and half a record of
+     * time 2.
+     * Post-Condition: The clock waits at tick 1 until the second record's
+     * newline is written; the data base is complete once the file stops growing.
+     * Invariant: The data base counts every appended record.
+     */
+    @Test
+    void testRecordsVisibleAsAppended(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("lidar.jsonl");
+        LiDarDataBase dataBase = LiDarDataBase.live();
+        CountDownLatch closed = new CountDownLatch(1);
+        LiveReplay replay = new LiveReplay(300, 5, 10);
+        LiveRecordStream stream = replay.addStream("lidar", file.toString(), line -> {
+            int time = Integer.parseInt(line);
+            dataBase.append(new StampedCloudPoints(time, "Wall_" + time, Collections.emptyList()));
+            return time;
+        }, () -> {
+            dataBase.markComplete();
+            closed.countDown();
+        });
+        append(file, "1\n2");
+        replay.start();
+
+        Thread clock = new Thread(() -> {
+            try {
+                replay.awaitTick(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        clock.start();
+        clock.join(200);
+        assertTrue(clock.isAlive(), "Tick 1 is not complete before a later record arrives.");
+        assertNotNull(dataBase.getCloudPointsAt("Wall_1", 1), "The complete record should be visible.");
+        assertNull(dataBase.getCloudPointsAt("Wall_2", 2), "A half written record is not visible.");
+
+        append(file, "\n");
+        clock.join(2000);
+        assertFalse(clock.isAlive(), "The record of time 2 completes tick 1.");
+        assertNotNull(dataBase.getCloudPointsAt("Wall_2", 2));
+        assertEquals(2, dataBase.getCounter());
+        assertFalse(dataBase.isComplete(), "The stream is still open.");
+
+        assertTrue(closed.await(2, TimeUnit.SECONDS), "The stream should close after the idle timeout.");
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () -> replay.awaitTick(100),
+                "A closed stream holds no tick back.");
+        assertTrue(stream.isClosed());
+        assertTrue(dataBase.isComplete());
+    }
+
+    /**
+     * Test: A stream does not read further than the lead ahead of the clock.
+     * Pre-Condition: Records of times 1 to 5 are written at once, the lead is 1.
+     * Post-Condition: Records up to time 2 are read at tick 0 and the record of
+     * time 3 once the clock reaches tick 1.
+     * Invariant: Records are handled in file order.
+     */
+    @Test
+    void testLeadBlocksTheStream(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("poses.jsonl");
+        append(file, "1\n2\n3\n4\n5\n");
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+        LiveReplay replay = new LiveReplay(5000, 5, 1);
+        replay.addStream("poses", file.toString(), line -> {
+            handled.add(Integer.parseInt(line));
+            return Integer.parseInt(line);
+        }, null);
+        replay.start();
+
+        awaitSize(handled, 2);
+        Thread.sleep(100);
+        assertEquals(Arrays.asList(1, 2), handled, "The stream should wait after the record of time 2.");
+
+        replay.awaitTick(1);
+        awaitSize(handled, 3);
+        Thread.sleep(100);
+        assertEquals(Arrays.asList(1, 2, 3), handled, "Tick 1 lets the stream read time 3 only.");
+    }
+
+    /**
+     * Test: A line longer than the limit is dropped and the stream continues.
+     * Pre-Condition: The limit is 16 bytes; a 20000 byte line, longer than the
+     * read buffer, is between two short records.
+     * Post-Condition: Both short records are handled and one line is dropped.
+     * Invariant: The pending line never grows past the limit.
+     */
+    @Test
+    void testLongLineIsDropped(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("cameras.jsonl");
+        char[] garbage = new char[20000];
+        Arrays.fill(garbage, 'x');
+        append(file, "1\n" + new String(garbage) + "\n2\n");
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+        CountDownLatch closed = new CountDownLatch(1);
+        LiveReplay replay = new LiveReplay(100, 5, 10, 16);
+        LiveRecordStream stream = replay.addStream("cameras", file.toString(), line -> {
+            handled.add(Integer.parseInt(line));
+            return Integer.parseInt(line);
+        }, closed::countDown);
+        replay.start();
+
+        assertTrue(closed.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2), handled, "The records around the long line should be read.");
+        assertEquals(1, stream.getDroppedLines(), "The long line should be dropped once.");
+    }
+
+    /**
+     * Test: A compressed file is rejected in live replay.
+     * Pre-Condition: The stream file ends with .GZ.
+     * Post-Condition: Adding the stream fails with a message naming the file.
+     * Invariant: No stream is added.
+     */
+    @Test
+    void testCompressedFileIsRejected(@TempDir Path directory) {
+        String filePath = directory.resolve("lidar.jsonl.GZ").toString();
+        LiveReplay replay = new LiveReplay(100, 5, 10);
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> replay.addStream("lidars", filePath, line -> 0, null));
+        assertTrue(error.getMessage().contains(filePath), "The error should name the file.");
+    }
+}
@@ -0,0 +1,192 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import bgu.spl.mics.application.messages.DetectObjectsEvent;
+import bgu.spl.mics.application.messages.TrackedObjectsEvent;
+import bgu.spl.mics.application.objects.CloudPoint;
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.LandMark;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.StampedDetectedObject;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.application.objects.TrackedObject;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MapOutputWriterTest {
+
+    // The output used to be built as maps and written by this Gson instance
+    private final Gson previousGson = new GsonBuilder().setPrettyPrinting().create();
+    private FusionSlam fusionSlam;
+    private StatisticalFolder stats;
+
+    @BeforeEach
+    void setUp() {
+        fusionSlam = FusionSlam.getInstance();
+        fusionSlam.reset();
+        stats = StatisticalFolder.getInstance();
+        stats.reset();
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        fusionSlam.addPose(new Pose(2, -3.2076f, 0.0755f, -87.48f));
+        fusionSlam.processTrackedObjects(Arrays.asList(
+                new TrackedObject("Wall_1", 2, "Wall", Arrays.asList(new CloudPoint(0.1176, 3.6969),
+                        new CloudPoint(0.11362, 3.6039))),
+                new TrackedObject("Door", 1, "Door", Arrays.asList(new CloudPoint(1, 2)))));
+        stats.restore(5, 3, 2, 2);
+    }
+
+    // The landmarks the way the output used to hold them
+    private Map<String, Object> previousLandmarks() {
+        Map<String, Object> landmarks = new LinkedHashMap<>();
+        for (LandMark landmark : fusionSlam.getLandmarks()) {
+            Map<String, Object> landmarkData = new LinkedHashMap<>();
+            landmarkData.put("id", landmark.getId());
+            landmarkData.put("description", landmark.getDescription());
+            landmarkData.put("coordinates", landmark.getCoordinates());
+            landmarks.put(landmark.getId(), landmarkData);
+        }
+        return landmarks;
+    }
+
+    private static JsonElement read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader);
+        }
+    }
+
+    // Same field names, nesting and number text; the order of the fields is not compared
+    private static void assertSameJson(JsonElement expected, JsonElement actual, String path) {
+        if (expected.isJsonObject()) {
+            assertTrue(actual.isJsonObject(), path + " should be an object");
+            JsonObject expectedObject = expected.getAsJsonObject();
+            JsonObject actualObject = actual.getAsJsonObject();
+            assertEquals(expectedObject.keySet(), actualObject.keySet(), path + " should have the same fields");
+            for (String key : expectedObject.keySet()) {
+                assertSameJson(expectedObject.get(key), actualObject.get(key), path + "." + key);
+            }
+        } else if (expected.isJsonArray()) {
+            assertTrue(actual.isJsonArray(), path + " should be an array");
+            JsonArray expectedArray = expected.getAsJsonArray();
+            JsonArray actualArray = actual.getAsJsonArray();
+            assertEquals(expectedArray.size(), actualArray.size(), path + " should have the same length");
+            for (int i = 0; i < expectedArray.size(); i++) {
+                assertSameJson(expectedArray.get(i), actualArray.get(i), path + "[" + i + "]");
+            }
+        } else {
+            assertEquals(expected.toString(), actual.toString(), path + " should be written the same way");
+        }
+    }
+
+    /**
+     * Test: The output without an error has the shape it had before it was
+     * streamed.
+     * Pre-Condition: Two landmarks, two poses with fractional floats and the
+     * statistics are set.
+     * Post-Condition: The file has the same field names, nesting and number
+     * text as the map-based output, and its landmarks are nested like the
+     * landmarks of example_input/output_file.json.
+     * Invariant: Floats are written with their shortest decimal text.
+     */
+    @Test
+    void testOutputWithoutErrorShape(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("output_file.json");
+        fusionSlam.generateOutputFileWithoutError(file.toString());
+
+        Map<String, Object> previous = new HashMap<>();
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("systemRuntime", stats.getSystemRuntime());
+        statistics.put("numDetectedObjects", stats.getNumDetectedObjects());
+        statistics.put("numTrackedObjects", stats.getNumTrackedObjects());
+        statistics.put("numLandmarks", stats.getNumLandmarks());
+        previous.put("statistics", statistics);
+        previous.put("landMarks", previousLandmarks());
+        previous.put("poses", fusionSlam.getAllPoses());
+        JsonElement output = read(file);
+        assertSameJson(JsonParser.parseString(previousGson.toJson(previous)), output, "output");
+        assertTrue(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).contains("\"yaw\": -87.48"),
+                "The yaw should be written as its float text.");
+
+        JsonObject example = read(Paths.get("example_input", "output_file.json")).getAsJsonObject()
+                .getAsJsonObject("landMarks");
+        JsonObject exampleLandmark = example.get(example.keySet().iterator().next()).getAsJsonObject();
+        JsonObject landmark = output.getAsJsonObject().getAsJsonObject("landMarks").getAsJsonObject("Wall_1");
+        assertEquals(exampleLandmark.keySet(), landmark.keySet(), "A landmark should have the example fields.");
+        assertEquals(exampleLandmark.getAsJsonArray("coordinates").get(0).getAsJsonObject().keySet(),
+                landmark.getAsJsonArray("coordinates").get(0).getAsJsonObject().keySet());
+    }
+
+    /**
+     * Test: The output with an error is the same text as before it was
+     * streamed.
+     * Pre-Condition: A camera and a LiDAR worker have a last frame.
+     * Post-Condition: The file is equal, character by character, to the
+     * map-based output.
+     * Invariant: The fields keep their order.
+     */
+    @Test
+    void testOutputWithErrorShape(@TempDir Path directory) throws IOException {
+        StampedDetectedObject frame = new StampedDetectedObject(2,
+                new ArrayList<>(Arrays.asList(new DetectedObject("Wall_1", "Wall"))));
+        List<TrackedObject> tracked = Arrays.asList(new TrackedObject("Wall_1", 2, "Wall",
+                Arrays.asList(new CloudPoint(0.1176, 3.6969), new CloudPoint(0.11362, 3.6039))));
+        stats.updateLastFrame("Camera1", new DetectObjectsEvent(frame, "Camera1", 2));
+        stats.updateLastFrame("LiDarWorkerTracker1", new TrackedObjectsEvent(null, 2, tracked, "LiDarService1", 2));
+        Path file = directory.resolve("error_output.json");
+        fusionSlam.generateOutputFileWithError(file.toString(), "Camera disconnected", "Camera1");
+
+        Map<String, Object> previous = new LinkedHashMap<>();
+        Map<String, Object> cameraData = new LinkedHashMap<>();
+        cameraData.put("time", 2);
+        List<Map<String, String>> detectedObjects = new ArrayList<>();
+        Map<String, String> objectData = new LinkedHashMap<>();
+        objectData.put("id", "Wall_1");
+        objectData.put("description", "Wall");
+        detectedObjects.add(objectData);
+        cameraData.put("detectedObjects", detectedObjects);
+        previous.put("lastCamerasFrame", java.util.Collections.singletonMap("Camera1", cameraData));
+        Map<String, Object> trackedData = new LinkedHashMap<>();
+        trackedData.put("id", "Wall_1");
+        trackedData.put("time", 2);
+        trackedData.put("description", "Wall");
+        trackedData.put("coordinates", tracked.get(0).getCoordinates());
+        previous.put("lastLiDarWorkerTrackersFrame", java.util.Collections.singletonMap("LiDarWorkerTracker1",
+                Arrays.asList(trackedData)));
+        previous.put("poses", fusionSlam.getAllPoses());
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("landMarks", previousLandmarks());
+        statistics.put("error", "Camera disconnected");
+        statistics.put("faultySensor", "Camera1");
+        statistics.put("systemRuntime", stats.getSystemRuntime());
+        statistics.put("numDetectedObjects", stats.getNumDetectedObjects());
+        statistics.put("numTrackedObjects", stats.getNumTrackedObjects());
+        statistics.put("numLandmarks", stats.getNumLandmarks());
+        previous.put("statistics", statistics);
+
+        assertEquals(previousGson.toJson(previous), new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+                "The error output should be written exactly as before.");
+    }
+}
@@ -1,6 +1,7 @@
 package bgu.spl;
 
 import bgu.spl.mics.*;
+import bgu.spl.mics.application.messages.TickBroadcast;
 import bgu.spl.mics.example.messages.ExampleBroadcast;
 import bgu.spl.mics.example.messages.ExampleEvent;
 import bgu.spl.mics.example.services.ExampleBroadcastListenerService;
@@ -17,6 +18,7 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class MessageBusImplTest {
 
@@ -138,4 +140,92 @@ class MessageBusImplTest {
                 assertFalse(messageBus.isRegistered(listener2), "Listener2 should be unregistered.");
         }
 
-}
\ No newline at end of file
+        /**
+         * Test: An event scheduled with sendEventAt is queued right before the tick
+         * it is due at.
+         * Pre-Condition: The clock is at tick 1; events are scheduled for ticks 1,
+         * 2 and 3.
+         * Post-Condition: The tick 1 event is sent at once; each other event is
+         * queued before the TickBroadcast of its tick.
+         * Invariant: An event counts as pending until it is sent and its onSend ran.
+         */
+        @Test
+        void testSendEventAtTick() throws InterruptedException {
+                MessageBusImpl messageBus = MessageBusImpl.getInstance();
+                MicroService sender = new ExampleEventHandlerService("Sender", new String[] { "5" });
+                MicroService receiver = new ExampleEventHandlerService("Receiver", new String[] { "5" });
+                messageBus.register(sender);
+                messageBus.register(receiver);
+                messageBus.subscribeEvent(ExampleEvent.class, receiver);
+                messageBus.subscribeBroadcast(TickBroadcast.class, receiver);
+                TickBroadcast tick1 = new TickBroadcast(1, 10);
+                messageBus.sendBroadcast(tick1);
+                assertEquals(tick1, messageBus.awaitMessage(receiver));
+
+                ExampleEvent now = new ExampleEvent("now");
+                ExampleEvent at2 = new ExampleEvent("at2");
+                ExampleEvent at3 = new ExampleEvent("at3");
+                AtomicInteger pendingWhileSent = new AtomicInteger(-1);
+                messageBus.sendEventAt(at3, 3, sender, null);
+                messageBus.sendEventAt(at2, 2, sender,
+                                () -> pendingWhileSent.set(messageBus.getNumberOfDelayedEvents(sender)));
+                messageBus.sendEventAt(now, 1, sender, null);
+                assertEquals(now, messageBus.awaitMessage(receiver), "A due event should be sent at once.");
+                assertEquals(2, messageBus.getNumberOfDelayedEvents(sender));
+
+                TickBroadcast tick2 = new TickBroadcast(2, 10);
+                messageBus.sendBroadcast(tick2);
+                assertEquals(at2, messageBus.awaitMessage(receiver), "The event should come before its tick.");
+                assertEquals(tick2, messageBus.awaitMessage(receiver));
+                assertEquals(2, pendingWhileSent.get(), "An event being sent should still count as pending.");
+                assertEquals(1, messageBus.getNumberOfDelayedEvents(sender));
+
+                TickBroadcast tick3 = new TickBroadcast(3, 10);
+                messageBus.sendBroadcast(tick3);
+                assertEquals(at3, messageBus.awaitMessage(receiver));
+                assertEquals(tick3, messageBus.awaitMessage(receiver));
+                assertEquals(0, messageBus.getNumberOfDelayedEvents(sender));
+
+                messageBus.unregister(sender);
+                messageBus.unregister(receiver);
+        }
+
+        /**
+         * Test: Unregistering drops the events a service has not sent yet.
+         * Pre-Condition: The clock is at tick 1; the sender scheduled an event for
+         * tick 3.
+         * Post-Condition: After the sender unregisters, nothing is pending and
+         * ticks 2 and 3 queue only the TickBroadcasts.
+         * Invariant: The onSend of a dropped event never runs.
+         */
+        @Test
+        void testUnregisterDropsDelayedEvents() throws InterruptedException {
+                MessageBusImpl messageBus = MessageBusImpl.getInstance();
+                MicroService sender = new ExampleEventHandlerService("Sender", new String[] { "5" });
+                MicroService receiver = new ExampleEventHandlerService("Receiver", new String[] { "5" });
+                messageBus.register(sender);
+                messageBus.register(receiver);
+                messageBus.subscribeEvent(ExampleEvent.class, receiver);
+                messageBus.subscribeBroadcast(TickBroadcast.class, receiver);
+                messageBus.sendBroadcast(new TickBroadcast(1, 10));
+                messageBus.awaitMessage(receiver);
+
+                AtomicInteger sent = new AtomicInteger();
+                messageBus.sendEventAt(new ExampleEvent("dropped"), 3, sender, sent::incrementAndGet);
+                assertEquals(1, messageBus.getNumberOfDelayedEvents(sender));
+                messageBus.unregister(sender);
+                assertEquals(0, messageBus.getNumberOfDelayedEvents(sender), "Nothing should be pending.");
+
+                for (int tick = 2; tick <= 3; tick++) {
+                        messageBus.sendBroadcast(new TickBroadcast(tick, 10));
+                        Message message = messageBus.awaitMessage(receiver);
+                        assertTrue(message instanceof TickBroadcast, "Only the tick should be queued.");
+                        assertEquals(tick, ((TickBroadcast) message).getTime());
+                }
+                assertEquals(0, sent.get(), "The dropped event should not be sent.");
+                assertTrue(messageBus.getMicroServiceQueues().get(receiver).isEmpty());
+
+                messageBus.unregister(receiver);
+        }
+
+}
@@ -0,0 +1,166 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bgu.spl.mics.application.objects.CloudPoint;
+import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.LandMark;
+import bgu.spl.mics.application.objects.OccupancyGrid;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.application.objects.TrackedObject;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OccupancyGridTest {
+
+    /**
+     * Test: A landmark covers the cells along its points and is re-rasterized
+     * when it moves.
+     * Pre-Condition: A wall from (0, 0) to (1, 0) is added to a 0.1 grid.
+     * Post-Condition: The cells along the wall are occupied; after the wall moves
+     * far away its old cells are released and the old tile is freed.
+     * Invariant: Only tiles with occupied cells are allocated.
+     */
+    @Test
+    void testIncrementalUpdateReleasesOldCells() {
+        OccupancyGrid grid = new OccupancyGrid(0.1, 16);
+        LandMark wall = new LandMark("Wall_1", "Wall", Arrays.asList(new CloudPoint(0, 0), new CloudPoint(1, 0)));
+        grid.update(wall);
+        assertEquals(1, grid.getOccupancy(0.55, 0.05), "A cell between the points should be occupied.");
+        assertEquals(0, grid.getOccupancy(0.55, 0.25), "A cell off the wall should be free.");
+
+        wall.setCoordinates(Arrays.asList(new CloudPoint(100, 100), new CloudPoint(100.5, 100)));
+        grid.update(wall);
+
+        assertEquals(0, grid.getOccupancy(0.55, 0.05), "The old cells should be released.");
+        assertEquals(1, grid.getOccupancy(100.25, 100.05), "The new cells should be occupied.");
+        assertEquals(1, grid.getTileCount(), "The empty tile should be freed.");
+    }
+
+    /**
+     * Test: Only the tiles that changed since the last export are exported.
+     * Pre-Condition: Two landmarks in different tiles are added and exported.
+     * Post-Condition: After one of them changes, only its tile is exported.
+     * Invariant: A second export without changes is empty.
+     */
+    @Test
+    void testExportDirtyTiles() {
+        OccupancyGrid grid = new OccupancyGrid(1.0, 8);
+        LandMark near = new LandMark("L1", "Landmark", Arrays.asList(new CloudPoint(1, 1)));
+        LandMark far = new LandMark("L2", "Landmark", Arrays.asList(new CloudPoint(-20, 30)));
+        grid.update(near);
+        grid.update(far);
+        assertEquals(2, grid.exportDirtyTiles().size(), "Both new tiles should be dirty.");
+
+        far.setCoordinates(Arrays.asList(new CloudPoint(-20, 30), new CloudPoint(-19, 30)));
+        grid.update(far);
+        List<OccupancyGrid.TileSnapshot> exported = grid.exportDirtyTiles();
+
+        assertEquals(1, exported.size(), "Only the changed tile should be exported.");
+        assertEquals(-3, exported.get(0).getTileX(), "The tile of the far landmark should be exported.");
+        assertTrue(grid.exportDirtyTiles().isEmpty(), "Nothing changed since the last export.");
+    }
+
+    /**
+     * Test: A cell covered by more than 255 landmarks keeps its count.
+     * Pre-Condition: 300 landmarks cover the same cell, then 299 are removed.
+     * Post-Condition: The cell counts 300, then 1, and is exported capped at
+     * 255 while it is covered by more.
+     * Invariant: FusionSlam keeps no occupancy grid unless one is set.
+     */
+    @Test
+    void testCountsAboveAByte() {
+        OccupancyGrid grid = new OccupancyGrid(1.0, 8);
+        List<LandMark> landmarks = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            LandMark landmark = new LandMark("L" + i, "Landmark", Arrays.asList(new CloudPoint(2.5, 2.5)));
+            landmarks.add(landmark);
+            grid.update(landmark);
+        }
+        assertEquals(300, grid.getOccupancy(2.5, 2.5), "Every landmark should be counted.");
+        assertEquals(255, grid.exportAllTiles().get(0).getCells()[2 * 8 + 2] & 0xff, "The export is capped.");
+
+        for (LandMark landmark : landmarks.subList(1, 300)) {
+            grid.remove(landmark);
+        }
+        assertEquals(1, grid.getOccupancy(2.5, 2.5), "The last landmark still covers the cell.");
+
+        FusionSlam.getInstance().reset();
+        assertNull(FusionSlam.getInstance().getOccupancyGrid(), "No occupancy grid unless it is configured.");
+    }
+
+    /**
+     * Test: The changed tiles are appended to the updates file as the map is
+     * built.
+     * Pre-Condition: FusionSlam has an occupancy grid with an updates file; a
+     * landmark is added, then a far one, then nothing changes.
+     * Post-Condition: The file has one line per export with changes, each
+     * holding only the tiles that changed; the output appends none after that.
+     * Invariant: Every line is a JSON object with the tick of its export.
+     */
+    @Test
+    void testUpdatesFile(@TempDir Path directory) throws IOException {
+        FusionSlam fusionSlam = FusionSlam.getInstance();
+        fusionSlam.reset();
+        StatisticalFolder.getInstance().reset();
+        fusionSlam.setOccupancyGrid(1.0, 8);
+        Path updates = directory.resolve("occupancy_updates.ndjson");
+        fusionSlam.setOccupancyUpdatesFile(updates.toString(), 2);
+        fusionSlam.addPose(new Pose(1, 0, 0, 0));
+        assertFalse(fusionSlam.isOccupancyUpdateDue(1));
+        assertTrue(fusionSlam.isOccupancyUpdateDue(2));
+
+        fusionSlam.processTrackedObjects(Arrays.asList(new TrackedObject("L1", 1, "Wall",
+                Arrays.asList(new CloudPoint(1, 1), new CloudPoint(2, 1)))));
+        fusionSlam.appendOccupancyUpdates(2);
+        fusionSlam.processTrackedObjects(Arrays.asList(new TrackedObject("L2", 1, "Wall",
+                Arrays.asList(new CloudPoint(20, 30)))));
+        fusionSlam.appendOccupancyUpdates(4);
+        fusionSlam.appendOccupancyUpdates(6);
+        fusionSlam.generateOutputFileWithoutError(directory.resolve("output_file.json").toString());
+
+        List<String> lines = Files.readAllLines(updates, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size(), "Only the exports with changes should be appended.");
+        JsonObject first = JsonParser.parseString(lines.get(0)).getAsJsonObject();
+        JsonObject second = JsonParser.parseString(lines.get(1)).getAsJsonObject();
+        assertEquals(2, first.get("tick").getAsInt());
+        assertEquals(1, first.getAsJsonArray("tiles").size());
+        assertEquals(4, second.get("tick").getAsInt());
+        assertEquals(1, second.getAsJsonArray("tiles").size(), "Only the tile of L2 changed.");
+        assertEquals(2, second.getAsJsonArray("tiles").get(0).getAsJsonObject().get("x").getAsInt());
+        fusionSlam.reset();
+    }
+
+    /**
+     * Test: A segment between far apart points is not walked.
+     * Pre-Condition: A landmark has points 10^6 map units apart on a 0.1 grid.
+     * Post-Condition: Only the cells of its two points are covered and the
+     * segment is counted as skipped.
+     * Invariant: Short segments are still walked.
+     */
+    @Test
+    void testFarPointsAreNotWalked() {
+        OccupancyGrid grid = new OccupancyGrid(0.1, 16);
+        LandMark corrupt = new LandMark("L1", "Landmark", Arrays.asList(new CloudPoint(0, 0),
+                new CloudPoint(1e6, 0), new CloudPoint(1e6 + 1, 0)));
+        grid.update(corrupt);
+
+        assertEquals(1, grid.getSkippedSegments());
+        assertEquals(1, grid.getOccupancy(0.05, 0.05));
+        assertEquals(0, grid.getOccupancy(1000.05, 0.05), "The long segment should not be walked.");
+        assertEquals(1, grid.getOccupancy(1e6 + 0.55, 0.05), "The short segment should be walked.");
+    }
+}
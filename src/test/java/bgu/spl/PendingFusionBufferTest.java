@@ -0,0 +1,99 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import bgu.spl.mics.application.messages.TrackedObjectsEvent;
+import bgu.spl.mics.application.objects.PendingFusionBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PendingFusionBufferTest {
+
+    private static TrackedObjectsEvent event(int time) {
+        return new TrackedObjectsEvent(null, time, Collections.emptyList(), "LiDarService", time);
+    }
+
+    /**
+     * Test: Poses arriving out of order release only the events of their tick.
+     * Pre-Condition: Events of ticks 3, 1 and 3 are parked; none has a pose.
+     * Post-Condition: The pose of tick 3 releases both tick 3 events in parking
+     * order; the tick 1 event waits for its own pose.
+     * Invariant: An event with an empty tracked list is bucketed by its time.
+     */
+    @Test
+    void testReleaseByPoseTick() {
+        PendingFusionBuffer buffer = new PendingFusionBuffer();
+        TrackedObjectsEvent first = event(3);
+        TrackedObjectsEvent early = event(1);
+        TrackedObjectsEvent second = event(3);
+        buffer.add(first, 4);
+        buffer.add(early, 4);
+        buffer.add(second, 5);
+
+        assertEquals(Arrays.asList(first, second), buffer.release(3));
+        assertEquals(1, buffer.size(), "The tick 1 event should still wait.");
+        assertTrue(buffer.release(2).isEmpty(), "No event waits for tick 2.");
+        assertEquals(Arrays.asList(early), buffer.release(1));
+        assertTrue(buffer.isEmpty());
+    }
+
+    /**
+     * Test: Events parked up to the watermark are evicted in tick order.
+     * Pre-Condition: Events of ticks 2 and 1 are parked at ticks 3, 5 and 3.
+     * Post-Condition: Evicting up to tick 3 returns the tick 1 event, then the
+     * tick 2 event parked at 3; the event parked at 5 stays.
+     * Invariant: The buffer size counts the events still waiting.
+     */
+    @Test
+    void testEvictParkedUpToWatermark() {
+        PendingFusionBuffer buffer = new PendingFusionBuffer();
+        TrackedObjectsEvent old = event(2);
+        TrackedObjectsEvent recent = event(2);
+        TrackedObjectsEvent early = event(1);
+        buffer.add(old, 3);
+        buffer.add(recent, 5);
+        buffer.add(early, 3);
+
+        List<TrackedObjectsEvent> evicted = buffer.evictParkedUpTo(3);
+
+        assertEquals(Arrays.asList(early, old), evicted);
+        assertEquals(1, buffer.size());
+        assertEquals(Arrays.asList(recent), buffer.release(2));
+    }
+
+    /**
+     * Test: A range of ticks releases only its buckets, and eviction skips the
+     * released events.
+     * Pre-Condition: Events of ticks 1, 2, 4 and 6 are parked at tick 3, and one
+     * of tick 5 at tick 4.
+     * Post-Condition: Releasing ticks 2 to 5 returns the events of 2, 4 and 5 in
+     * tick order; evicting up to tick 4 returns only the events of 1 and 6.
+     * Invariant: Every event is returned once.
+     */
+    @Test
+    void testReleaseRangeAndEvictTheRest() {
+        PendingFusionBuffer buffer = new PendingFusionBuffer();
+        TrackedObjectsEvent tick1 = event(1);
+        TrackedObjectsEvent tick2 = event(2);
+        TrackedObjectsEvent tick4 = event(4);
+        TrackedObjectsEvent tick5 = event(5);
+        TrackedObjectsEvent tick6 = event(6);
+        buffer.add(tick6, 3);
+        buffer.add(tick4, 3);
+        buffer.add(tick1, 3);
+        buffer.add(tick2, 3);
+        buffer.add(tick5, 4);
+
+        assertEquals(Arrays.asList(tick2, tick4, tick5), buffer.release(2, 5));
+        assertEquals(2, buffer.size());
+        assertTrue(buffer.release(5, 2).isEmpty(), "An empty range releases nothing.");
+        assertTrue(buffer.evictParkedUpTo(2).isEmpty(), "Nothing was parked up to tick 2.");
+        assertEquals(Arrays.asList(tick1, tick6), buffer.evictParkedUpTo(4));
+        assertTrue(buffer.isEmpty());
+        assertTrue(buffer.release(6).isEmpty(), "An evicted event is not released again.");
+    }
+}
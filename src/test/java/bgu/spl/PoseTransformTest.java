@@ -0,0 +1,77 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.Test;
+
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.PoseTransform;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PoseTransformTest {
+
+    /**
+     * Test: Points are rotated by the yaw and then moved by the position.
+     * Pre-Condition: A pose at (3, -2) with a yaw of 90 degrees, and a pose with
+     * a yaw of -30 degrees.
+     * Post-Condition: (1, 0) maps to (3, -1) and (0, 2) to (1, -2); under the
+     * second pose every point matches the rotation written out by hand.
+     * Invariant: The transform keeps the distance between two points.
+     */
+    @Test
+    void testValues() {
+        PoseTransform quarterTurn = new PoseTransform(new Pose(1, 3, -2, 90));
+        double[] xs = { 1, 0 };
+        double[] ys = { 0, 2 };
+        double[] globalX = new double[2];
+        double[] globalY = new double[2];
+        quarterTurn.apply(xs, ys, globalX, globalY, 0, 2);
+        assertEquals(3, globalX[0], 1e-12);
+        assertEquals(-1, globalY[0], 1e-12);
+        assertEquals(1, globalX[1], 1e-12);
+        assertEquals(-2, globalY[1], 1e-12);
+
+        PoseTransform transform = new PoseTransform(new Pose(2, -1.5f, 4.25f, -30));
+        double yaw = Math.toRadians(-30);
+        double[] localX = { 0.1176, -2.5, 7 };
+        double[] localY = { 3.6969, 0.75, -1 };
+        globalX = new double[3];
+        globalY = new double[3];
+        transform.apply(localX, localY, globalX, globalY, 0, 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(localX[i] * Math.cos(yaw) - localY[i] * Math.sin(yaw) - 1.5, globalX[i], 1e-12);
+            assertEquals(localX[i] * Math.sin(yaw) + localY[i] * Math.cos(yaw) + 4.25, globalY[i], 1e-12);
+        }
+        assertEquals(Math.hypot(localX[0] - localX[1], localY[0] - localY[1]),
+                Math.hypot(globalX[0] - globalX[1], globalY[0] - globalY[1]), 1e-12);
+    }
+
+    /**
+     * Test: The arrays are transformed in place, from an offset.
+     * Pre-Condition: Four points; the middle two are transformed into the same
+     * arrays they are read from.
+     * Post-Condition: The middle points hold the same values as a transform
+     * into separate arrays; the first and last points are unchanged.
+     * Invariant: Only {@code length} points from {@code offset} are written.
+     */
+    @Test
+    void testInPlaceFromAnOffset() {
+        PoseTransform transform = new PoseTransform(new Pose(1, 0.5f, -0.25f, 135));
+        double[] xs = { 9, 1, -2, 9 };
+        double[] ys = { 8, 3, 0.5, 8 };
+        double[] expectedX = new double[4];
+        double[] expectedY = new double[4];
+        transform.apply(xs, ys, expectedX, expectedY, 1, 2);
+
+        transform.apply(xs, ys, xs, ys, 1, 2);
+
+        assertEquals(expectedX[1], xs[1], 0);
+        assertEquals(expectedY[1], ys[1], 0);
+        assertEquals(expectedX[2], xs[2], 0);
+        assertEquals(expectedY[2], ys[2], 0);
+        assertEquals(9, xs[0]);
+        assertEquals(8, ys[0]);
+        assertEquals(9, xs[3]);
+        assertEquals(8, ys[3]);
+        assertEquals(0, expectedX[0], "Points before the offset should not be written.");
+    }
+}
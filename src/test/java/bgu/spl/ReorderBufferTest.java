@@ -0,0 +1,124 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import bgu.spl.mics.application.messages.TrackedObjectsEvent;
+import bgu.spl.mics.application.objects.ReorderBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReorderBufferTest {
+
+    private static TrackedObjectsEvent event(int time, String sender) {
+        return new TrackedObjectsEvent(null, time, Collections.emptyList(), sender, time);
+    }
+
+    /**
+     * Test: Events are released in (time, sender) order once the watermark
+     * passes them.
+     * Pre-Condition: A camera with frequency 1 and LiDAR workers with frequencies
+     * 2 and 4; no slack. Events arrive out of order.
+     * Post-Condition: At tick 6 only the events up to tick 2 are released, sorted;
+     * after the slow worker terminates the watermark moves to tick 4.
+     * Invariant: The order of the released events does not depend on the
+     * arrival order.
+     */
+    @Test
+    void testReleaseInOrderUpToWatermark() {
+        Map<String, Integer> lidars = new HashMap<>();
+        lidars.put("LiDarService1", 2);
+        lidars.put("LiDarService2", 4);
+        ReorderBuffer buffer = new ReorderBuffer(Collections.singletonMap("CameraService1", 1), lidars, 0);
+        TrackedObjectsEvent fast3 = event(3, "LiDarService1");
+        TrackedObjectsEvent slow2 = event(2, "LiDarService2");
+        TrackedObjectsEvent fast2 = event(2, "LiDarService1");
+        TrackedObjectsEvent fast1 = event(1, "LiDarService1");
+        buffer.add(fast3);
+        buffer.add(slow2);
+        buffer.add(fast2);
+        buffer.add(fast1);
+
+        assertEquals(2, buffer.getWatermark(6), "The slowest active sensor sets the watermark.");
+        assertEquals(Arrays.asList(fast1, fast2, slow2), buffer.releaseUpTo(buffer.getWatermark(6)));
+        assertEquals(1, buffer.size());
+
+        buffer.sensorTerminated("LiDarService2");
+        assertEquals(4, buffer.getWatermark(6));
+        assertEquals(Arrays.asList(fast3), buffer.releaseUpTo(buffer.getWatermark(6)));
+        assertTrue(buffer.isEmpty());
+    }
+
+    /**
+     * Test: The watermark follows the slowest active LiDAR worker's progress,
+     * and an event behind the watermark is counted as late.
+     * Pre-Condition: Two workers with frequency 5 at tick 3, so the frequencies
+     * alone would release nothing; one worker delivered up to time 4, the other
+     * up to time 3.
+     * Post-Condition: The events before time 3 are released; a time 2 event
+     * that arrives afterwards is late and is released next.
+     * Invariant: A worker's progress is the tick before its last delivered
+     * time.
+     */
+    @Test
+    void testWatermarkFollowsSenderProgress() {
+        Map<String, Integer> lidars = new HashMap<>();
+        lidars.put("LiDarService1", 5);
+        lidars.put("LiDarService2", 5);
+        ReorderBuffer buffer = new ReorderBuffer(Collections.singletonMap("CameraService1", 1), lidars, 1);
+        TrackedObjectsEvent fast1 = event(1, "LiDarService1");
+        TrackedObjectsEvent fast2 = event(2, "LiDarService1");
+        TrackedObjectsEvent fast4 = event(4, "LiDarService1");
+        TrackedObjectsEvent slow1 = event(1, "LiDarService2");
+        TrackedObjectsEvent slow3 = event(3, "LiDarService2");
+        for (TrackedObjectsEvent event : Arrays.asList(fast1, slow1, fast2, slow3, fast4)) {
+            buffer.add(event);
+        }
+
+        assertEquals(2, buffer.getWatermark(3), "The slower worker delivered up to time 3.");
+        assertEquals(Arrays.asList(fast1, slow1, fast2), buffer.releaseUpTo(buffer.getWatermark(3)));
+        assertEquals(0, buffer.getLateEvents());
+
+        TrackedObjectsEvent late = event(2, "LiDarService2");
+        buffer.add(late);
+        assertEquals(1, buffer.getLateEvents(), "The watermark already passed time 2.");
+        assertEquals(Arrays.asList(late), buffer.releaseUpTo(buffer.getWatermark(3)));
+        assertEquals(2, buffer.size(), "The events of times 3 and 4 should wait.");
+    }
+
+    /**
+     * Test: A LiDAR worker faster than a camera does not move the watermark by
+     * what it delivered.
+     * Pre-Condition: Cameras with frequencies 1 and 2 and a worker with
+     * frequency 1, slack 1. At tick 5 the worker delivers the detection of time
+     * 4 (fast camera) before the one of time 3 (slow camera).
+     * Post-Condition: Neither event is released at tick 5 and none is late;
+     * they are released in time order as the clock moves on.
+     * Invariant: The worker's progress is at most the tick minus the largest
+     * camera frequency and the slack.
+     */
+    @Test
+    void testCamerasWithDifferentFrequencies() {
+        Map<String, Integer> cameras = new HashMap<>();
+        cameras.put("CameraService1", 1);
+        cameras.put("CameraService2", 2);
+        ReorderBuffer buffer = new ReorderBuffer(cameras, Collections.singletonMap("LiDarService1", 1), 1);
+        TrackedObjectsEvent fastCamera = event(4, "LiDarService1");
+        TrackedObjectsEvent slowCamera = event(3, "LiDarService1");
+        buffer.add(fastCamera);
+        assertEquals(2, buffer.getWatermark(5), "The time 3 detection may still come.");
+        assertTrue(buffer.releaseUpTo(buffer.getWatermark(5)).isEmpty());
+        buffer.add(slowCamera);
+        assertEquals(0, buffer.getLateEvents(), "The time 3 event should not be late.");
+
+        assertEquals(Arrays.asList(slowCamera), buffer.releaseUpTo(buffer.getWatermark(6)));
+        assertEquals(Arrays.asList(fastCamera), buffer.releaseUpTo(buffer.getWatermark(7)));
+
+        buffer.sensorTerminated("CameraService2");
+        assertEquals(5, buffer.getWatermark(7), "Without the slow camera the worker's own frequency counts.");
+    }
+}
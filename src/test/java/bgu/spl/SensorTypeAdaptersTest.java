@@ -0,0 +1,84 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.SensorTypeAdapters;
+import bgu.spl.mics.application.objects.StampedCloudPoints;
+import bgu.spl.mics.application.objects.StampedDetectedObject;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorTypeAdaptersTest {
+
+    private final Gson gson = SensorTypeAdapters.createGson();
+
+    /**
+     * Test: Every sensor type reads back what it wrote.
+     * Pre-Condition: A LiDAR record with two points, a pose, a detected object
+     * and a live camera record with its camera key.
+     * Post-Condition: Each read object has the fields of the written one.
+     * Invariant: The z coordinate and unknown fields are not kept.
+     */
+    @Test
+    void testRoundTrip() {
+        StampedCloudPoints cloud = gson.fromJson(gson.toJson(gson.fromJson(
+                "{\"time\": 2, \"id\": \"Wall_1\", \"cloudPoints\": [[0.1176, 3.6969, 0.104], [0.5, -1.25, 0.104]],"
+                        + " \"sensor\": \"front\"}",
+                StampedCloudPoints.class)), StampedCloudPoints.class);
+        assertEquals(2, cloud.getTime());
+        assertEquals("Wall_1", cloud.getId());
+        assertEquals(2, cloud.getNumPoints());
+        assertEquals(0.1176, cloud.getX(0), 1e-12);
+        assertEquals(-1.25, cloud.getY(1), 1e-12);
+
+        Pose pose = gson.fromJson(gson.toJson(new Pose(3, -5.7074f, 0.1484f, -92.68f)), Pose.class);
+        assertEquals(3, pose.getTime());
+        assertEquals(-5.7074f, pose.getX());
+        assertEquals(0.1484f, pose.getY());
+        assertEquals(-92.68f, pose.getYaw());
+
+        DetectedObject object = gson.fromJson(gson.toJson(new DetectedObject("Door_2", "Door")),
+                DetectedObject.class);
+        assertEquals("Door_2", object.getId());
+        assertEquals("Door", object.getDescription());
+
+        StampedDetectedObject frame = gson.fromJson(gson.toJson(new StampedDetectedObject(4,
+                Arrays.asList(new DetectedObject("Wall_3", "Wall"), new DetectedObject("Chair_1", "Chair")),
+                "camera1")), StampedDetectedObject.class);
+        assertEquals(4, frame.getTime());
+        assertEquals("camera1", frame.getCameraKey());
+        assertEquals(2, frame.getDetectedObjects().size());
+        assertEquals("Chair_1", frame.getDetectedObjects().get(1).getId());
+        assertNull(gson.fromJson("{\"time\": 4, \"detectedObjects\": [null]}", StampedDetectedObject.class)
+                .getCameraKey(), "A record without a camera key has none.");
+    }
+
+    /**
+     * Test: Records with the wrong structure are rejected.
+     * Pre-Condition: Each type gets a record with a value of the wrong kind,
+     * and a camera record is cut in the middle.
+     * Post-Condition: Every read throws a JsonSyntaxException.
+     * Invariant: Nothing is returned for a malformed record.
+     */
+    @Test
+    void testMalformedInput() {
+        assertThrows(JsonSyntaxException.class,
+                () -> gson.fromJson("{\"time\": 2, \"cloudPoints\": [0.1, 3.6]}", StampedCloudPoints.class));
+        assertThrows(JsonSyntaxException.class,
+                () -> gson.fromJson("{\"time\": 1, \"x\": [0.0]}", Pose.class));
+        assertThrows(JsonSyntaxException.class,
+                () -> gson.fromJson("{\"id\": {\"name\": \"Wall_1\"}}", DetectedObject.class));
+        assertThrows(JsonSyntaxException.class, () -> gson.fromJson(
+                "{\"time\": 2, \"detectedObjects\": {\"id\": \"Wall_1\"}}", StampedDetectedObject.class));
+        assertThrows(JsonSyntaxException.class, () -> gson.fromJson(
+                "{\"camera_key\": \"camera1\", \"time\": 2, \"detectedObjects\": [{\"id\": \"Wall_1\"",
+                StampedDetectedObject.class));
+    }
+}
@@ -0,0 +1,95 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.TickIndex;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TickIndexTest {
+
+    /**
+     * Test: Looks up frames of compact ticks.
+     * Pre-Condition: Frames exist for ticks 1 to 4, with tick 3 missing.
+     * Post-Condition: Every existing tick returns its frame, others return null.
+     * Invariant: The index uses the dense layout.
+     */
+    @Test
+    void testDenseLookup() {
+        Pose pose1 = new Pose(1, 0, 0, 0);
+        Pose pose2 = new Pose(2, 1, 1, 0);
+        Pose pose4 = new Pose(4, 2, 2, 0);
+        TickIndex<Pose> index = new TickIndex<>(Arrays.asList(pose4, pose1, pose2), Pose::getTime);
+
+        assertTrue(index.isDense(), "Compact ticks should use the dense layout.");
+        assertEquals(pose1, index.get(1), "Pose at time 1 should match.");
+        assertEquals(pose2, index.get(2), "Pose at time 2 should match.");
+        assertNull(index.get(3), "No pose should exist at time 3.");
+        assertEquals(pose4, index.get(4), "Pose at time 4 should match.");
+        assertNull(index.get(0), "No pose should exist before the first tick.");
+        assertNull(index.get(5), "No pose should exist after the last tick.");
+    }
+
+    /**
+     * Test: Looks up frames of sparse ticks, forwards and backwards.
+     * Pre-Condition: Frames exist for ticks 1, 100 and 1000, tick 100 twice.
+     * Post-Condition: Lookups return the first frame of each tick in any order.
+     * Invariant: The index uses the sparse layout.
+     */
+    @Test
+    void testSparseLookup() {
+        Pose pose1 = new Pose(1, 0, 0, 0);
+        Pose pose100 = new Pose(100, 1, 1, 0);
+        Pose duplicate100 = new Pose(100, 9, 9, 0);
+        Pose pose1000 = new Pose(1000, 2, 2, 0);
+        List<Pose> poses = Arrays.asList(pose1, pose100, duplicate100, pose1000);
+        TickIndex<Pose> index = new TickIndex<>(poses, Pose::getTime);
+
+        assertFalse(index.isDense(), "Sparse ticks should use the sparse layout.");
+        assertEquals(3, index.size(), "Duplicate ticks should be indexed once.");
+        assertEquals(pose1, index.get(1), "Pose at time 1 should match.");
+        assertNull(index.get(50), "No pose should exist at time 50.");
+        assertEquals(pose100, index.get(100), "The first pose of time 100 should be kept.");
+        assertEquals(pose100, index.get(100), "Asking the same tick again should return the same pose.");
+        assertEquals(pose1000, index.get(1000), "Pose at time 1000 should match.");
+        assertEquals(pose1, index.get(1), "Moving backwards should still find the pose.");
+    }
+
+    /**
+     * Test: Frames appended to a sparse index are found by later lookups.
+     * Pre-Condition: The index is built from no frames, then ticks 2 and 5 are
+     * appended; 5 again and 3 are appended out of order.
+     * Post-Condition: Ticks 2 and 5 return the first appended frames, tick 3
+     * returns null; a dense index refuses appends.
+     * Invariant: The size counts the distinct appended ticks.
+     */
+    @Test
+    void testAppend() {
+        Pose pose2 = new Pose(2, 0, 0, 0);
+        Pose pose5 = new Pose(5, 1, 1, 0);
+        TickIndex<Pose> index = new TickIndex<>(new ArrayList<>(), Pose::getTime);
+        assertNull(index.get(2), "An empty index has no frames.");
+
+        index.append(pose2, 2);
+        index.append(pose5, 5);
+        index.append(new Pose(5, 9, 9, 0), 5);
+        index.append(new Pose(3, 9, 9, 0), 3);
+
+        assertEquals(2, index.size(), "Repeated and out of order ticks should be ignored.");
+        assertEquals(pose2, index.get(2), "An appended frame should be found.");
+        assertNull(index.get(3), "The out of order frame should not be indexed.");
+        assertEquals(pose5, index.get(5), "The first frame of tick 5 should be kept.");
+        for (int tick = 6; tick < 40; tick++) {
+            index.append(new Pose(tick, tick, tick, 0), tick); // grows the arrays
+        }
+        assertEquals(39, index.get(39).getTime(), "Frames appended after growing should be found.");
+
+        TickIndex<Pose> dense = new TickIndex<>(Arrays.asList(pose2, pose5), Pose::getTime);
+        assertThrows(IllegalStateException.class, () -> dense.append(new Pose(6, 0, 0, 0), 6));
+    }
+}
@@ -0,0 +1,72 @@
+package bgu.spl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bgu.spl.mics.TimingWheel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    /**
+     * Test: Items due at ticks on every wheel expire exactly at their tick.
+     * Pre-Condition: Items are scheduled 1, 63, 64, 4095, 4096, 300000 and
+     * 20000000 ticks ahead, out of order.
+     * Post-Condition: Advancing one tick at a time returns each item at its own
+     * tick; advancing in one step returns them in tick order.
+     * Invariant: The size counts the items that are still waiting.
+     */
+    @Test
+    void testItemsExpireAtTheirTick() {
+        long[] dues = { 300000, 1, 4096, 63, 20000000, 64, 4095 };
+        TimingWheel<Long> wheel = new TimingWheel<>(0);
+        for (long due : dues) {
+            wheel.schedule(due, due);
+        }
+        assertEquals(dues.length, wheel.size());
+
+        List<Long> expired = new ArrayList<>();
+        for (long tick = 1; tick <= 300000; tick++) {
+            for (long item : wheel.advanceTo(tick)) {
+                assertEquals(tick, item, "An item should expire exactly at its tick.");
+                expired.add(item);
+            }
+        }
+        assertEquals(Arrays.asList(1L, 63L, 64L, 4095L, 4096L, 300000L), expired);
+        assertEquals(1, wheel.size(), "The overflow item should still wait.");
+        assertTrue(wheel.advanceTo(19999999).isEmpty());
+        assertEquals(Arrays.asList(20000000L), wheel.advanceTo(20000000));
+
+        TimingWheel<Long> jump = new TimingWheel<>(0);
+        for (long due : dues) {
+            jump.schedule(due, due);
+        }
+        assertEquals(Arrays.asList(1L, 63L, 64L, 4095L, 4096L, 300000L, 20000000L), jump.advanceTo(20000000));
+        assertEquals(0, jump.size());
+    }
+
+    /**
+     * Test: A cancelled item never expires.
+     * Pre-Condition: Two items are due at tick 100.
+     * Post-Condition: After one is cancelled, only the other expires; cancelling
+     * an expired item does nothing.
+     * Invariant: A tick not after the current one cannot be scheduled.
+     */
+    @Test
+    void testCancel() {
+        TimingWheel<String> wheel = new TimingWheel<>(10);
+        TimingWheel.Entry<String> kept = wheel.schedule("kept", 100);
+        TimingWheel.Entry<String> dropped = wheel.schedule("dropped", 100);
+
+        assertTrue(wheel.cancel(dropped));
+        assertFalse(wheel.cancel(dropped), "An item is cancelled once.");
+        assertEquals(1, wheel.size());
+        assertEquals(Arrays.asList("kept"), wheel.advanceTo(100));
+        assertFalse(wheel.cancel(kept), "An expired item cannot be cancelled.");
+        assertThrows(IllegalArgumentException.class, () -> wheel.schedule("late", 100));
+    }
+}